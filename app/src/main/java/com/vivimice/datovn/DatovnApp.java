@@ -29,19 +29,45 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.action.SketchBuffer;
 import com.vivimice.datovn.build.BuildContext;
 import com.vivimice.datovn.build.CompBuild;
 import com.vivimice.datovn.profiler.BuildProfiler;
 
+/**
+ * Command line entry of Datovn, which builds the current directory once.
+ * 
+ * Settings are read from system properties:
+ * <ul>
+ * <li>{@value #SKETCH_BUFFER_MEMORY_LIMIT_PROPERTY}: max number of action sketches of a single 
+ *     unit kept in memory during execution, beyond which they are spilled to disk. Positive, 
+ *     defaults to {@value SketchBuffer#DEFAULT_MEMORY_LIMIT}.</li>
+ * <li>{@value #MAX_PERSISTED_MESSAGES_PROPERTY}: max number of message lines (below WARN level) 
+ *     of a single unit persisted and replayed in up-to-date builds. Negative for unlimited, 
+ *     defaults to {@value SketchBuffer#DEFAULT_MAX_PERSISTED_MESSAGES}.</li>
+ * </ul>
+ */
 public class DatovnApp {
 
     private static final Logger logger = LoggerFactory.getLogger(DatovnApp.class);
+
+    static final String SKETCH_BUFFER_MEMORY_LIMIT_PROPERTY = "datovn.sketchBufferMemoryLimit";
+    static final String MAX_PERSISTED_MESSAGES_PROPERTY = "datovn.maxPersistedMessages";
     
     private Path buildDirectory;
     private int parallelism;
+    private int sketchBufferMemoryLimit;
+    private int maxPersistedMessages;
 
     public static void main(String[] args) {
-        DatovnApp app = new DatovnApp();
+        DatovnApp app;
+        try {
+            app = new DatovnApp();
+        } catch (DatovnRuntimeException ex) {
+            logger.error("Invalid settings: {}", ex.getMessage());
+            System.exit(1);
+            return;
+        }
         boolean success = app.buildOnce();
         System.exit(success ? 0 : 1);
     }
@@ -54,6 +80,27 @@ public class DatovnApp {
         
         buildDirectory = Path.of(".").toAbsolutePath();
         logger.debug("Build directory: {}", buildDirectory);
+
+        sketchBufferMemoryLimit = getIntProperty(SKETCH_BUFFER_MEMORY_LIMIT_PROPERTY, SketchBuffer.DEFAULT_MEMORY_LIMIT);
+        if (sketchBufferMemoryLimit < 1) {
+            throw new DatovnRuntimeException("System property '" + SKETCH_BUFFER_MEMORY_LIMIT_PROPERTY + "' must be positive: " + sketchBufferMemoryLimit);
+        }
+        logger.debug("Sketch buffer memory limit set to: {}", sketchBufferMemoryLimit);
+
+        maxPersistedMessages = getIntProperty(MAX_PERSISTED_MESSAGES_PROPERTY, SketchBuffer.DEFAULT_MAX_PERSISTED_MESSAGES);
+        logger.debug("Max persisted messages set to: {}", maxPersistedMessages);
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new DatovnRuntimeException("System property '" + name + "' must be an integer: " + value);
+        }
     }
 
     public boolean buildOnce() {
@@ -106,6 +153,16 @@ public class DatovnApp {
             return compUnitThreadPool;
         }
 
+        @Override
+        public int getSketchBufferMemoryLimit() {
+            return sketchBufferMemoryLimit;
+        }
+
+        @Override
+        public int getMaxPersistedMessages() {
+            return maxPersistedMessages;
+        }
+
         @Override
         public BuildProfiler getProfiler() {
             return profiler;
@@ -16,8 +16,10 @@
 package com.vivimice.datovn.action;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -27,8 +29,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
 import com.vivimice.datovn.DatovnRuntimeException;
@@ -42,6 +47,9 @@ public class ActionsStore {
     private static final Logger logger = LoggerFactory.getLogger(ActionsStore.class);
 
     private static final String CURRENT_FILE_VERSION = "v1";
+    private static final String CURRENT_SNAPSHOT_VERSION = "v1";
+    private static final String PATH_ACCESS_SNAPSHOT_FILE = "path-access-snapshot.json";
+    private static final ObjectMapper snapshotMapper = new ObjectMapper();
     private static final ObjectMapper actionsMapper;
     static {
         YAMLFactory f = new YAMLFactory();
@@ -53,10 +61,17 @@ public class ActionsStore {
 
     private final Path stageDirectory;
     private final Path storeDirectory;
+    private final int sketchBufferMemoryLimit;
+    private final int maxPersistedMessages;
 
     public ActionsStore(BuildContext buildContext, StageContext stageContext) {
         this.stageDirectory = stageContext.getStageWorkingDir();
         this.storeDirectory = buildContext.getActionStoreDirectory().resolve(stageContext.getStageName());
+        this.sketchBufferMemoryLimit = buildContext.getSketchBufferMemoryLimit();
+        if (sketchBufferMemoryLimit < 1) {
+            throw new IllegalArgumentException("Sketch buffer memory limit must be positive: " + sketchBufferMemoryLimit);
+        }
+        this.maxPersistedMessages = buildContext.getMaxPersistedMessages();
 
         try {
             Files.createDirectories(this.storeDirectory);
@@ -73,38 +88,121 @@ public class ActionsStore {
         return storeDirectory.resolve(spec.getName() + ".actions.yml");
     }
 
+    /**
+     * Create a buffer to collect action sketches of a computation unit (created by the specified 
+     * specification) during its execution. The buffer should be closed after use.
+     */
+    public SketchBuffer createSketchBuffer(CompExecSpec spec) {
+        return new SketchBuffer(storeDirectory, spec.getName() + ".", sketchBufferMemoryLimit, maxPersistedMessages);
+    }
+
     /**
      * Write action sketches of a computation unit (created by the specified specification) to the store.
      * 
-     * @param context the stage context within which the computation unit is executed
+     * Sketches are converted to actions and written one by one, so the whole action list is never 
+     * held in memory.
+     * 
      * @param spec the specification of the computation unit
      * @param sketches the action sketches collected during the execution of the computation unit
+     * @return update time of the written actions, as in {@link LoadedSketches#updateTime()}
      */
-    public void writeActionSketches(CompExecSpec spec, List<CompAction.Sketch<?>> sketches) {
+    public String writeActionSketches(CompExecSpec spec, SketchBuffer sketches) {
         ActionPathMappingContext convertContext = new ActionPathMappingContext(stageDirectory, storeDirectory);
-
-        List<CompAction> actions = new ArrayList<>(sketches.size());
-        for (CompAction.Sketch<?> sketch : sketches) {
-            actions.add(sketch.toAction(convertContext));
-        }
-
         String updateTime = DateTimeUtils.toIsoDateTime(System.currentTimeMillis());
 
-        ActionFileData actionsData = new ActionFileData(
-            CURRENT_FILE_VERSION,
-            spec.getOpaqueIdentifier(),
-            updateTime,
-            actions
-        );
-
         Path actionsFile = getActionsFile(spec);
         logger.debug("Writing actions to: {}", actionsFile);
         actionsFile.getParent().toFile().mkdirs();
 
+        // Layout must be kept in sync with ActionFileData
+        ObjectWriter actionWriter = actionsMapper.writerFor(CompAction.class);
+        try (JsonGenerator gen = actionsMapper.getFactory().createGenerator(actionsFile.toFile(), JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeStringField("version", CURRENT_FILE_VERSION);
+            gen.writeStringField("specOpaqueId", spec.getOpaqueIdentifier());
+            gen.writeStringField("updateTime", updateTime);
+            gen.writeArrayFieldStart("actions");
+            for (CompAction.Sketch<?> sketch : sketches) {
+                actionWriter.writeValue(gen, sketch.toAction(convertContext));
+            }
+            if (sketches.getOmittedMessages() > 0) {
+                MessageOutputAction omission = new MessageOutputAction(MessageLevel.INFO, 
+                    "(" + sketches.getOmittedMessages() + " more message lines omitted)", null);
+                actionWriter.writeValue(gen, omission);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        } catch (IOException | UncheckedIOException ex) {
+            throw new DatovnRuntimeException("i/o error while writing action to file: " + actionsFile, ex);
+        }
+        return updateTime;
+    }
+
+    /**
+     * Read the path access snapshot of the stage, written by the last build.
+     * 
+     * The snapshot is only an optimization, so it's ignored if it can't be read.
+     * 
+     * @return the snapshot. null if not exists, incompatible or malformed.
+     */
+    public PathAccessSnapshot loadPathAccessSnapshot() {
+        Path snapshotFile = storeDirectory.resolve(PATH_ACCESS_SNAPSHOT_FILE);
+        if (!Files.exists(snapshotFile)) {
+            logger.debug("Path access snapshot not found: {}", snapshotFile);
+            return null;
+        }
+
+        PathAccessSnapshot snapshot;
         try {
-            actionsMapper.writeValue(actionsFile.toFile(), actionsData);
+            snapshot = snapshotMapper.readValue(snapshotFile.toFile(), PathAccessSnapshot.class);
         } catch (IOException ex) {
-            throw new DatovnRuntimeException("i/o error while writing action to file: " + actionsFile, ex);
+            logger.warn("Ignoring unreadable path access snapshot: {}", snapshotFile, ex);
+            return null;
+        }
+        if (!Objects.equals(snapshot.version(), CURRENT_SNAPSHOT_VERSION) || snapshot.units() == null) {
+            logger.debug("Ignoring incompatible path access snapshot: {}", snapshotFile);
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Write the path access snapshot of the stage, replacing the previous one.
+     * 
+     * @param units units by spec name, see {@link PathAccessSnapshot#units()}
+     */
+    public void writePathAccessSnapshot(Map<String, PathAccessSnapshot.Unit> units) {
+        Path snapshotFile = storeDirectory.resolve(PATH_ACCESS_SNAPSHOT_FILE);
+        logger.debug("Writing path access snapshot to: {}", snapshotFile);
+        Path tempFile = null;
+        try {
+            // replaced at once, so that a broken build never leaves a partial snapshot
+            tempFile = Files.createTempFile(storeDirectory, PATH_ACCESS_SNAPSHOT_FILE, ".tmp");
+            snapshotMapper.writeValue(tempFile.toFile(), new PathAccessSnapshot(CURRENT_SNAPSHOT_VERSION, units));
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            deletePathAccessSnapshot();
+            throw new DatovnRuntimeException("i/o error while writing path access snapshot to file: " + snapshotFile, ex);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ex) {
+                    logger.warn("i/o error while removing temporary file: {}. Please check and clean up manually.", tempFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the path access snapshot of the stage, if any.
+     */
+    public void deletePathAccessSnapshot() {
+        Path snapshotFile = storeDirectory.resolve(PATH_ACCESS_SNAPSHOT_FILE);
+        try {
+            Files.deleteIfExists(snapshotFile);
+        } catch (IOException ex) {
+            throw new DatovnRuntimeException("i/o error while removing path access snapshot: " + snapshotFile, ex);
         }
     }
 
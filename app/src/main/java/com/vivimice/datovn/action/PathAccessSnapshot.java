@@ -0,0 +1,57 @@
+/*
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.action;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.vivimice.datovn.util.OperationType;
+
+/**
+ * POJO that describes the format of the path access snapshot of a stage, stored by ActionStore.
+ * 
+ * The snapshot holds path access operations of every unit which completed in the last build of 
+ * the stage, which are known to be free of offence. Paths are relative to the stage working 
+ * directory, unless outside of it.
+ * 
+ * @param units units by spec name
+ */
+public record PathAccessSnapshot(
+    String version,
+    Map<String, Unit> units
+) {
+
+    /**
+     * @param specOpaqueId opaque identifier of the spec of the unit
+     * @param updateTime update time of the actions the operations come from
+     * @param operations paths by operation type
+     */
+    public record Unit(
+        String specOpaqueId,
+        String updateTime,
+        Map<OperationType, List<String>> operations
+    ) {
+
+        /**
+         * Whether the operations come from the same actions.
+         */
+        public boolean matches(String specOpaqueId, String updateTime) {
+            return Objects.equals(this.specOpaqueId, specOpaqueId) && Objects.equals(this.updateTime, updateTime);
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.action;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.vivimice.datovn.DatovnRuntimeException;
+
+/**
+ * An append-only buffer of action sketches recorded during the execution of a computation unit.
+ *
+ * Sketches are kept in memory until the number of them exceeds the memory limit. After that,
+ * buffered sketches are spilled to a temporary segment file (one JSON document per line), so
+ * that a chatty unit won't exhaust the heap. Iteration yields all sketches in the order of
+ * appending, streaming spilled ones from the segment file.
+ *
+ * Message sketches below {@link MessageLevel#WARN} level beyond the persisted message limit are
+ * counted but dropped, since they have been logged already and replaying them is of little use.
+ * Messages with higher levels are always kept, because they affect the result of the build.
+ *
+ * Note: this class is not thread-safe.
+ */
+public final class SketchBuffer implements Iterable<CompAction.Sketch<?>>, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SketchBuffer.class);
+
+    /**
+     * Default max number of sketches to be kept in memory.
+     */
+    public static final int DEFAULT_MEMORY_LIMIT = 4096;
+
+    /**
+     * Default max number of droppable message sketches to be kept.
+     */
+    public static final int DEFAULT_MAX_PERSISTED_MESSAGES = 10000;
+
+    private static final ObjectWriter segmentWriter;
+    private static final ObjectReader segmentReader;
+    static {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setSerializationInclusion(Include.NON_NULL);
+        segmentWriter = mapper.writerFor(CompAction.Sketch.class);
+        segmentReader = mapper.readerFor(CompAction.Sketch.class);
+    }
+
+    private final Path segmentDirectory;
+    private final String segmentPrefix;
+    private final int memoryLimit;
+    private final int maxPersistedMessages;
+
+    private List<CompAction.Sketch<?>> memory = new ArrayList<>();
+    private Path segmentFile;
+    private BufferedWriter segmentOut;
+    private final List<MappingIterator<?>> segmentReaders = new ArrayList<>(); // of unfinished iterations
+    private int size = 0;
+    private int persistedMessages = 0;
+    private int omittedMessages = 0;
+
+    /**
+     * @param segmentDirectory directory to create segment file in, once spilling is needed.
+     * @param segmentPrefix prefix of the segment file name
+     * @param memoryLimit max number of sketches to be kept in memory. Must be positive.
+     * @param maxPersistedMessages max number of droppable message sketches to be kept. Negative
+     *     for unlimited.
+     */
+    SketchBuffer(Path segmentDirectory, String segmentPrefix, int memoryLimit, int maxPersistedMessages) {
+        assert segmentDirectory != null;
+        assert segmentPrefix != null;
+        assert memoryLimit > 0;
+
+        this.segmentDirectory = segmentDirectory;
+        this.segmentPrefix = segmentPrefix;
+        this.memoryLimit = memoryLimit;
+        this.maxPersistedMessages = maxPersistedMessages;
+    }
+
+    /**
+     * Append a sketch to the end of the buffer.
+     */
+    public void add(CompAction.Sketch<?> sketch) {
+        assert sketch != null;
+
+        if (sketch instanceof MessageOutputAction.Sketch messageSketch && messageSketch.getLevel().compareTo(MessageLevel.WARN) < 0) {
+            if (maxPersistedMessages >= 0 && persistedMessages >= maxPersistedMessages) {
+                omittedMessages++;
+                return;
+            }
+            persistedMessages++;
+        }
+
+        memory.add(sketch);
+        size++;
+        if (memory.size() > memoryLimit) {
+            spill();
+        }
+    }
+
+    /**
+     * Number of sketches in the buffer, excluding omitted messages.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of message sketches which are dropped due to persisted message limit.
+     */
+    public int getOmittedMessages() {
+        return omittedMessages;
+    }
+
+    private void spill() {
+        try {
+            if (segmentOut == null) {
+                segmentFile = Files.createTempFile(segmentDirectory, segmentPrefix, ".sketches.tmp");
+                segmentOut = Files.newBufferedWriter(segmentFile, StandardCharsets.UTF_8);
+                logger.debug("Spilling action sketches to segment file: {}", segmentFile);
+            }
+            for (CompAction.Sketch<?> sketch : memory) {
+                segmentOut.write(segmentWriter.writeValueAsString(sketch));
+                segmentOut.newLine();
+            }
+        } catch (IOException ex) {
+            throw new DatovnRuntimeException("i/o error while spilling action sketches to: " + segmentFile, ex);
+        }
+        memory = new ArrayList<>();
+    }
+
+    /**
+     * Returns an iterator over all sketches in the order of appending. Sketches must not be added
+     * while iterating. The segment file reader of an iteration stopped early is released when the 
+     * buffer is closed.
+     *
+     * @throws UncheckedIOException if failed to read the segment file
+     */
+    @Override
+    public Iterator<CompAction.Sketch<?>> iterator() {
+        if (segmentOut == null) {
+            return memory.iterator();
+        }
+
+        MappingIterator<CompAction.Sketch<?>> spilled;
+        try {
+            segmentOut.flush();
+            spilled = segmentReader.readValues(segmentFile.toFile());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("i/o error while reading action sketches from: " + segmentFile, ex);
+        }
+        segmentReaders.add(spilled);
+
+        Iterator<CompAction.Sketch<?>> inMemory = memory.iterator();
+        return new Iterator<>() {
+            private boolean spilledDone = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!spilledDone) {
+                    if (spilled.hasNext()) {
+                        return true;
+                    }
+                    spilledDone = true;
+                    segmentReaders.remove(spilled);
+                    closeQuietly(spilled);
+                }
+                return inMemory.hasNext();
+            }
+
+            @Override
+            public CompAction.Sketch<?> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return spilledDone ? inMemory.next() : spilled.next();
+            }
+        };
+    }
+
+    /**
+     * Discards all sketches and removes the segment file, if any.
+     */
+    @Override
+    public void close() {
+        memory = new ArrayList<>();
+        for (MappingIterator<?> reader : segmentReaders) {
+            closeQuietly(reader);
+        }
+        segmentReaders.clear();
+        if (segmentOut != null) {
+            closeQuietly(segmentOut);
+            try {
+                Files.deleteIfExists(segmentFile);
+            } catch (IOException ex) {
+                logger.warn("i/o error while removing segment file: {}. Please check and clean up manually.", segmentFile);
+            }
+            segmentOut = null;
+            segmentFile = null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            logger.debug("Failed to close", ex);
+        }
+    }
+
+}
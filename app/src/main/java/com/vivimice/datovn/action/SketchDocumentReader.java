@@ -60,7 +60,7 @@ public class SketchDocumentReader implements AutoCloseable {
             String line = reader.readLine();
             if (line != null) {
                 currentLineNumber++;
-                if (currentLineNumber == 1 || line == "---") {
+                if (currentLineNumber == 1 || line.equals("---")) {
                     documentStartLineNumber = currentLineNumber;
                 }
             }
@@ -72,7 +72,7 @@ public class SketchDocumentReader implements AutoCloseable {
                 } else {
                     return null;
                 }
-            } else if (line == "---") {
+            } else if (line.equals("---")) {
                 // new document
                 String source = buffer;
                 buffer = line + "\n";
@@ -19,6 +19,7 @@ import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
 
 import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.action.SketchBuffer;
 import com.vivimice.datovn.profiler.BuildProfiler;
 
 public interface BuildContext {
@@ -29,6 +30,23 @@ public interface BuildContext {
 
     ExecutorService getCompUnitThreadPool();
 
+    /**
+     * Max number of action sketches of a single unit to be kept in memory during execution. 
+     * Sketches beyond that are spilled to a temporary segment file in the action store. Must be 
+     * positive.
+     */
+    default int getSketchBufferMemoryLimit() {
+        return SketchBuffer.DEFAULT_MEMORY_LIMIT;
+    }
+
+    /**
+     * Max number of message lines (below WARN level) of a single unit to be persisted in the 
+     * action store and replayed in up-to-date builds. Negative for unlimited.
+     */
+    default int getMaxPersistedMessages() {
+        return SketchBuffer.DEFAULT_MAX_PERSISTED_MESSAGES;
+    }
+
     /**
      * Get profiler for build process.
      */
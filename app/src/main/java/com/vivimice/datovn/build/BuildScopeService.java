@@ -0,0 +1,32 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.build;
+
+/**
+ * A service class that survives across all stages of a build. It can be used to manage 
+ * resources which are expensive to create and can be shared between stages. Services are 
+ * destroyed when the build finishes.
+ * 
+ * Note: implementation of this interface should be thread-safe, since it might be accessed by 
+ * multiple stages.
+ */
+public interface BuildScopeService {
+
+    void onInit(BuildContext context);
+
+    void onDestroy();
+
+}
@@ -19,9 +19,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.vivimice.datovn.DatovnRuntimeException;
 import com.vivimice.datovn.action.ActionsStore;
 import com.vivimice.datovn.action.MessageLevel;
@@ -33,7 +39,10 @@ import com.vivimice.datovn.stage.bootstrap.StageBootstrapSpec;
 
 public class CompBuild {
 
+    private static final Logger logger = LoggerFactory.getLogger(CompBuild.class);
+
     private final BuildContext context;
+    private final Map<String, BuildScopeService> services = new ConcurrentHashMap<>();
 
     private int totalStages;
 
@@ -61,11 +70,29 @@ public class CompBuild {
 
         totalStages = stageDirectories.size();
         int stageIndex = 0;
-        for (Path stageDirectory : stageDirectories) {
-            runStage(stageDirectory, stageIndex++);
+        try {
+            for (Path stageDirectory : stageDirectories) {
+                runStage(stageDirectory, stageIndex++);
+            }
+        } finally {
+            // Destroy all services after finishing the build
+            services.forEach((name, service) -> {
+                logger.debug("Destroying build service: {}", name);
+                service.onDestroy();
+            });
+            services.clear();
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private <T extends BuildScopeService> T getBuildService(String key, Supplier<T> factory) {
+        return (T) services.computeIfAbsent(key, k -> {
+            T service = factory.get();
+            service.onInit(context);
+            return service;
+        });
+    }
+
     private void runStage(Path stageDir, int stageIndex) {
         StageContext stageContext = new StageContextImpl(stageDir, stageIndex);
         stageContext.logProgress(0, "Building stage: " + stageContext.getStageName());
@@ -117,6 +144,11 @@ public class CompBuild {
             context.logMessage(level, message, location);
         }
 
+        @Override
+        public <T extends BuildScopeService> T getBuildService(String key, Supplier<T> factory) {
+            return CompBuild.this.getBuildService(key, factory);
+        }
+
         @Override
         public void logProgress(double progress, String description) {
             double base = 1.d * stageIndex / totalStages;
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+/**
+ * An input stream which reads actions written by an ICUE process to a named pipe (FIFO).
+ * 
+ * ICUE executables are free to open and close <code>DATOVN_ACTIONS_OUTPUT_FILE</code> several times 
+ * (e.g. appending one document at a time), and every time the writer closes the pipe, the reader
+ * side sees an EOF. This stream concatenates all these writer sessions into one continuous stream, 
+ * until {@link #finish()} is called after the ICUE process exited.
+ * 
+ * This class is NOT thread-safe, except for {@link #finish()} and {@link #wakeUp()}, which are 
+ * meant to be called from a thread other than the reading one.
+ */
+class ActionsFifoInputStream extends InputStream {
+
+    private final Path fifo;
+    private volatile boolean finished = false;
+    private InputStream current;
+
+    ActionsFifoInputStream(Path fifo) {
+        assert fifo != null;
+        this.fifo = fifo;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            if (current == null) {
+                if (finished) {
+                    return -1;
+                }
+                // Blocks until a writer opens the pipe (either the ICUE process, or a wake-up call)
+                current = new FileInputStream(fifo.toFile());
+            }
+
+            int n = current.read(b, off, len);
+            if (n >= 0) {
+                return n;
+            }
+
+            // Writer session ended. There might be subsequent sessions if ICUE process is still running.
+            current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * Mark the writer (ICUE process) as exited. Stream will reach its end after all pending data are
+     * consumed. Caller should keep calling {@link #wakeUp()} until the reading thread finishes, since
+     * the reading thread might be blocked on opening the pipe.
+     */
+    void finish() {
+        finished = true;
+    }
+
+    /**
+     * Wakes up the reading thread if it's blocked on opening the pipe, by opening the pipe in
+     * read-write mode (which never blocks) and closing it immediately.
+     */
+    void wakeUp() throws IOException {
+        new RandomAccessFile(fifo.toFile(), "rw").close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+}
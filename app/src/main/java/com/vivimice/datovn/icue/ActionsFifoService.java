@@ -0,0 +1,140 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vivimice.datovn.stage.StageContext;
+import com.vivimice.datovn.stage.StageScopeService;
+
+/**
+ * A stage scope service which manages named pipes (FIFOs) used as ICUE actions channels.
+ * 
+ * Named pipes are created on demand, and recycled after each ICUE execution. So the number of
+ * named pipes is bounded by the number of concurrent ICUE executions within the stage. All pipes
+ * are removed when the stage finishes.
+ * 
+ * This class is thread-safe.
+ */
+public class ActionsFifoService implements StageScopeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActionsFifoService.class);
+
+    private final Deque<Path> idleFifos = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger fifoCounter = new AtomicInteger();
+    private volatile Path fifoDirectory;
+
+    @Override
+    public void onInit(StageContext context) {
+        // fifo directory is created lazily
+    }
+
+    @Override
+    public void onDestroy() {
+        Path dir = fifoDirectory;
+        if (dir == null) {
+            return;
+        }
+
+        logger.debug("Removing actions fifo directory: {}", dir);
+        idleFifos.clear();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path fifo : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(fifo);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException ex) {
+            logger.warn("i/o error while removing actions fifo directory: {}. This won't cause any build error, but might leave garbages in the system. Please check and clean up manually.", dir);
+        }
+    }
+
+    /**
+     * Acquires an idle named pipe. Creates a new one if there's no idle one.
+     * 
+     * @return path of the named pipe. Won't be null.
+     * @throws IOException if named pipe cannot be created on this system.
+     */
+    public Path acquire() throws IOException {
+        Path fifo = idleFifos.pollFirst();
+        if (fifo == null) {
+            fifo = create();
+        }
+        return fifo;
+    }
+
+    /**
+     * Returns a named pipe, which had been fully drained, to the service for later reuse.
+     */
+    public void release(Path fifo) {
+        assert fifo != null;
+        idleFifos.addFirst(fifo);
+    }
+
+    /**
+     * Discards a named pipe which is in an unknown state and shouldn't be reused.
+     */
+    public void discard(Path fifo) {
+        assert fifo != null;
+        try {
+            Files.deleteIfExists(fifo);
+        } catch (IOException ex) {
+            logger.warn("i/o error while removing actions fifo: {}", fifo);
+        }
+    }
+
+    private Path create() throws IOException {
+        Path dir = getFifoDirectory();
+        Path fifo = dir.resolve("actions-" + fifoCounter.incrementAndGet() + ".yml");
+
+        // JDK has no API to create named pipes, so we use mkfifo(1) here. This only happens 
+        // when all existing pipes are in use, so it's not on the per execution path.
+        logger.debug("Creating actions fifo: {}", fifo);
+        Process p = new ProcessBuilder("mkfifo", fifo.toString())
+            .redirectErrorStream(true)
+            .start();
+        p.getOutputStream().close();
+        String output = new String(p.getInputStream().readAllBytes());
+        int exitCode;
+        try {
+            exitCode = p.waitFor();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while creating fifo: " + fifo);
+        }
+        if (exitCode != 0) {
+            throw new IOException("mkfifo failed with exit code " + exitCode + ": " + output.strip());
+        }
+        return fifo;
+    }
+
+    private synchronized Path getFifoDirectory() throws IOException {
+        if (fifoDirectory == null) {
+            fifoDirectory = Files.createTempDirectory("datovn-fifo-");
+            logger.debug("Created actions fifo directory: {}", fifoDirectory);
+        }
+        return fifoDirectory;
+    }
+
+}
@@ -53,6 +53,14 @@ public abstract class CommandBasedSpec implements CompExecSpec {
      */
     private final List<String> params;
 
+    /**
+     * Timeout of execution in milliseconds. It's not a significant property, thus not part of 
+     * the opaque identifier.
+     * 
+     * Might be null, which means no timeout.
+     */
+    private final Long timeoutMillis;
+
     /**
      * Opaque identifier for this spec.
      */
@@ -64,17 +72,20 @@ public abstract class CommandBasedSpec implements CompExecSpec {
         String revision, 
         String executable, 
         List<String> args, 
-        List<String> params
+        List<String> params,
+        Long timeoutMillis
     ) {
         assert keyPropsPrefix != null;
         assert executable != null;
         assert args != null;
         assert params != null;
+        assert timeoutMillis == null || timeoutMillis > 0;
         
         this.executable = executable;
         this.args = args;
         this.params = params;
         this.revision = revision;
+        this.timeoutMillis = timeoutMillis;
 
         String keyProperties = keyPropsPrefix + ":" + executable + ":" + args.stream().collect(Collectors.joining(" ")) + ";" + params.stream().collect(Collectors.joining(","));
         if (revision != null) {
@@ -115,6 +126,10 @@ public abstract class CommandBasedSpec implements CompExecSpec {
         return args;
     }
 
+    public Long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
     @Override
     public String toString() {
         return name;
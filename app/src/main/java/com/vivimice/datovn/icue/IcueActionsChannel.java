@@ -0,0 +1,37 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The channel through which an ICUE executable reports its actions, exposed to the executable
+ * as the path in <code>DATOVN_ACTIONS_OUTPUT_FILE</code> environment variable.
+ */
+public enum IcueActionsChannel {
+
+    /**
+     * A temporary file, which is read after the ICUE process exits and then removed.
+     */
+    @JsonProperty("file") FILE,
+
+    /**
+     * A named pipe (FIFO), which is read concurrently while the ICUE process is running. Action 
+     * documents never touch the disk, and no cleanup is required per execution.
+     */
+    @JsonProperty("fifo") FIFO,
+
+}
@@ -22,15 +22,42 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 public final class IcueSpec extends CommandBasedSpec {
 
+    /**
+     * Channel through which the ICUE executable reports actions. It's not a significant 
+     * property, thus not part of the opaque identifier.
+     * 
+     * Won't be null.
+     */
+    private final IcueActionsChannel actionsChannel;
+
+    /**
+     * Whether large params are only passed in the params file. It's not a significant property, 
+     * thus not part of the opaque identifier.
+     */
+    private final boolean largeParamsInFileOnly;
+
     @JsonCreator
     public IcueSpec(
         @JsonProperty("name") String name, 
         @JsonProperty("revision") String revision, 
         @JsonProperty("executable") String executable, 
         @JsonProperty("args") List<String> args, 
-        @JsonProperty("params") List<String> params
+        @JsonProperty("params") List<String> params,
+        @JsonProperty("actionsChannel") IcueActionsChannel actionsChannel,
+        @JsonProperty("timeoutMillis") Long timeoutMillis,
+        @JsonProperty("largeParamsInFileOnly") Boolean largeParamsInFileOnly
     ) {
-        super("icue", name, revision, executable, args, params);
+        super("icue", name, revision, executable, args, params, timeoutMillis);
+        this.actionsChannel = actionsChannel != null ? actionsChannel : IcueActionsChannel.FILE;
+        this.largeParamsInFileOnly = largeParamsInFileOnly != null && largeParamsInFileOnly;
+    }
+
+    public IcueActionsChannel getActionsChannel() {
+        return actionsChannel;
+    }
+
+    public boolean isLargeParamsInFileOnly() {
+        return largeParamsInFileOnly;
     }
 
 }
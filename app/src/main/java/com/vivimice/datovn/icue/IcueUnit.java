@@ -15,14 +15,17 @@
  */
 package com.vivimice.datovn.icue;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,7 +33,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.function.BiFunction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,11 +52,51 @@ import com.vivimice.datovn.unit.UnitContext;
  * Implementation of {@link CompUnit} which executes external executable.
  * 
  * ICUE stands for "Interface of Computation Unit Executable".
+ * 
+ * Params are passed in DATOVN_PARAM_VALUE_&lt;i&gt; environment variables. If they take more than 
+ * {@value #PARAMS_FILE_THRESHOLD} bytes in total, they are also written to a params file, whose 
+ * path is passed in DATOVN_PARAMS_FILE. A param is then left out of the environment only if 
+ * exec(2) would refuse it, or if it's larger than {@value #PARAM_ENV_MAX_BYTES} bytes and the 
+ * unit opts in with {@link IcueSpec#isLargeParamsInFileOnly()}.
  */
 public final class IcueUnit implements CompUnit {
 
     private static final Logger logger = LoggerFactory.getLogger(IcueUnit.class);
-    private static final ExecutorService outputStreamDumpers = Executors.newWorkStealingPool();
+    private static final long FIFO_WAKE_UP_INTERVAL_MILLIS = 50;
+    private static final long OUTPUT_DRAIN_GRACE_MILLIS = 1000;
+
+    /**
+     * If params take more than this (in UTF-8 bytes) in total, they are written to a params file. 
+     * Keeps the environment well below the size limit of exec(2).
+     */
+    private static final int PARAMS_FILE_THRESHOLD = 32 * 1024;
+
+    /**
+     * Params larger than this (in UTF-8 bytes) are only available in the params file, if any, and 
+     * if the unit opts in.
+     */
+    private static final int PARAM_ENV_MAX_BYTES = 4 * 1024;
+
+    /**
+     * Max size of a single "NAME=value" environment string accepted by exec(2) on Linux 
+     * (MAX_ARG_STRLEN), including the terminating NUL.
+     */
+    static final int EXEC_STRING_MAX_BYTES = 128 * 1024;
+
+    /**
+     * Max size of arguments and environment in total accepted by exec(2) on Linux, including the 
+     * pointer to each string. It's a quarter of the stack limit, 2 MiB with the usual 8 MiB stack.
+     */
+    static final long EXEC_TOTAL_MAX_BYTES = 2 * 1024 * 1024;
+
+    private static final int EXEC_POINTER_BYTES = 8;
+
+    private static final String PARAM_ENV_PREFIX = "DATOVN_PARAM_VALUE_";
+
+    // Opening a fifo blocks in native code, which would pin the carrier of a virtual thread. Use 
+    // platform threads instead.
+    private static final ExecutorService actionsFifoReaders = Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("icue-actions-fifo-", 0).daemon().factory());
 
     private final IcueSpec spec;
 
@@ -65,6 +109,94 @@ public final class IcueUnit implements CompUnit {
     public void execute(UnitContext ctx, CompActionRecorder recorder) {
         logger.info("Preparing ICUE process ...");
 
+        Path paramsFile = writeParamsFile();
+        try {
+            execute(ctx, recorder, paramsFile);
+        } finally {
+            if (paramsFile != null) {
+                try {
+                    Files.deleteIfExists(paramsFile);
+                } catch (IOException ex) {
+                    logger.warn("i/o error while remove params file: {}. This won't cause any build error, but might leave garbages in the system. Please check and clean up manually.", paramsFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all params to a temporary file, each terminated by a NUL character, if they are too 
+     * large to be passed in environment variables.
+     * 
+     * @return the params file, or null if params are small enough
+     */
+    private Path writeParamsFile() {
+        List<byte[]> params = new ArrayList<>(spec.getParams().size());
+        long totalBytes = 0;
+        for (String param : spec.getParams()) {
+            byte[] bytes = param.getBytes(StandardCharsets.UTF_8);
+            params.add(bytes);
+            totalBytes += bytes.length;
+        }
+        if (totalBytes <= PARAMS_FILE_THRESHOLD) {
+            return null;
+        }
+
+        Path paramsFile;
+        try {
+            paramsFile = Files.createTempFile("params-", ".dat");
+        } catch (IOException ex) {
+            throw new DatovnRuntimeException("Failed to create temporary params file", ex);
+        }
+        logger.debug("Writing {} bytes of params to params file: {}", totalBytes, paramsFile);
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(paramsFile))) {
+            for (byte[] param : params) {
+                out.write(param);
+                out.write(0);
+            }
+        } catch (IOException ex) {
+            try {
+                Files.deleteIfExists(paramsFile);
+            } catch (IOException suppressed) {
+                ex.addSuppressed(suppressed);
+            }
+            throw new DatovnRuntimeException("I/O error while writing params file", ex);
+        }
+        return paramsFile;
+    }
+
+    /**
+     * @param paramsFile file of all params, or null if params are passed in environment variables only
+     */
+    private void execute(UnitContext ctx, CompActionRecorder recorder, Path paramsFile) {
+
+        // Acquire actions fifo if requested
+        ActionsFifoService fifoService = null;
+        Path actionsFifo = null;
+        if (spec.getActionsChannel() == IcueActionsChannel.FIFO) {
+            fifoService = ctx.getStageService(ActionsFifoService.class.getName(), ActionsFifoService::new);
+            try {
+                actionsFifo = fifoService.acquire();
+                logger.debug("Acquired actions fifo: {}", actionsFifo);
+            } catch (IOException ex) {
+                logger.warn("Actions fifo is not available, fallback to temporary actions output file: {}", ex.getMessage());
+            }
+        }
+
+        if (actionsFifo != null) {
+            boolean drained = false;
+            try {
+                drained = execute(ctx, recorder, paramsFile, actionsFifo, true);
+            } finally {
+                if (drained) {
+                    fifoService.release(actionsFifo);
+                } else {
+                    fifoService.discard(actionsFifo);
+                }
+            }
+            return;
+        }
+
         // Create actions output file which ICUE executable will write to
         Path actionsFile;
         try {
@@ -74,12 +206,33 @@ public final class IcueUnit implements CompUnit {
         }
         logger.debug("Created actions output file: {}", actionsFile);
 
+        try {
+            execute(ctx, recorder, paramsFile, actionsFile, false);
+        } finally {
+            // Remove temporary file
+            try {
+                Files.deleteIfExists(actionsFile);
+            } catch (IOException ex) {
+                logger.warn("i/o error while remove actions output file: {}. This won't cause any build error, but might leave garbages in the system. Please check and clean up manually.", actionsFile);
+            }
+        }
+    }
+
+    /**
+     * Execute the ICUE process with the given actions output path.
+     * 
+     * @return true if the actions output has been fully consumed. 
+     */
+    private boolean execute(UnitContext ctx, CompActionRecorder recorder, Path paramsFile, Path actionsOutput, boolean isFifo) {
         // Prepare environment variables for ICUE executable
         Map<String, String> envs = new HashMap<>();
-        envs.put("DATOVN_ACTIONS_OUTPUT_FILE", actionsFile.toString());
+        envs.put("DATOVN_ACTIONS_OUTPUT_FILE", actionsOutput.toString());
         envs.put("DATOVN_PARAMS_COUNT", String.valueOf(spec.getParams().size()));
+        if (paramsFile != null) {
+            envs.put("DATOVN_PARAMS_FILE", paramsFile.toString());
+        }
         for (int i = 0; i < spec.getParams().size(); i++) {
-            envs.put("DATOVN_PARAM_VALUE_" + i, spec.getParams().get(i));
+            envs.put(PARAM_ENV_PREFIX + i, spec.getParams().get(i));
         }
         logger.debug("ICUE environment variables: {}", envs);
 
@@ -107,6 +260,9 @@ public final class IcueUnit implements CompUnit {
             ProcessBuilder pb = new ProcessBuilder(command);
             pb.directory(ctx.getWorkingDirectory().toFile());
             pb.environment().putAll(envs);
+            if (paramsFile != null) {
+                removeParamEnvs(pb.environment(), command, spec.getParams(), spec.isLargeParamsInFileOnly());
+            }
 
             logger.info("Starting ICUE process ...");
             p = pb.start();
@@ -115,75 +271,253 @@ public final class IcueUnit implements CompUnit {
             throw new DatovnRuntimeException("Failed to execute ICUE executable: " + ex.getMessage());
         }
 
+        // Read actions from fifo concurrently during process execution, since writes to the fifo 
+        // will be blocked until we read.
+        ActionsFifoInputStream fifoStream = null;
+        Future<?> actionsReader = null;
+        if (isFifo) {
+            ActionsFifoInputStream in = new ActionsFifoInputStream(actionsOutput);
+            fifoStream = in;
+            actionsReader = actionsFifoReaders.submit(() -> {
+                readActions(in, recorder, true);
+                return null;
+            });
+        }
+
         // Redirect messages from ICUE executable during process execution, stdout as INFO, stderr as ERROR
-        BiFunction<MessageLevel, InputStream, Runnable> messageRedirectorCreator = (level, inputStream) -> () -> {
-            int numOfMessages = 0;
-            logger.trace("Dumping ICUE {} messages ...", level);
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    synchronized (recorder) {
-                        recorder.recordMessage(level, line);
-                    }
-                    numOfMessages++;
-                }
-            } catch (IOException ex) {
-                logger.warn("Failed to dump ICUE {} message.", level, ex);
-            } finally {
-                logger.trace("Dumped {} ICUE {} messages", numOfMessages, level);
+        Future<?> stdoutRedirector = OutputMessagePump.start(MessageLevel.INFO, p.getInputStream(), recorder);
+        Future<?> stderrRedirector = OutputMessagePump.start(MessageLevel.ERROR, p.getErrorStream(), recorder);
+
+        // Wait for ICUE executable to finish and get its exit code. If the process doesn't finish 
+        // before the deadline, kill the whole process tree.
+        Long timeoutMillis = spec.getTimeoutMillis();
+        boolean timedOut = false;
+        int exitCode;
+        try {
+            if (timeoutMillis == null) {
+                exitCode = p.waitFor();
+            } else if (p.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                exitCode = p.exitValue();
+            } else {
+                timedOut = true;
+                logger.warn("ICUE process timed out after {}ms, killing process tree ...", timeoutMillis);
+                killProcessTree(p);
+                exitCode = p.waitFor();
+                recorder.recordFatalError("ICUE process timed out after " + timeoutMillis + "ms and was killed");
             }
-        };
-        Future<?> stdoutRedirector = outputStreamDumpers.submit(
-            messageRedirectorCreator.apply(MessageLevel.INFO, p.getInputStream()));
-        Future<?> stderrRedirector = outputStreamDumpers.submit(
-            messageRedirectorCreator.apply(MessageLevel.ERROR, p.getErrorStream()));
+            logger.debug("ICUE process exited with code: {}", exitCode);
+        } catch (InterruptedException ex) {
+            logger.error("ICUE external process execution interrupted", ex);
+            Thread.currentThread().interrupt();
+            abandonActionsFifo(fifoStream);
+            return false;
+        }
 
         try {
-            stdoutRedirector.get();
-            stderrRedirector.get();
+            if (timedOut) {
+                // Output streams should be closed since the whole process tree is killed. But don't 
+                // count on that, some descendants might have escaped.
+                stdoutRedirector.get(OUTPUT_DRAIN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                stderrRedirector.get(OUTPUT_DRAIN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                stdoutRedirector.get();
+                stderrRedirector.get();
+            }
         } catch (InterruptedException ex) {
             logger.error("Execution interrupted", ex);
             Thread.currentThread().interrupt();
-            return;
+            abandonActionsFifo(fifoStream);
+            return false;
+        } catch (TimeoutException ex) {
+            logger.warn("ICUE output streams are still open after process tree is killed, stop waiting.");
+            abandonOutputPumps(p, stdoutRedirector, stderrRedirector);
         } catch (ExecutionException ex) {
             logger.error("Execution i/o error", ex);
             throw new DatovnRuntimeException("internal error while redirecting ICUE output streams", ex);
         }
 
-        // Wait for ICUE executable to finish and get its exit code
-        int exitCode;
-        try {
-            exitCode = p.waitFor();
+        if (!isFifo) {
             recorder.recordExit(exitCode);
-            logger.debug("ICUE process exited with code: {}", exitCode);
+            if (timedOut) {
+                // Actions document is probably incomplete, and the execution has already failed.
+                return true;
+            }
+            // Copy actions from temporary file to actionsOutput
+            try {
+                readActions(Files.newInputStream(actionsOutput), recorder, false);
+            } catch (IOException ex) {
+                throw new DatovnRuntimeException("I/O error while loading action document", ex);
+            }
+            return true;
+        }
+
+        // No more writers, wait for all actions in fifo to be consumed
+        fifoStream.finish();
+        long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(OUTPUT_DRAIN_GRACE_MILLIS);
+        try {
+            while (true) {
+                try {
+                    fifoStream.wakeUp();
+                    actionsReader.get(FIFO_WAKE_UP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException ex) {
+                    if (timedOut && System.nanoTime() - drainDeadline > 0) {
+                        // Some escaped descendant is still holding the fifo, give up on it.
+                        logger.warn("Actions fifo is still open after process tree is killed, stop waiting.");
+                        abandonActionsFifo(fifoStream);
+                        recorder.recordExit(exitCode);
+                        return false;
+                    }
+                    logger.trace("Actions fifo reader still running, waking it up again ...");
+                }
+            }
         } catch (InterruptedException ex) {
-            logger.error("ICUE external process execution interrupted", ex);
+            logger.error("Execution interrupted", ex);
             Thread.currentThread().interrupt();
-            return;
+            abandonActionsFifo(fifoStream);
+            return false;
+        } catch (IOException ex) {
+            throw new DatovnRuntimeException("I/O error while waking up actions fifo reader", ex);
+        } catch (ExecutionException ex) {
+            recorder.recordExit(exitCode);
+            if (timedOut) {
+                // Actions document is probably truncated by the kill, and the execution has already failed.
+                logger.debug("Ignored actions fifo reader error after timeout", ex);
+                return true;
+            }
+            switch (ex.getCause()) {
+                case MalformedActionDocumentException e -> throw new DatovnRuntimeException("Malformed action document", e);
+                case IOException e -> throw new DatovnRuntimeException("I/O error while loading action document", e);
+                default -> throw new DatovnRuntimeException("internal error while reading ICUE actions fifo", ex);
+            }
+        }
+
+        recorder.recordExit(exitCode);
+        return true;
+    }
+
+    /**
+     * Removes DATOVN_PARAM_VALUE_&lt;i&gt; variables of params which are only available in the params 
+     * file: the large ones if the unit opts in, and the ones exec(2) would refuse. If arguments and 
+     * environment are too large in total, the largest params are removed until they fit.
+     * 
+     * @param environment environment of the process, including the inherited variables
+     * @return indexes of the removed params
+     */
+    static List<Integer> removeParamEnvs(Map<String, String> environment, List<String> command, List<String> params, boolean largeParamsInFileOnly) {
+        List<Integer> removed = new ArrayList<>();
+        List<Integer> exported = new ArrayList<>();
+        long[] envBytes = new long[params.size()];
+        for (int i = 0; i < params.size(); i++) {
+            String name = PARAM_ENV_PREFIX + i;
+            int valueBytes = params.get(i).getBytes(StandardCharsets.UTF_8).length;
+            envBytes[i] = name.length() + 1 + valueBytes + 1; // NAME=value\0
+            if (largeParamsInFileOnly && valueBytes > PARAM_ENV_MAX_BYTES) {
+                logger.debug("Param #{} takes {} bytes, only passed in params file.", i, valueBytes);
+                environment.remove(name);
+                removed.add(i);
+            } else if (envBytes[i] > EXEC_STRING_MAX_BYTES) {
+                logger.warn("Param #{} takes {} bytes, which exceeds the limit of an environment variable. It's only passed in params file.", i, valueBytes);
+                environment.remove(name);
+                removed.add(i);
+            } else {
+                exported.add(i);
+            }
+        }
+
+        long totalBytes = 0;
+        for (String arg : command) {
+            totalBytes += arg.getBytes(StandardCharsets.UTF_8).length + 1 + EXEC_POINTER_BYTES;
+        }
+        for (Map.Entry<String, String> env : environment.entrySet()) {
+            totalBytes += env.getKey().getBytes(StandardCharsets.UTF_8).length + 1 
+                    + env.getValue().getBytes(StandardCharsets.UTF_8).length + 1 + EXEC_POINTER_BYTES;
         }
-        
-        // Copy actions from temporary file to actionsOutput
-        try (SketchDocumentReader reader = new SketchDocumentReader(new BufferedReader(
-                new InputStreamReader(Files.newInputStream(actionsFile), StandardCharsets.UTF_8)))
-        ) {
+        exported.sort(Comparator.comparingLong((Integer i) -> envBytes[i]).reversed());
+        for (int i : exported) {
+            if (totalBytes <= EXEC_TOTAL_MAX_BYTES) {
+                break;
+            }
+            logger.warn("Arguments and environment exceed the limit of exec(2), param #{} is only passed in params file.", i);
+            environment.remove(PARAM_ENV_PREFIX + i);
+            totalBytes -= envBytes[i] + EXEC_POINTER_BYTES;
+            removed.add(i);
+        }
+        return removed;
+    }
+
+    /**
+     * Forcibly kills the process and all its descendants.
+     */
+    private static void killProcessTree(Process p) {
+        // Snapshot descendants before killing the process, otherwise they will be re-parented and 
+        // no longer reachable.
+        List<ProcessHandle> descendants = p.descendants().toList();
+        p.destroyForcibly();
+        for (ProcessHandle descendant : descendants) {
+            logger.debug("Killing descendant process: {}", descendant.pid());
+            descendant.destroyForcibly();
+        }
+    }
+
+    /**
+     * Best-effort to stop output pumps which are still draining streams held open by some escaped 
+     * descendant. Messages they might report afterwards are dropped by the recorder's consumer.
+     */
+    private static void abandonOutputPumps(Process p, Future<?> stdoutRedirector, Future<?> stderrRedirector) {
+        stdoutRedirector.cancel(true);
+        stderrRedirector.cancel(true);
+        for (InputStream in : List.of(p.getInputStream(), p.getErrorStream())) {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                logger.debug("Failed to close ICUE output stream", ex);
+            }
+        }
+    }
+
+    /**
+     * Best-effort to release the fifo reader, which might be blocked on opening the fifo, after
+     * execution has been interrupted.
+     */
+    private static void abandonActionsFifo(ActionsFifoInputStream fifoStream) {
+        if (fifoStream != null) {
+            fifoStream.finish();
+            try {
+                fifoStream.wakeUp();
+            } catch (IOException ex) {
+                logger.debug("Failed to wake up actions fifo reader", ex);
+            }
+        }
+    }
+
+    /**
+     * Parse actions from the input stream, and report them to the recorder.
+     * 
+     * @param concurrent true if actions are read while the ICUE process is still running.
+     */
+    private static void readActions(InputStream in, CompActionRecorder recorder, boolean concurrent) throws IOException {
+        SketchDocumentReader reader = new SketchDocumentReader(new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8)));
+        try {
             while (true) {
                 CompAction.Sketch<?> sketch = reader.read();
                 if (sketch == null) {
                     break;
                 }
+
                 recorder.record(sketch);
             }
         } catch (MalformedActionDocumentException ex) {
-            throw new DatovnRuntimeException("Malformed action document", ex);
-        } catch (IOException ex) {
-            throw new DatovnRuntimeException("I/O error while loading action document", ex);
-        }
-
-        // Remove temporary file
-        try {
-            Files.deleteIfExists(actionsFile);
-        } catch (IOException ex) {
-            logger.warn("i/o error while remove actions output file: {}. This won't cause any build error, but might leave garbages in the system. Please check and clean up manually.", actionsFile);
+            if (concurrent) {
+                // Keep draining, otherwise the ICUE process will be blocked on writing to a pipe without reader.
+                in.transferTo(OutputStream.nullOutputStream());
+                throw ex;
+            } else {
+                throw new DatovnRuntimeException("Malformed action document", ex);
+            }
+        } finally {
+            reader.close();
         }
     }
 
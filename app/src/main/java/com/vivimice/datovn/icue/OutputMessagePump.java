@@ -0,0 +1,97 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.action.MessageOutputAction;
+import com.vivimice.datovn.unit.CompActionRecorder;
+
+/**
+ * Drains output streams of external processes, and reports each line as a message.
+ *
+ * Each stream is drained by a platform daemon thread. Process output streams are pipes read by
+ * blocking native calls, which would pin the carrier of a virtual thread. With many processes
+ * running, the carriers could run out, leaving some stream undrained while its process blocks on
+ * writing to it. Lines which are already available are batched into
+ * {@link MessageOutputAction.Sketch} lists and handed over to the recorder at once, so that the
+ * recorder is not contended for every single line.
+ */
+final class OutputMessagePump {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputMessagePump.class);
+    private static final ExecutorService pumps = Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("icue-pump-", 0).daemon().factory());
+
+    /**
+     * Max number of lines to be handed over in one batch.
+     */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private OutputMessagePump() {
+    }
+
+    /**
+     * Starts draining the stream in background. The stream will be closed after it's fully drained.
+     *
+     * @param level message level of each line
+     * @return future which completes when the stream is fully drained
+     */
+    static Future<?> start(MessageLevel level, InputStream in, CompActionRecorder recorder) {
+        return pumps.submit(() -> drain(level, in, recorder));
+    }
+
+    private static void drain(MessageLevel level, InputStream in, CompActionRecorder recorder) {
+        int numOfMessages = 0;
+        logger.trace("Dumping ICUE {} messages ...", level);
+        List<MessageOutputAction.Sketch> batch = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                MessageOutputAction.Sketch sketch = new MessageOutputAction.Sketch();
+                sketch.setLevel(level);
+                sketch.setMessage(line);
+                batch.add(sketch);
+                numOfMessages++;
+
+                // Hand over when nothing more is immediately available, so that messages are not
+                // held back while the process is idle.
+                if (batch.size() >= MAX_BATCH_SIZE || !reader.ready()) {
+                    recorder.recordAll(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to dump ICUE {} message.", level, ex);
+        } finally {
+            recorder.recordAll(batch);
+            logger.trace("Dumped {} ICUE {} messages", numOfMessages, level);
+        }
+    }
+
+}
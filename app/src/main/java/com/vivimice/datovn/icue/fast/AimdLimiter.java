@@ -0,0 +1,106 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Concurrency window of a FastICUE daemon instance, adapted with AIMD (additive increase, 
+ * multiplicative decrease).
+ * 
+ * The window grows by about one per round trip while the daemon keeps responding in time and the 
+ * window is fully used. It shrinks multiplicatively when the daemon responds with 503, or when 
+ * the latency inflates well above the baseline while other invocations are in flight, which is a 
+ * sign of queueing in the daemon. Invocations of different kinds (e.g. different units) might take 
+ * very different time, so each kind has its own baseline.
+ * 
+ * Note: this class is not thread-safe, it's guarded by the owner.
+ */
+final class AimdLimiter {
+
+    static final double MIN_LIMIT = 1;
+    static final double MAX_LIMIT = 256;
+
+    /**
+     * Initial window if not specified. Daemons are expected to serve as many concurrent 
+     * invocations as units executed in parallel, which is the number of processors by default.
+     */
+    static final int DEFAULT_INITIAL_LIMIT = Runtime.getRuntime().availableProcessors();
+
+    private static final double OVERLOAD_BACKOFF_RATIO = 0.5;
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+    // latency above baseline * tolerance is considered inflated
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // baseline drifts towards higher latencies slowly, so that one lucky sample won't stick forever
+    private static final int BASELINE_DRIFT = 100;
+
+    private double limit;
+    private final Map<String, Long> baselineNanos = new HashMap<>();
+
+    AimdLimiter() {
+        this(DEFAULT_INITIAL_LIMIT);
+    }
+
+    /**
+     * @param initialLimit initial window, clamped to [{@value #MIN_LIMIT}, {@value #MAX_LIMIT}]
+     */
+    AimdLimiter(int initialLimit) {
+        this.limit = Math.min(MAX_LIMIT, Math.max(MIN_LIMIT, initialLimit));
+    }
+
+    /**
+     * Max number of in-flight invocations currently allowed. Always positive.
+     */
+    int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Feeds the latency of a successful invocation.
+     * 
+     * @param kind kind of the invocation, latencies are only compared among the same kind
+     * @param inFlight number of in-flight invocations when the invocation was sent, including itself
+     */
+    void onSuccess(String kind, long latencyNanos, int inFlight) {
+        assert kind != null;
+        assert latencyNanos >= 0;
+        Long previous = baselineNanos.get(kind);
+        long baseline;
+        if (previous == null || latencyNanos < previous) {
+            baseline = latencyNanos;
+        } else {
+            baseline = previous + (latencyNanos - previous) / BASELINE_DRIFT;
+        }
+        baselineNanos.put(kind, baseline);
+
+        // a slow invocation running alone is slow by itself, not queued behind others
+        if (inFlight > 1 && latencyNanos > baseline * LATENCY_TOLERANCE) {
+            limit = Math.max(MIN_LIMIT, limit * LATENCY_BACKOFF_RATIO);
+        } else if (inFlight >= getLimit()) {
+            // only grow when the window is actually saturated
+            limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Feeds an overload signal, i.e. 503 response.
+     */
+    void onOverload() {
+        limit = Math.max(MIN_LIMIT, limit * OVERLOAD_BACKOFF_RATIO);
+    }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_HEADER;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_LINE_DATA;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_RESPONSE_STATUS;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_TERMINATION;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_OK;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.SUPPORTED_PROTOCOLS;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the response of an EXEC-BATCH invocation, and demultiplexes it into the response of 
+ * each unit in the batch.
+ * 
+ * Each line of the batch response body is tagged with the index of the unit in the batch, 
+ * followed by a sub-frame type (<code>R</code>, <code>L</code> or <code>Z</code>) which has the 
+ * same meaning as frames of a single EXEC response:
+ * 
+ * <pre>
+ * 0 R 202 Accepted
+ * 0 L type: exit
+ * 0 Z
+ * </pre>
+ * 
+ * Sub-frames are fed to the receiver of each unit as if they were frames of separate invocations.
+ * If the batch as a whole is responded with a status other than 200, every unit gets that status.
+ */
+class BatchResponseReceiver implements FrameReceiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchResponseReceiver.class);
+
+    private final int invocationId;
+    private final List<ResponseReceiver> units;
+    private final boolean[] finished;
+    private final Runnable completionCallback;
+
+    private String protocol;
+    private boolean failed;
+
+    /**
+     * @param units receivers of units, in the order of the batch
+     * @param completionCallback called by the dispatching thread once the batch response is 
+     *     terminated or failed
+     */
+    BatchResponseReceiver(int invocationId, List<ResponseReceiver> units, Runnable completionCallback) {
+        assert units != null && !units.isEmpty();
+        assert completionCallback != null;
+        this.invocationId = invocationId;
+        this.units = units;
+        this.finished = new boolean[units.size()];
+        this.completionCallback = completionCallback;
+    }
+
+    @Override
+    public void addFrame(FastIcueFrame frame) {
+        if (failed) {
+            return;
+        }
+
+        switch (frame.type()) {
+            case FRAME_TYPE_RESPONSE_STATUS -> addResponseStatusFrame(frame);
+            case FRAME_TYPE_HEADER -> {
+                // no batch level header is defined, ignored
+            }
+            case FRAME_TYPE_LINE_DATA -> addDataLine(frame.data());
+            case FRAME_TYPE_TERMINATION -> addTerminationFrame();
+            default -> setError("Unexpected batch response frame: " + frame.type());
+        }
+    }
+
+    private void addResponseStatusFrame(FastIcueFrame frame) {
+        if (protocol != null) {
+            setError("Unexpected batch response frame: " + frame.data());
+            return;
+        }
+
+        String data = frame.data();
+        String[] parts = data.split("\\s+", 3);
+        if (parts.length != 3 || !SUPPORTED_PROTOCOLS.contains(parts[0]) || !parts[1].matches("\\d{3}")) {
+            setError("Invalid batch status frame: " + data);
+            return;
+        }
+        protocol = parts[0];
+
+        if (Integer.parseInt(parts[1]) != STATUS_OK) {
+            // the whole batch is rejected, every unit gets the same status
+            logger.debug("Batch invocation {} responded with: {}", invocationId, data);
+            for (int i = 0; i < units.size(); i++) {
+                forward(i, new FastIcueFrame(invocationId, FRAME_TYPE_RESPONSE_STATUS, data));
+                forward(i, new FastIcueFrame(invocationId, FRAME_TYPE_TERMINATION, ""));
+            }
+        }
+    }
+
+    private void addDataLine(String line) {
+        if (protocol == null) {
+            setError("Unexpected batch data frame: " + line);
+            return;
+        }
+
+        // <index> <type>[ <content>]
+        int sp1 = line.indexOf(' ');
+        int index;
+        try {
+            index = Integer.parseInt(sp1 < 0 ? line : line.substring(0, sp1));
+        } catch (NumberFormatException ex) {
+            index = -1;
+        }
+        if (index < 0 || index >= units.size() || sp1 < 0 || sp1 + 1 >= line.length()) {
+            setError("Invalid batch data line: " + line);
+            return;
+        }
+
+        char type = line.charAt(sp1 + 1);
+        String content = (sp1 + 3 <= line.length()) ? line.substring(sp1 + 3) : "";
+        switch (type) {
+            case FRAME_TYPE_RESPONSE_STATUS -> forward(index, new FastIcueFrame(invocationId, type, protocol + " " + content));
+            case FRAME_TYPE_LINE_DATA, FRAME_TYPE_TERMINATION -> forward(index, new FastIcueFrame(invocationId, type, content));
+            default -> setError("Invalid batch data line: " + line);
+        }
+    }
+
+    private void addTerminationFrame() {
+        for (int i = 0; i < units.size(); i++) {
+            if (!finished[i]) {
+                finished[i] = true;
+                units.get(i).setError("Unit is missing in batch response");
+            }
+        }
+        completionCallback.run();
+    }
+
+    private void forward(int index, FastIcueFrame frame) {
+        if (finished[index]) {
+            setError("Unexpected sub-frame of finished unit #" + index + " in batch response");
+            return;
+        }
+        if (frame.type() == FRAME_TYPE_TERMINATION) {
+            finished[index] = true;
+        }
+        units.get(index).addFrame(frame);
+    }
+
+    @Override
+    public void setError(String message) {
+        if (failed) {
+            return;
+        }
+        failed = true;
+        logger.warn("batch invocation error: {}", message);
+        for (int i = 0; i < units.size(); i++) {
+            if (!finished[i]) {
+                finished[i] = true;
+                units.get(i).setError(message);
+            }
+        }
+        completionCallback.run();
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_EXEC_BATCH;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent EXEC invocations into EXEC-BATCH invocations.
+ * 
+ * EXEC requests are gathered for a short window after the first one arrives, or until the batch 
+ * is full, and then sent as one EXEC-BATCH invocation. Each EXEC still gets its own response 
+ * receiver, fed by {@link BatchResponseReceiver}. A batch of one request is sent as plain EXEC.
+ * 
+ * This class is thread-safe.
+ */
+final class ExecBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecBatcher.class);
+
+    private static final long WINDOW_MICROS = 2000;
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("FastICUE Batcher").daemon().factory());
+
+    private record Entry(int invocationId, FastIcueRequest request, ResponseReceiver receiver) {
+    }
+
+    private final FastIcueClient client;
+    private List<Entry> pending = new ArrayList<>(); // guarded by this
+    private boolean flushScheduled = false; // guarded by this
+
+    ExecBatcher(FastIcueClient client) {
+        assert client != null;
+        this.client = client;
+    }
+
+    /**
+     * Queues an EXEC request to be sent in the next batch.
+     * 
+     * @return streaming receiver of the response
+     */
+    ResponseReceiver submit(FastIcueRequest request) {
+        int invocationId = client.nextInvocationId();
+        ResponseReceiver receiver = new ResponseReceiver(true, () -> client.removeReceiver(invocationId));
+        List<Entry> batch = null;
+        synchronized (this) {
+            pending.add(new Entry(invocationId, request, receiver));
+            if (pending.size() >= MAX_BATCH_SIZE) {
+                batch = pending;
+                pending = new ArrayList<>();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                timer.schedule(this::flush, WINDOW_MICROS, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        return receiver;
+    }
+
+    private void flush() {
+        List<Entry> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private void send(List<Entry> batch) {
+        // Units cancelled while pending are not sent at all
+        batch.removeIf(entry -> entry.receiver().isCancelled());
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (batch.size() == 1) {
+            Entry entry = batch.get(0);
+            client.registerReceiver(entry.invocationId(), entry.receiver());
+            client.sendAsync(entry.invocationId(), entry.request(), entry.receiver());
+            entry.receiver().setCanceller(() -> client.sendCancel(entry.invocationId(), -1));
+            return;
+        }
+
+        logger.debug("Sending {} EXEC requests in batch", batch.size());
+        FastIcueRequest request = new FastIcueRequest(METHOD_EXEC_BATCH);
+        request.setHeader("Units-Count", String.valueOf(batch.size()));
+        List<ResponseReceiver> units = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            for (Map.Entry<String, String> header : entry.request().getHeaders().entrySet()) {
+                request.setHeader(header.getKey() + "@" + i, header.getValue());
+            }
+            units.add(entry.receiver());
+        }
+
+        int invocationId = client.nextInvocationId();
+        BatchResponseReceiver receiver = new BatchResponseReceiver(invocationId, units, () -> client.removeReceiver(invocationId));
+        client.registerReceiver(invocationId, receiver);
+        client.sendAsync(invocationId, request, receiver);
+        for (int i = 0; i < units.size(); i++) {
+            int index = i;
+            units.get(i).setCanceller(() -> client.sendCancel(invocationId, index));
+        }
+    }
+
+}
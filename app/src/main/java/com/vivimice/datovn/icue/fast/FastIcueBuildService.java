@@ -0,0 +1,50 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import com.vivimice.datovn.build.BuildContext;
+import com.vivimice.datovn.build.BuildScopeService;
+
+/**
+ * FastICUE daemons of {@link FastIcueScope#BUILD} scope, which are reused across stages, so that 
+ * the daemon startup and its in-process caches are paid only once per build.
+ */
+public class FastIcueBuildService implements BuildScopeService {
+
+    private FastIcuePoolRegistry registry;
+
+    @Override
+    public void onInit(BuildContext context) {
+        assert context != null;
+        this.registry = new FastIcuePoolRegistry("build", context.getBuildDirectory());
+    }
+
+    @Override
+    public void onDestroy() {
+        registry.close();
+    }
+
+    /**
+     * @see FastIcuePoolRegistry#get(List, FastIcueTransport, Path, int, Integer)
+     */
+    public FastIcuePool get(List<String> command, FastIcueTransport transport, Path socketPath, int poolSize, Integer concurrency) {
+        return registry.get(command, transport, socketPath, poolSize, concurrency);
+    }
+
+}
@@ -15,17 +15,39 @@
  */
 package com.vivimice.datovn.icue.fast;
 
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.BODY_CHUNK_SIZE;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.CAPABILITY_REQUEST_BODY;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_BASE64_DATA;
 import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_HEADER;
 import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_REQUEST;
 import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_TERMINATION;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_CAPABILITIES;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_INVOCATION_ID;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_UNIT_INDEX;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_CANCEL;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_EXEC;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_EXEC_BATCH;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_PING;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.PARAM_BODY_THRESHOLD;
 import static com.vivimice.datovn.icue.fast.FastIcueConstants.PROTOCOL;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.PROTOCOL_V2;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_OK;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_VERSION_NOT_SUPPORTED;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,15 +60,41 @@ public class FastIcueClient implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(FastIcueClient.class);
     private static final AtomicInteger INVOCATION_ID_GENERATOR = new AtomicInteger(0);
 
+    /**
+     * Max time to wait for the daemon to respond to TERM. The connection is closed anyway 
+     * afterwards, so that a hung daemon can't block the shutdown.
+     */
+    static final long TERM_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final ScheduledThreadPoolExecutor deadlineTimer = new ScheduledThreadPoolExecutor(1, 
+            Thread.ofPlatform().name("FastICUE Deadline Timer").daemon().factory());
+    static {
+        // most invocations finish before their deadlines, don't keep them in the queue
+        deadlineTimer.setRemoveOnCancelPolicy(true);
+    }
+
     private final FastIcueFrameInputStream input;
-    private final FastIcueFrameOutputStream output;
-    private final Map<Integer, ResponseReceiver> receivers = new ConcurrentHashMap<>();
+    private final OutputStream output;
+    private final FastIcueFrameWriter writer;
+    private final Map<Integer, FrameReceiver> receivers = new ConcurrentHashMap<>();
+    private final ExecBatcher execBatcher = new ExecBatcher(this);
 
     private volatile boolean closed;
+    private boolean closing; // guarded by this
+
+    // Protocol negotiated with the initial PING. Null before negotiation.
+    private volatile String protocol;
+    // Invocation id of the negotiation PING. Zero if no negotiation is ongoing.
+    private volatile int negotiationId;
+    // Optional methods supported by the daemon, advertised in PING response.
+    private volatile Set<String> capabilities = Set.of();
+    // Last time a request was sent or a frame was received, for idle detection.
+    private volatile long lastActivityNanos = System.nanoTime();
 
     public FastIcueClient(InputStream daemonStdout, OutputStream daemonStdin) {
         this.input = new FastIcueFrameInputStream(daemonStdout);
-        this.output = new FastIcueFrameOutputStream(daemonStdin);
+        this.output = daemonStdin;
+        this.writer = new FastIcueFrameWriter(new FastIcueFrameOutputStream(daemonStdin), "FastICUE Request Writer");
         this.closed = false;
     }
 
@@ -60,15 +108,28 @@ public class FastIcueClient implements AutoCloseable {
             while (!closed) {
                 try {
                     FastIcueFrame frame = input.readFrame();
+                    lastActivityNanos = System.nanoTime();
                     logger.trace("Received frame: {}", frame);
 
+                    // must be checked before routing, since the negotiation finishes once its 
+                    // termination frame is routed
+                    boolean negotiating = (frame.invocationId() == negotiationId);
+
                     // route the frame to the appropriate receiver
-                    ResponseReceiver receiver = receivers.get(frame.invocationId());
+                    FrameReceiver receiver = receivers.get(frame.invocationId());
                     if (receiver != null) {
                         receiver.addFrame(frame);
                     } else {
                         logger.warn("Discarded dangled frame with invocation id: {}", frame.invocationId());
                     }
+
+                    // The daemon switches framing right after the response of negotiation PING, 
+                    // so must we before reading any further frame.
+                    if (negotiating && frame.type() == FRAME_TYPE_TERMINATION 
+                            && receiver != null && PROTOCOL_V2.equals(receiver.getProtocol())) {
+                        logger.debug("Switching input framing to {}", PROTOCOL_V2);
+                        input.setProtocol(PROTOCOL_V2);
+                    }
                 } catch (MalformedFrameException ex) {
                     ex.getInvocationId().ifPresentOrElse(
                         invocationId -> logger.warn("Discarded malformed frame with invocation id: {}", invocationId, ex),
@@ -77,88 +138,389 @@ public class FastIcueClient implements AutoCloseable {
                 }
             }
         } catch (IOException ex) {
-            close();
+            boolean closedByUs = closed;
+            shutdown(false);
             // notify all responses
-            for (ResponseReceiver receiver : receivers.values()) {
+            for (FrameReceiver receiver : receivers.values()) {
                 receiver.setError("connection i/o error");
             }
+            if (closedByUs) {
+                logger.debug("Frame dispatching stopped as connection closed.");
+                return;
+            }
             throw ex;
         }
     }
 
-    private void sendFrame(FastIcueFrame frame) throws IOException {
-        try {
-            synchronized (output) {
-                logger.trace("Sending frame: {}", frame);
-                output.writeFrame(frame);
+    /**
+     * Whether no invocation is in progress, and nothing has been exchanged with the daemon for the 
+     * given duration.
+     */
+    public boolean isIdleFor(long nanos) {
+        return receivers.isEmpty() && System.nanoTime() - lastActivityNanos >= nanos;
+    }
+
+    /**
+     * Returns the negotiated protocol. Null if not negotiated yet.
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Pings the daemon. The first ping negotiates the protocol: it's sent with the highest 
+     * protocol version we support, in the baseline framing. A daemon supporting it responds with 
+     * the same version, and both sides switch framing after the response. Otherwise the daemon
+     * responds with 505 or a lower version, and the baseline protocol is used.
+     * 
+     * No other invocation is allowed before the first ping returns. If the first ping fails (e.g. 
+     * deadline exceeded or interrupted), it's unknown which framing the daemon is using, so the 
+     * connection is closed.
+     * 
+     * Capabilities advertised in the response replace the known ones.
+     */
+    public FastIcueResponse ping() throws FastIcueInvocationException {
+        return ping(0);
+    }
+
+    /**
+     * Pings the daemon with a deadline.
+     * 
+     * @param timeoutMillis deadline of the invocation in milliseconds. Non-positive for no deadline.
+     * @see #ping()
+     */
+    public FastIcueResponse ping(long timeoutMillis) throws FastIcueInvocationException {
+        FastIcueResponse response = ping0(timeoutMillis);
+        if (response.statusCode() == STATUS_OK) {
+            String value = response.headers().getOrDefault(HEADER_CAPABILITIES, "");
+            Set<String> capabilities = Arrays.stream(value.split(","))
+                    .map(String::trim)
+                    .filter(s -> !s.isEmpty())
+                    .collect(Collectors.toUnmodifiableSet());
+            if (!capabilities.equals(this.capabilities)) {
+                logger.info("FastICUE daemon capabilities: {}", capabilities);
+                this.capabilities = capabilities;
             }
-        } catch (IOException ex) {
-            throw new IOException("i/o error while write frame", ex);
         }
+        return response;
     }
 
-    public FastIcueResponse invoke(FastIcueRequest request) throws FastIcueInvocationException {
-        logger.debug("Invoking FastIcue with request: {}", request);
+    /**
+     * Optional methods supported by the daemon, e.g. EXEC-BATCH. Empty before the first ping.
+     */
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    private FastIcueResponse ping0(long timeoutMillis) throws FastIcueInvocationException {
+        if (protocol != null) {
+            return invoke(new FastIcueRequest(METHOD_PING), timeoutMillis);
+        }
+
         if (closed) {
             throw new FastIcueInvocationException("connection closed");
         }
 
-        return doInvoke(request);
+        int invocationId = INVOCATION_ID_GENERATOR.incrementAndGet();
+        negotiationId = invocationId;
+        logger.debug("Negotiating protocol {} with FastICUE daemon ...", PROTOCOL_V2);
+        FastIcueResponse response;
+        ResponseReceiver receiver;
+        try {
+            receiver = new ResponseReceiver(false, () -> receivers.remove(invocationId));
+            start(invocationId, receiver, new FastIcueRequest(METHOD_PING), PROTOCOL_V2, timeoutMillis);
+            response = await(receiver.getFuture());
+        } catch (FastIcueInvocationException ex) {
+            // The daemon might have switched framing already, never fallback to the baseline one.
+            logger.warn("Protocol negotiation failed, closing connection: {}", ex.getMessage());
+            shutdown(false);
+            throw ex;
+        } finally {
+            negotiationId = 0;
+        }
+
+        if (response.statusCode() == STATUS_OK && PROTOCOL_V2.equals(receiver.getProtocol())) {
+            writer.setProtocol(PROTOCOL_V2);
+            protocol = PROTOCOL_V2;
+            logger.info("Negotiated protocol: {}", protocol);
+            return response;
+        }
+
+        protocol = PROTOCOL;
+        logger.info("FastICUE daemon doesn't support {}, fallback to {}", PROTOCOL_V2, protocol);
+        if (response.statusCode() == STATUS_VERSION_NOT_SUPPORTED) {
+            return invoke(new FastIcueRequest(METHOD_PING), timeoutMillis);
+        }
+        return response;
     }
 
-    private FastIcueResponse doInvoke(FastIcueRequest request) throws FastIcueInvocationException {
+    public FastIcueResponse invoke(FastIcueRequest request) throws FastIcueInvocationException {
+        return invoke(request, 0);
+    }
+
+    /**
+     * Invokes with a deadline. Once the deadline is exceeded, or the invoking thread is 
+     * interrupted, the invocation fails and the daemon is asked to abort it (if it supports 
+     * CANCEL), so that it stops wasting capacity on a result no one is waiting for.
+     * 
+     * @param timeoutMillis deadline of the invocation in milliseconds. Non-positive for no deadline.
+     */
+    public FastIcueResponse invoke(FastIcueRequest request, long timeoutMillis) throws FastIcueInvocationException {
+        return await(invokeAsync(request, timeoutMillis));
+    }
+
+    /**
+     * Invokes without waiting for the response. Failures are delivered through the future as
+     * {@link FastIcueInvocationException}. Cancelling the future cancels the invocation.
+     * 
+     * The future is completed by the frame dispatching thread, so dependent actions must either 
+     * be non-blocking or run asynchronously.
+     * 
+     * @param timeoutMillis deadline of the invocation in milliseconds. Non-positive for no deadline.
+     * @see #invoke(FastIcueRequest, long)
+     */
+    public CompletableFuture<FastIcueResponse> invokeAsync(FastIcueRequest request, long timeoutMillis) {
+        logger.debug("Invoking FastIcue with request: {}", request);
+        if (closed) {
+            return CompletableFuture.failedFuture(new FastIcueInvocationException("connection closed"));
+        }
+
         int invocationId = INVOCATION_ID_GENERATOR.incrementAndGet();
-        ResponseReceiver receiver = receivers.computeIfAbsent(invocationId, id -> new ResponseReceiver());
+        ResponseReceiver receiver = new ResponseReceiver(false, () -> receivers.remove(invocationId));
+        start(invocationId, receiver, request, currentProtocol(), timeoutMillis);
+        return receiver.getFuture();
+    }
 
-        // Send the request frames
-        try {
-            // Request frame
-            logger.trace("Sending request frame");
-            sendFrame(new FastIcueFrame(invocationId, FRAME_TYPE_REQUEST, request.getMethod() + " " + PROTOCOL));
-            // Header frames
-            logger.trace("Sending header frames");
-            for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
-                String headerName = entry.getKey();
-                String headerValue = entry.getValue();
-                sendFrame(new FastIcueFrame(invocationId, FRAME_TYPE_HEADER, headerName + ": " + headerValue));
-            }
-            // Terminator frame
-            logger.trace("Sending terminator frame");
-            sendFrame(new FastIcueFrame(invocationId, FRAME_TYPE_TERMINATION, ""));
-        } catch (IOException ex) {
-            throw new FastIcueInvocationException("i/o error while sending request", ex);
+    /**
+     * Invokes with the response body streamed. Returns as soon as the response status is received, 
+     * while data frames are still arriving. The returned response must be closed after use.
+     * 
+     * EXEC invocations are coalesced into EXEC-BATCH invocations if the daemon supports it.
+     */
+    public FastIcueStreamingResponse invokeStreaming(FastIcueRequest request) throws FastIcueInvocationException {
+        return invokeStreaming(request, 0);
+    }
+
+    /**
+     * Invokes with the response body streamed, and with a deadline covering the whole response. 
+     * Once the deadline is exceeded, or the invoking thread is interrupted, the invocation fails 
+     * (or reading the body fails) and the daemon is asked to abort it. Closing the response before 
+     * the end of body cancels the invocation as well.
+     * 
+     * @param timeoutMillis deadline of the invocation in milliseconds. Non-positive for no deadline.
+     * @see #invokeStreaming(FastIcueRequest)
+     */
+    public FastIcueStreamingResponse invokeStreaming(FastIcueRequest request, long timeoutMillis) throws FastIcueInvocationException {
+        return await(invokeStreamingAsync(request, timeoutMillis));
+    }
+
+    /**
+     * Invokes with the response body streamed, without waiting for the response status. Failures 
+     * are delivered through the future as {@link FastIcueInvocationException}. Cancelling the 
+     * future cancels the invocation.
+     * 
+     * The future is completed by the frame dispatching thread, so dependent actions must either 
+     * be non-blocking or run asynchronously. Reading the body blocks until data arrives.
+     * 
+     * @param timeoutMillis deadline of the invocation in milliseconds. Non-positive for no deadline.
+     * @see #invokeStreaming(FastIcueRequest, long)
+     */
+    public CompletableFuture<FastIcueStreamingResponse> invokeStreamingAsync(FastIcueRequest request, long timeoutMillis) {
+        logger.debug("Invoking FastIcue with request (streaming): {}", request);
+        if (closed) {
+            return CompletableFuture.failedFuture(new FastIcueInvocationException("connection closed"));
         }
 
-        // Wait for response
+        ResponseReceiver receiver;
+        if (METHOD_EXEC.equals(request.getMethod()) && capabilities.contains(METHOD_EXEC_BATCH)) {
+            receiver = execBatcher.submit(request);
+            scheduleDeadline(receiver, timeoutMillis);
+        } else {
+            int invocationId = INVOCATION_ID_GENERATOR.incrementAndGet();
+            // The receiver is kept until the response terminates, since data frames arrive after 
+            // the response status.
+            receiver = new ResponseReceiver(true, () -> receivers.remove(invocationId));
+            start(invocationId, receiver, request, currentProtocol(), timeoutMillis);
+        }
+        return receiver.getStreamingFuture();
+    }
+
+    /**
+     * Registers the receiver and sends the request. The receiver removes itself once the response 
+     * terminates. A cancelled one is kept until the daemon aborts the invocation, so that late 
+     * frames are not taken as dangling ones.
+     */
+    private void start(int invocationId, ResponseReceiver receiver, FastIcueRequest request, String protocol, long timeoutMillis) {
+        registerReceiver(invocationId, receiver);
+        scheduleDeadline(receiver, timeoutMillis);
+        sendAsync(invocationId, request, receiver, protocol);
+        // Requests are written in the order of submission, so CANCEL never overtakes the request.
+        receiver.setCanceller(() -> sendCancel(invocationId, -1));
+    }
+
+    /**
+     * Waits for the future of an invocation. The invocation is cancelled if interrupted.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws FastIcueInvocationException {
         try {
             logger.debug("Waiting for response");
-            return receiver.get();
-        } catch (FastIcueInvocationException ex) {
-            throw ex;
+            return ResponseReceiver.await(future);
         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
             throw new FastIcueInvocationException("interrupted while waiting for response.", ex);
         }
     }
 
+    private String currentProtocol() {
+        String protocol = this.protocol;
+        return protocol != null ? protocol : PROTOCOL;
+    }
+
+    private static void scheduleDeadline(ResponseReceiver receiver, long timeoutMillis) {
+        if (timeoutMillis > 0) {
+            receiver.setDeadline(deadlineTimer.schedule(
+                    () -> receiver.cancel("deadline exceeded (" + timeoutMillis + "ms)"), 
+                    timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Asks the daemon to abort an invocation, if it supports CANCEL. The response is discarded, 
+     * since the cancelled invocation is terminated by the daemon anyway.
+     * 
+     * @param unitIndex index of the unit in an EXEC-BATCH invocation, or -1 to cancel the whole 
+     *     invocation
+     */
+    void sendCancel(int invocationId, int unitIndex) {
+        if (closed || !capabilities.contains(METHOD_CANCEL)) {
+            return;
+        }
+
+        logger.debug("Cancelling invocation {}", Integer.toHexString(invocationId));
+        FastIcueRequest request = new FastIcueRequest(METHOD_CANCEL);
+        request.setHeader(HEADER_INVOCATION_ID, Integer.toHexString(invocationId));
+        if (unitIndex >= 0) {
+            request.setHeader(HEADER_UNIT_INDEX, String.valueOf(unitIndex));
+        }
+        int cancelId = INVOCATION_ID_GENERATOR.incrementAndGet();
+        ResponseReceiver receiver = new ResponseReceiver(false, () -> receivers.remove(cancelId));
+        registerReceiver(cancelId, receiver);
+        sendAsync(cancelId, request, receiver);
+    }
+
+    /**
+     * Sends a request without waiting for it to be written. The receiver is failed if the request 
+     * can't be written.
+     */
+    void sendAsync(int invocationId, FastIcueRequest request, FrameReceiver receiver) {
+        sendAsync(invocationId, request, receiver, currentProtocol());
+    }
+
+    private void sendAsync(int invocationId, FastIcueRequest request, FrameReceiver receiver, String protocol) {
+        logger.trace("Sending request frames");
+        if (capabilities.contains(CAPABILITY_REQUEST_BODY)) {
+            request = request.withLargeParamsInBody(PARAM_BODY_THRESHOLD);
+        } else if (request.getBody() != null) {
+            receiver.setError("FastICUE daemon does not accept request body");
+            return;
+        }
+        lastActivityNanos = System.nanoTime();
+        writer.submit(toFrames(invocationId, request, protocol))
+            .whenComplete((v, ex) -> {
+                if (ex != null) {
+                    receiver.setError("i/o error while sending request: " + ex.getMessage());
+                }
+            });
+    }
+
+    private static List<FastIcueFrame> toFrames(int invocationId, FastIcueRequest request, String protocol) {
+        // Request frames are sent as a whole
+        List<FastIcueFrame> frames = new ArrayList<>(request.getHeaders().size() + 2);
+        frames.add(new FastIcueFrame(invocationId, FRAME_TYPE_REQUEST, request.getMethod() + " " + protocol));
+        for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+            String headerName = entry.getKey();
+            String headerValue = entry.getValue();
+            frames.add(new FastIcueFrame(invocationId, FRAME_TYPE_HEADER, headerName + ": " + headerValue));
+        }
+        byte[] body = request.getBody();
+        if (body != null) {
+            for (int offset = 0; offset < body.length; offset += BODY_CHUNK_SIZE) {
+                byte[] chunk = Arrays.copyOfRange(body, offset, Math.min(body.length, offset + BODY_CHUNK_SIZE));
+                frames.add(new FastIcueFrame(invocationId, FRAME_TYPE_BASE64_DATA, chunk));
+            }
+        }
+        frames.add(new FastIcueFrame(invocationId, FRAME_TYPE_TERMINATION, ""));
+        return frames;
+    }
+
+    int nextInvocationId() {
+        return INVOCATION_ID_GENERATOR.incrementAndGet();
+    }
+
+    /**
+     * Registers a receiver for frames of the invocation. If the connection is already broken, the 
+     * receiver is failed right away.
+     */
+    void registerReceiver(int invocationId, FrameReceiver receiver) {
+        receivers.put(invocationId, receiver);
+        if (closed) {
+            receivers.remove(invocationId);
+            receiver.setError("connection closed");
+        }
+    }
+
+    void removeReceiver(int invocationId) {
+        receivers.remove(invocationId);
+    }
+
     @Override
     public void close() {
-        closed = true;
+        shutdown(true);
+    }
 
-        // Send TERM request to ask the daemon to terminate gracefully
-        // NOTE: Will wait until all pending requests are processed.
-        logger.info("Sending TERM request ...");
-        try {
-            invoke(new FastIcueRequest("TERM"));
-        } catch (FastIcueInvocationException ex) {
-            logger.error("Error sending TERM request", ex);
+    /**
+     * Closes the connection without asking the daemon to terminate, for daemons shared by other 
+     * connections. Pending invocations fail.
+     */
+    public void disconnect() {
+        shutdown(false);
+    }
+
+    /**
+     * @param graceful whether to ask the daemon to terminate gracefully. Must be false if the 
+     *     connection is broken, since the response of TERM will never arrive.
+     */
+    private void shutdown(boolean graceful) {
+        synchronized (this) {
+            if (closed || closing) {
+                return;
+            }
+            closing = true;
+        }
+
+        if (graceful) {
+            // Send TERM request to ask the daemon to terminate gracefully
+            // NOTE: Will wait until all pending requests are processed, or the deadline exceeds.
+            logger.info("Sending TERM request ...");
+            try {
+                invoke(new FastIcueRequest("TERM"), TERM_TIMEOUT_MILLIS);
+            } catch (FastIcueInvocationException ex) {
+                logger.error("Error sending TERM request, closing connection anyway: {}", ex.getMessage());
+            }
         }
 
+        closed = true;
+        writer.close();
+
         try {
             input.close();
         } catch (IOException ex) {
             // ignored
         }
 
+        // Close the raw stream rather than the frame stream, which is owned by the writer thread.
+        // It also unblocks the writer thread if it's blocked on a full pipe.
         try {
             output.close();
         } catch (IOException ex) {
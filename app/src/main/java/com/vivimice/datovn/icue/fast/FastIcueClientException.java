@@ -15,14 +15,35 @@
  */
 package com.vivimice.datovn.icue.fast;
 
+import java.util.List;
+
 public class FastIcueClientException extends Exception {
 
+    private final List<String> daemonStderr;
+
     public FastIcueClientException(String message) {
-        super(message);
+        this(message, null, List.of());
     }
 
     public FastIcueClientException(String message, Throwable cause) {
+        this(message, cause, List.of());
+    }
+
+    /**
+     * @param daemonStderr last stderr lines of the daemon, see {@link #getDaemonStderr()}
+     */
+    public FastIcueClientException(String message, Throwable cause, List<String> daemonStderr) {
         super(message, cause);
+        assert daemonStderr != null;
+        this.daemonStderr = daemonStderr;
+    }
+
+    /**
+     * Last lines written to stderr by the daemon before the failure, each prefixed with the time 
+     * it arrived. Empty if unknown.
+     */
+    public List<String> getDaemonStderr() {
+        return daemonStderr;
     }
 
 }
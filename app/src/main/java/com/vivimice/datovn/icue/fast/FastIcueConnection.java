@@ -16,15 +16,29 @@
 package com.vivimice.datovn.icue.fast;
 
 import java.io.IOException;
-import java.lang.ProcessBuilder.Redirect;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.slf4j.MDC.MDCCloseable;
 
-import com.vivimice.datovn.stage.StageContext;
-
+/**
+ * Connection to a FastICUE daemon process, either through stdin/stdout of a daemon started for 
+ * the connection, or through a Unix domain socket of a daemon shared by multiple connections.
+ * 
+ * The daemon is pinged once it's started, and the connection is ready only after the daemon 
+ * responds. After that, the daemon is pinged in background only if the connection has been idle 
+ * for a while. Broken connections are detected by the frame dispatching loop or by a failed 
+ * keepalive ping, so that acquiring the client of a healthy connection costs no round trip.
+ * 
+ * The last lines written to stderr by the daemon are kept (see {@link StderrTail}), and reported 
+ * along with failures of the connection.
+ */
 public class FastIcueConnection extends Thread {
 
     private static enum State {
@@ -33,24 +47,82 @@ public class FastIcueConnection extends Thread {
 
     private static final Logger logger = LoggerFactory.getLogger(FastIcueConnection.class);
 
-    private final StageContext context;
-    private final List<String> command;
+    /**
+     * Connections idle longer than this are pinged.
+     */
+    private static final long KEEPALIVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    /**
+     * Daemons not responding to a ping within this are considered dead. Generous enough for a 
+     * daemon to start up.
+     */
+    private static final long PING_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Daemons not exiting within this after being asked to are killed forcibly.
+     */
+    private static final long DESTROY_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final String scopeName;
+    private final Path workingDirectory; // null for socket transport
+    private final List<String> command; // null for socket transport
+    private final FastIcueSocketDaemon daemon; // null for stdio transport
 
-    private Process process;
-    private FastIcueClient client;
+    private volatile Process process;
+    private volatile StderrTail stderr; // stderr of the daemon process, null for socket transport
+    private volatile SocketChannel channel;
+    private volatile FastIcueClient client;
     private volatile State state;
+    private volatile String failure; // reason of the connection failure, if any
+    private Thread keepalive;
 
-    public FastIcueConnection(StageContext context, List<String> command) {
-        assert context != null;
+    /**
+     * @param scopeName name of the scope (e.g. stage name), for logging purpose
+     * @param workingDirectory working directory of the daemon process
+     */
+    public FastIcueConnection(String scopeName, Path workingDirectory, List<String> command) {
+        assert scopeName != null;
+        assert workingDirectory != null;
         assert command != null;
-        this.context = context;
+        this.scopeName = scopeName;
+        this.workingDirectory = workingDirectory;
         this.command = command;
+        this.daemon = null;
         this.state = State.NEW;
 
-        setName("[" + context.getStageName() + "] FastICUE Daemon: " + String.join(" ", command));
+        setName("[" + scopeName + "] FastICUE Daemon: " + String.join(" ", command));
+    }
+
+    /**
+     * Connection through the Unix domain socket of a shared daemon.
+     * 
+     * @param scopeName name of the scope (e.g. stage name), for logging purpose
+     */
+    FastIcueConnection(String scopeName, FastIcueSocketDaemon daemon) {
+        assert scopeName != null;
+        assert daemon != null;
+        this.scopeName = scopeName;
+        this.workingDirectory = null;
+        this.command = null;
+        this.daemon = daemon;
+        this.state = State.NEW;
+
+        setName("[" + scopeName + "] FastICUE Socket Connection");
+    }
+
+    @Override
+    public synchronized void start() {
+        // Mark as connecting before the thread actually runs, so that getClient() right after 
+        // start() waits for the connection instead of failing.
+        setState(State.CONNECTING);
+        super.start();
     }
 
     public long getPid() {
+        if (daemon != null) {
+            return daemon.getPid();
+        }
+        Process process = this.process;
         if (process != null) {
             return process.pid();
         } else {
@@ -60,42 +132,90 @@ public class FastIcueConnection extends Thread {
 
     @Override
     public void run() {
-        try (MDCCloseable mdc = context.putMdcClosable()) {
-            try {
-                process = new ProcessBuilder()
-                        .command(command)
-                        .directory(context.getStageWorkingDir().toFile())
-                        .redirectError(Redirect.DISCARD)
-                        .start();
-            } catch (IOException ex) {
-                logger.error("Failed to start FastICUE daemon", ex);
-                setState(State.PROCESS_FAILURE);
-                return;
+        try (MDCCloseable mdc = MDC.putCloseable("stage", scopeName)) {
+            FastIcueClient client;
+            if (daemon != null) {
+                SocketChannel channel;
+                try {
+                    channel = daemon.connect();
+                    this.channel = channel;
+                } catch (IOException ex) {
+                    logger.error("Failed to connect to FastICUE daemon", ex);
+                    setState(State.PROCESS_FAILURE);
+                    return;
+                }
+                client = new FastIcueClient(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+            } else {
+                Process process;
+                try {
+                    process = new ProcessBuilder()
+                            .command(command)
+                            .directory(workingDirectory.toFile())
+                            .start();
+                    this.process = process;
+                    this.stderr = StderrTail.start("[" + scopeName + "] FastICUE Stderr: " + process.pid(), process.getErrorStream());
+                } catch (IOException ex) {
+                    logger.error("Failed to start FastICUE daemon", ex);
+                    setState(State.PROCESS_FAILURE);
+                    return;
+                }
+                client = new FastIcueClient(process.getInputStream(), process.getOutputStream());
             }
-                    
-            client = new FastIcueClient(process.getInputStream(), process.getOutputStream());
-            setState(State.CONNECTED);  // Once state is CONNECTED, client is available
+            this.client = client;
+
+            // The connecting ping must be sent while frames are being dispatched
             synchronized (this) {
-                notifyAll();
+                if (state == State.CONNECTING) {
+                    keepalive = Thread.ofVirtual()
+                            .name("[" + scopeName + "] FastICUE Keepalive: " + getPid())
+                            .start(() -> keepalive(client));
+                } else {
+                    // closed while starting
+                    abort();
+                }
             }
 
             try {
                 client.dispatchFrames();
             } catch (IOException ex) {
-                logger.error("i/o error communicating with FastICUE daemon");
+                fail("i/o error communicating with FastICUE daemon");
             }
         } finally {
             setState(State.STOPPING);
+            Thread keepalive;
+            synchronized (this) {
+                keepalive = this.keepalive;
+            }
+            if (keepalive != null) {
+                keepalive.interrupt();
+            }
+
+            Process process = this.process;
             if (process != null) {
                 logger.info("Stopping FastICUE daemon");
                 process.destroy();
                 try {
-                    process.waitFor();
+                    if (!process.waitFor(DESTROY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        logger.warn("FastICUE daemon not exiting after {}ms, killing it forcibly", DESTROY_TIMEOUT_MILLIS);
+                        process.destroyForcibly();
+                        process.waitFor();
+                    }
                 } catch (InterruptedException ex) {
                     Thread.currentThread().interrupt();
                     logger.error("Interrupted while waiting for FastICUE daemon to finish");
                 }
-                process = null;
+                this.process = null;
+            }
+
+            String failure = this.failure;
+            if (failure != null) {
+                logger.error(StderrTail.describe(failure, getDaemonStderr()));
+            }
+
+            SocketChannel channel = this.channel;
+            if (channel != null) {
+                closeQuietly(channel);
+                this.channel = null;
             }
 
             client = null;
@@ -104,6 +224,102 @@ public class FastIcueConnection extends Thread {
         }
     }
 
+    /**
+     * Last lines written to stderr by the daemon, see {@link StderrTail#lines()}. Empty for a 
+     * daemon attached to rather than started by us.
+     */
+    public List<String> getDaemonStderr() {
+        if (daemon != null) {
+            return daemon.getStderr();
+        }
+        StderrTail stderr = this.stderr;
+        return stderr != null ? stderr.lines() : List.of();
+    }
+
+    private void keepalive(FastIcueClient client) {
+        try (MDCCloseable mdc = MDC.putCloseable("stage", scopeName)) {
+            if (!ping(client)) {
+                return;
+            }
+            synchronized (this) {
+                if (state != State.CONNECTING) {
+                    return;
+                }
+                setState(State.CONNECTED);  // Once state is CONNECTED, client is ready
+            }
+
+            while (state == State.CONNECTED) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(KEEPALIVE_INTERVAL_NANOS);
+                } catch (InterruptedException ex) {
+                    // connection is stopping
+                    return;
+                }
+                if (state == State.CONNECTED && client.isIdleFor(KEEPALIVE_INTERVAL_NANOS) && !ping(client)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pings the daemon. If it's not responding, the daemon is destroyed.
+     * 
+     * @return whether the daemon responded
+     */
+    private boolean ping(FastIcueClient client) {
+        logger.debug("Sending ping request to FastICUE daemon ...");
+        String reason;
+        try {
+            FastIcueResponse response = client.ping(PING_TIMEOUT_MILLIS);
+            if (response.statusCode() == FastIcueConstants.STATUS_OK) {
+                return true;
+            }
+            reason = "FastICUE daemon not responding with a valid status code: " + response.statusCode();
+        } catch (FastIcueInvocationException ex) {
+            reason = "FastICUE daemon not responding: " + ex.getMessage();
+        }
+
+        if (state == State.STOPPING || state == State.STOPPED) {
+            // failed due to stopping, nothing to report
+            return false;
+        }
+
+        fail(reason);
+        abort();
+        return false;
+    }
+
+    /**
+     * Breaks the connection, so that the dispatching loop stops. A daemon serving stdio is 
+     * destroyed, while a shared daemon serving the socket is left to its owner.
+     */
+    private void abort() {
+        Process process = this.process;
+        if (process != null) {
+            process.destroy();
+        }
+        SocketChannel channel = this.channel;
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            logger.debug("Failed to close socket channel", ex);
+        }
+    }
+
+    private void fail(String reason) {
+        if (failure == null) {
+            // logged once the daemon is stopped, along with its last stderr lines
+            failure = reason;
+        }
+    }
+
     private void setState(State state) {
         this.state = state;
         synchronized (this) {
@@ -120,6 +336,12 @@ public class FastIcueConnection extends Thread {
      * @throws InterruptedException
      */
     public FastIcueClient getClient() throws FastIcueClientException, InterruptedException {
+        // Fast path for a ready connection, no lock involved
+        FastIcueClient client = this.client;
+        if (state == State.CONNECTED && client != null) {
+            return client;
+        }
+
         // Wait until the state is no longer CONNECTING
         State currentState;
         synchronized (this) {
@@ -133,37 +355,32 @@ public class FastIcueConnection extends Thread {
             }
         }
 
+        String failure = this.failure;
         switch (currentState) {
             case NEW:
                 throw new FastIcueClientException("FastICUE daemon is not started yet");
             case CONNECTED:
                 break;
+            case PROCESS_FAILURE:
+                throw new FastIcueClientException("FastICUE daemon failed to start", null, getDaemonStderr());
             case STOPPING:
-                throw new FastIcueClientException("FastICUE daemon is stopping");
+                throw new FastIcueClientException(failure != null ? failure : "FastICUE daemon is stopping", null, getDaemonStderr());
             case STOPPED:
-                throw new FastIcueClientException("FastICUE daemon is stopped");
+                throw new FastIcueClientException(failure != null ? failure : "FastICUE daemon is stopped", null, getDaemonStderr());
             default:
                 // should never happen
                 throw new AssertionError();
         }
 
-        FastIcueResponse response;
-        try {
-            logger.debug("Sending ping request to FastICUE daemon ...");
-            response = client.invoke(new FastIcueRequest("PING"));
-        } catch (FastIcueInvocationException ex) {
-            throw new FastIcueClientException("FastICUE daemon not responding", ex);
-        }
-
-        if (response.statusCode() != FastIcueConstants.STATUS_OK) {
-            throw new FastIcueClientException("FastICUE daemon not responding with a valid status code: " + response.statusCode());
+        client = this.client;
+        if (client == null) {
+            throw new FastIcueClientException("FastICUE daemon is stopped");
         }
-
         return client;
     }
 
     public void close() {
-        if (state != State.STOPPED && state != State.STOPPING) {
+        if (state == State.STOPPED || state == State.STOPPING) {
             return;
         }
 
@@ -172,14 +389,15 @@ public class FastIcueConnection extends Thread {
         FastIcueClient client = this.client;
         if (client != null) {
             logger.debug("Closing connection to FastICUE daemon");
-            client.close();
+            if (daemon != null) {
+                // The daemon is shared by other connections, and is stopped by its owner
+                client.disconnect();
+            } else {
+                client.close();
+            }
         }
 
-        Process process = this.process;
-        if (process != null) {
-            logger.debug("Destroying FastICUE daemon process");
-            process.destroy();
-        }
+        abort();
     }
 
 }
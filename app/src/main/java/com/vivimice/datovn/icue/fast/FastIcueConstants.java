@@ -15,19 +15,99 @@
  */
 package com.vivimice.datovn.icue.fast;
 
+import java.util.List;
+
 public class FastIcueConstants {
 
-    public static final String PROTOCOL = "FastICUE/1.0";
+    public static final String PROTOCOL_V1 = "FastICUE/1.0";
+    public static final String PROTOCOL_V2 = "FastICUE/2.0";
+
+    /**
+     * Baseline protocol, which every FastICUE daemon must support. Connections start with it, 
+     * and negotiate for a higher version with the initial PING.
+     */
+    public static final String PROTOCOL = PROTOCOL_V1;
+
+    /**
+     * Supported protocols, in the order of preference.
+     */
+    public static final List<String> SUPPORTED_PROTOCOLS = List.of(PROTOCOL_V2, PROTOCOL_V1);
+
+    /**
+     * Size of the fixed binary header of FastICUE/2.0 frames: invocation id (4 bytes), type 
+     * (1 byte) and payload length (4 bytes).
+     */
+    public static final int V2_FRAME_HEADER_SIZE = 9;
+
+    /**
+     * Max payload length of a FastICUE/2.0 frame we accept.
+     */
+    public static final int V2_MAX_PAYLOAD_LENGTH = 64 * 1024 * 1024;
 
     public static final int STATUS_OK = 200;
     public static final int STATUS_ACCEPTED = 202;
     public static final int STATUS_BAD_REQUEST = 400;
+    public static final int STATUS_NOT_FOUND = 404;
+    public static final int STATUS_CANCELLED = 499;
     public static final int STATUS_INTERNAL_ERROR = 500;
     public static final int STATUS_SERVICE_UNAVAILABLE = 503;
     public static final int STATUS_VERSION_NOT_SUPPORTED = 505;
 
     public static final String METHOD_EXEC = "EXEC";
     public static final String METHOD_PING = "PING";
+    public static final String METHOD_EXEC_BATCH = "EXEC-BATCH";
+    public static final String METHOD_CANCEL = "CANCEL";
+
+    /**
+     * Response header of PING, listing optional methods and features supported by the daemon, 
+     * separated by commas.
+     */
+    public static final String HEADER_CAPABILITIES = "Capabilities";
+
+    /**
+     * Request header of EXEC, name of the unit.
+     */
+    public static final String HEADER_UNIT = "Unit";
+
+    /**
+     * Request header of CANCEL, the invocation id (in hexadecimal) of the invocation to abort.
+     */
+    public static final String HEADER_INVOCATION_ID = "Invocation-Id";
+
+    /**
+     * Request header of CANCEL, the index of the unit to abort in an EXEC-BATCH invocation.
+     */
+    public static final String HEADER_UNIT_INDEX = "Unit-Index";
+
+    public static final String HEADER_PARAM_VALUE_PREFIX = "Param-Value-";
+
+    /**
+     * Request header of EXEC, the length in bytes of a parameter carried in the request body 
+     * instead of a {@value #HEADER_PARAM_VALUE_PREFIX} header.
+     */
+    public static final String HEADER_PARAM_LENGTH_PREFIX = "Param-Length-";
+
+    /**
+     * Capability of daemons accepting data frames in requests.
+     */
+    public static final String CAPABILITY_REQUEST_BODY = "REQUEST-BODY";
+
+    /**
+     * Parameters larger than this (in UTF-8 bytes) are sent in the request body, if the daemon 
+     * accepts it.
+     */
+    public static final int PARAM_BODY_THRESHOLD = 4 * 1024;
+
+    /**
+     * Max bytes of a request data frame. Base64 encoded frames of 1.0 framing stay below 64 KiB.
+     */
+    public static final int BODY_CHUNK_SIZE = 48 * 1024;
+
+    /**
+     * Environment variable telling a daemon of socket transport the Unix domain socket path to 
+     * listen on.
+     */
+    public static final String ENV_SOCKET = "FASTICUE_SOCKET";
 
     public static final char FRAME_TYPE_REQUEST = 'Q';
     public static final char FRAME_TYPE_HEADER = 'H';
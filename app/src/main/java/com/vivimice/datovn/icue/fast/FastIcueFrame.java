@@ -15,16 +15,43 @@
  */
 package com.vivimice.datovn.icue.fast;
 
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_BASE64_DATA;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A FastICUE frame. Payload is the decoded content of the frame, regardless of the framing of 
+ * protocol version, i.e. raw bytes for 'B' frames, and UTF-8 encoded text for other frames.
+ */
 public record FastIcueFrame(
     int invocationId,
     char type,
-    String data // Won't be null
+    byte[] payload // Won't be null
 ) {
+    public FastIcueFrame {
+        assert payload != null;
+    }
+
     public FastIcueFrame(int invocationId, char type, String data) {
+        this(invocationId, type, toPayload(data));
+    }
+
+    private static byte[] toPayload(String data) {
         assert data != null;
         assert !data.contains("\r\n") : "no CRLF is allow in frame data";
-        this.invocationId = invocationId;
-        this.type = type;
-        this.data = data;
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Payload as UTF-8 text.
+     */
+    public String data() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        String content = (type == FRAME_TYPE_BASE64_DATA) ? ("<" + payload.length + " bytes>") : data();
+        return "FastIcueFrame[invocationId=" + invocationId + ", type=" + type + ", data=" + content + "]";
     }
 }
@@ -15,16 +15,44 @@
  */
 package com.vivimice.datovn.icue.fast;
 
-import java.io.ByteArrayOutputStream;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_BASE64_DATA;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.PROTOCOL;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.PROTOCOL_V2;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.SUPPORTED_PROTOCOLS;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.V2_FRAME_HEADER_SIZE;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.V2_MAX_PAYLOAD_LENGTH;
+
+import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.HexFormat;
+import java.util.Arrays;
+import java.util.Base64;
 
+/**
+ * Frame decoder over the output stream of FastICUE daemon.
+ * 
+ * Bytes are read from the underlying stream in large chunks into a reusable buffer. Frames are 
+ * sliced out of the buffer by scanning for delimiters (FastICUE/1.0) or by the length in header 
+ * (FastICUE/2.0), so that no per-byte stream call is made.
+ * 
+ * Payloads of both framings are limited to {@link FastIcueConstants#V2_MAX_PAYLOAD_LENGTH}, so 
+ * that a misbehaving daemon can't grow the buffer without bound. A buffer grown for a large frame 
+ * is released once the frame is consumed.
+ * 
+ * This class is not thread-safe. Frames should be read by a single thread.
+ */
 public class FastIcueFrameInputStream extends FilterInputStream {
 
-    private static final int CONTEXT_BUFFER_SIZE = 16; // size of the context buffer used for debugging purposes.
+    private static final int CONTEXT_BUFFER_SIZE = 16; // size of the context used for debugging purposes.
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    // buffers grown beyond this size are released after the frame is consumed, to avoid holding 
+    // large chunk of memory for the lifetime of the connection because of one large frame.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_INVOCATION_ID_LENGTH = 8; // hexadecimal digits
+    private static final int MAX_TYPE_LENGTH = 1;
+    private static final int OVERSIZED = -2; // returned by indexOf() if the delimiter is too far
     private static final String[] ESCAPE_MAP = new String[] {
         "\\0", "\\x01", "\\x02", "\\x03", "\\x04", "\\x05", "\\x06", "\\x07", 
         "\\x08", "\\t", "\\n", "\\x0b", "\\x0c", "\\r", "\\x0e", "\\x0f", 
@@ -32,113 +60,269 @@ public class FastIcueFrameInputStream extends FilterInputStream {
         "\\x18", "\\x19", "\\x1a", "\\x1b", "\\x1c", "\\x1d", "\\x1e", "\\x1f"
     };
 
-    // contextual ring buffer, used to store the last 16 bytes read from the stream.
-    // useful for debugging.
-    private byte[] contextRingBuffer = new byte[CONTEXT_BUFFER_SIZE];
-    private int ringCursor = 0; // points to the next empty slot of context ring buffer
-    private boolean ringClamped = false;
+    private static final byte[] TYPE_DELIMITER = new byte[] {0x20, 0x7c, 0x20}; // " | "
+    private static final byte[] DATA_DELIMITER = new byte[] {0x0d, 0x0a}; // CR-LF
+
+    // bytes in [position, limit) of the buffer are read from the stream but not consumed yet. 
+    // Up to 16 bytes right before position are always kept as context for error messages.
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private long consumedBytes = 0;
+
+    private final int maxPayloadLength;
+
+    // framing protocol, only accessed by the reading thread
+    private String protocol = PROTOCOL;
 
     public FastIcueFrameInputStream(InputStream in) {
+        this(in, V2_MAX_PAYLOAD_LENGTH);
+    }
+
+    /**
+     * @param maxPayloadLength max length of payload (decoded) of a frame
+     */
+    FastIcueFrameInputStream(InputStream in, int maxPayloadLength) {
         super(in);
+        assert maxPayloadLength > 0;
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    /**
+     * Switch the framing protocol of subsequent frames.
+     */
+    public void setProtocol(String protocol) {
+        assert SUPPORTED_PROTOCOLS.contains(protocol);
+        this.protocol = protocol;
+    }
+
+    public String getProtocol() {
+        return protocol;
     }
 
     @Override
     public int read() throws IOException {
-        int b = super.read();
-        // update contextual buffer
-        if (b >= 0) {
-            fillContextBuffer((byte) b);
+        if (!ensureAvailable(1)) {
+            return -1;
         }
+        int b = buffer[position] & 0xff;
+        consume(1);
         return b;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int bytesRead = super.read(b, off, len);
-
-        // update contextual buffer
-        int n = (bytesRead < CONTEXT_BUFFER_SIZE) ? bytesRead : CONTEXT_BUFFER_SIZE;
-        int base = (off + bytesRead - n);
-        for (int i = 0; i < n; i++) {
-            fillContextBuffer(b[base + i]);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable(1)) {
+            return -1;
         }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        consume(n);
+        return n;
+    }
 
-        return bytesRead;
+    @Override
+    public int available() throws IOException {
+        return (limit - position) + super.available();
     }
 
-    private void fillContextBuffer(byte b) {
-        contextRingBuffer[ringCursor] = b;
-        ringCursor++;
-        if (ringCursor >= CONTEXT_BUFFER_SIZE) {
-            ringClamped = true;
-            ringCursor = 0;
-        }
+    @Override
+    public long skip(long n) throws IOException {
+        throw new IOException("skip is not supported");
     }
 
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Reads next frame.
+     * 
+     * @throws EOFException if the stream ends at frame boundary
+     * @throws MalformedFrameException if the frame is malformed. Subsequent frames are still 
+     *     readable for FastICUE/1.0 framing, but not for FastICUE/2.0 framing, whose frame 
+     *     boundaries are lost once the header is malformed.
+     */
     public FastIcueFrame readFrame() throws IOException, MalformedFrameException {
-        byte[] b;
-        String s;
+        if (!ensureAvailable(1)) {
+            throw new EOFException("end of frame stream");
+        }
+
+        try {
+            if (PROTOCOL_V2.equals(protocol)) {
+                return readBinaryFrame();
+            } else {
+                return readTextFrame();
+            }
+        } finally {
+            shrinkBuffer();
+        }
+    }
 
+    /**
+     * Capacity of the buffer, for testing purpose.
+     */
+    int getBufferCapacity() {
+        return buffer.length;
+    }
+
+    private FastIcueFrame readBinaryFrame() throws IOException, MalformedFrameException {
+        if (!ensureAvailable(V2_FRAME_HEADER_SIZE)) {
+            consume(limit - position);
+            throw new MalformedFrameException(constructErrorMessage("incomplete frame: header truncated"));
+        }
+
+        // big-endian
+        int invocationId = getInt(buffer, position);
+        char type = (char) (buffer[position + 4] & 0xff);
+        int length = getInt(buffer, position + 5);
+        consume(V2_FRAME_HEADER_SIZE);
+
+        if (invocationId < 0) {
+            throw new MalformedFrameException(constructErrorMessage("invalid invocation id: " + Integer.toHexString(invocationId)));
+        }
+        if (length < 0 || length > maxPayloadLength) {
+            throw new MalformedFrameException(invocationId, constructErrorMessage("invalid payload length: " + Integer.toUnsignedString(length)));
+        }
+
+        byte[] payload;
+        if (length <= buffer.length - CONTEXT_BUFFER_SIZE) {
+            if (!ensureAvailable(length)) {
+                consume(limit - position);
+                throw new MalformedFrameException(invocationId, constructErrorMessage("incomplete frame: payload truncated"));
+            }
+            payload = Arrays.copyOfRange(buffer, position, position + length);
+            consume(length);
+        } else {
+            // Large payload, drain what we have buffered then read the rest directly.
+            int buffered = limit - position;
+            payload = new byte[length];
+            System.arraycopy(buffer, position, payload, 0, buffered);
+            consume(buffered);
+            int n = in.readNBytes(payload, buffered, length - buffered);
+            consumedBytes += n;
+            if (buffered + n < length) {
+                throw new MalformedFrameException(invocationId, constructErrorMessage("incomplete frame: payload truncated"));
+            }
+        }
+
+        return new FastIcueFrame(invocationId, type, payload);
+    }
+
+    private FastIcueFrame readTextFrame() throws IOException, MalformedFrameException {
         int invocationId;
         char type;
-        String data;
+        byte[] data;
 
-        // read invocation id
-        b = readUntil(new byte[]{(byte) 0x20}); // read until space
-        if (b == null) {
+        // read invocation id, until space
+        int idLength = indexOf((byte) 0x20, MAX_INVOCATION_ID_LENGTH);
+        if (idLength == OVERSIZED) {
+            String s = new String(buffer, position, MAX_INVOCATION_ID_LENGTH, StandardCharsets.UTF_8);
+            String message = constructErrorMessage("invalid invocation id: " + s + "...");
+            skipLine();
+            throw new MalformedFrameException(message);
+        } else if (idLength < 0) {
+            consume(limit - position);
             throw new MalformedFrameException(constructErrorMessage("incomplete frame: invocation id missing"));
         }
-        s = new String(b, StandardCharsets.UTF_8); // convert to string
-        try {
-            invocationId = HexFormat.fromHexDigits(s);
-        } catch (IllegalArgumentException ex) {
-            throw new MalformedFrameException(constructErrorMessage("invalid invocation id: " + s));
-        }
-        if (invocationId > 0x7FFFFFFF || invocationId < 0) {
+        invocationId = parseHexInvocationId(buffer, position, idLength);
+        if (invocationId < 0) {
+            String s = new String(buffer, position, idLength, StandardCharsets.UTF_8);
+            consume(idLength + 1);
             throw new MalformedFrameException(constructErrorMessage("invalid invocation id: " + s));
         }
+        consume(idLength + 1);
 
-        // read type
-        b = readUntil(new byte[]{(byte) 0x20, (byte) 0x7c, (byte) 0x20}); // read until " | "
-        if (b == null) {
+        // read type, until " | "
+        int typeLength = indexOf(TYPE_DELIMITER, MAX_TYPE_LENGTH);
+        if (typeLength == OVERSIZED) {
+            String message = constructErrorMessage("oversized type");
+            skipLine();
+            throw new MalformedFrameException(invocationId, message);
+        } else if (typeLength < 0) {
+            consume(limit - position);
             throw new MalformedFrameException(invocationId, constructErrorMessage("incomplete frame: type missing"));
         }
-        if (b.length == 0) {
+        type = (char) (buffer[position] & 0xff);
+        consume(typeLength + TYPE_DELIMITER.length);
+        if (typeLength == 0) {
             throw new MalformedFrameException(invocationId, constructErrorMessage("type missing"));
-        } else if (b.length > 1) {
-            throw new MalformedFrameException(invocationId, constructErrorMessage("oversized type: len=" + b.length));
-        } else {
-            type = (char) b[0];
         }
 
         // read frame data until CR-LF
-        b = readUntil(new byte[]{(byte) 0x0d, (byte) 0x0a});
-        if (b == null) {
+        int maxDataLength = (type == FRAME_TYPE_BASE64_DATA) ? 4 * ((maxPayloadLength + 2) / 3) : maxPayloadLength;
+        int dataLength = indexOf(DATA_DELIMITER, maxDataLength);
+        if (dataLength == OVERSIZED) {
+            String message = constructErrorMessage("oversized frame data: more than " + maxDataLength + " bytes");
+            skipLine();
+            throw new MalformedFrameException(invocationId, message);
+        } else if (dataLength < 0) {
+            consume(limit - position);
             throw new MalformedFrameException(invocationId, constructErrorMessage("incomplete frame data. Frame terminator missing"));
         }
-        data = new String(b, StandardCharsets.UTF_8);
+        if (type == FRAME_TYPE_BASE64_DATA) {
+            try {
+                data = Base64.getDecoder().decode(Arrays.copyOfRange(buffer, position, position + dataLength));
+            } catch (IllegalArgumentException ex) {
+                consume(dataLength + DATA_DELIMITER.length);
+                throw new MalformedFrameException(invocationId, constructErrorMessage("invalid base64 data"));
+            }
+            if (data.length > maxPayloadLength) {
+                // encoded length only limits decoded one to a multiple of 3
+                consume(dataLength + DATA_DELIMITER.length);
+                throw new MalformedFrameException(invocationId, constructErrorMessage("oversized frame data: more than " + maxPayloadLength + " bytes decoded"));
+            }
+        } else {
+            data = Arrays.copyOfRange(buffer, position, position + dataLength);
+        }
+        consume(dataLength + DATA_DELIMITER.length);
 
         return new FastIcueFrame(invocationId, type, data);
     }
 
-    private String constructErrorMessage(String message) {
-        byte[] context = new byte[CONTEXT_BUFFER_SIZE];
-        if (ringClamped) {
-            System.arraycopy(contextRingBuffer, 0, context, CONTEXT_BUFFER_SIZE - ringCursor, ringCursor);
-            System.arraycopy(contextRingBuffer, ringCursor, context, 0, CONTEXT_BUFFER_SIZE - ringCursor);
-        } else {
-            System.arraycopy(contextRingBuffer, 0, context, 0, ringCursor);
+    /**
+     * Parses invocation id in hexadecimal.
+     * 
+     * @return the invocation id, or -1 if it's invalid.
+     */
+    private static int parseHexInvocationId(byte[] b, int off, int len) {
+        if (len == 0 || len > 8) {
+            return -1;
         }
+        int value = 0;
+        for (int i = off; i < off + len; i++) {
+            int digit = Character.digit(b[i], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value; // negative if exceeds 0x7FFFFFFF
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private String constructErrorMessage(String message) {
+        // context is the last (up to) 16 bytes consumed from the stream, which are always kept 
+        // in the buffer right before the current position.
+        int contextLength = Math.min(CONTEXT_BUFFER_SIZE, position);
+        boolean clamped = consumedBytes >= CONTEXT_BUFFER_SIZE;
 
         int indent = 4;
         StringBuilder sb = new StringBuilder(message)
             .append(System.lineSeparator());
 
         // append escaped message
-        String contextStr = new String(context, 0, ringClamped ? CONTEXT_BUFFER_SIZE : ringCursor, StandardCharsets.UTF_8);
+        String contextStr = new String(buffer, position - contextLength, contextLength, StandardCharsets.UTF_8);
         int offset = indent;
         sb.repeat(" ", indent);
-        if (ringClamped) {
+        if (clamped) {
             sb.append("...");
             offset += 3;
         }
@@ -161,31 +345,153 @@ public class FastIcueFrameInputStream extends FilterInputStream {
     }
 
     /**
-     * Reads until a delimiter is encountered. The delimiter is not included in the returned byte array.
+     * Finds the delimiter byte in unconsumed bytes, reading more bytes from the stream as needed.
+     * 
+     * @param maxOffset max offset of the delimiter to be found
+     * @return offset of the delimiter relative to current position, -1 if the stream ends 
+     *     before the delimiter is found, or {@value #OVERSIZED} if the delimiter is not found 
+     *     within max offset.
      */
-    protected byte[] readUntil(byte[] delimiter) throws IOException {
-        assert delimiter != null && delimiter.length > 0;
-        ByteArrayOutputStream bo = new ByteArrayOutputStream();
-        int p = 0;
+    private int indexOf(byte delimiter, int maxOffset) throws IOException {
+        int scanned = 0;
         while (true) {
-            int b = read();
-            if (b == -1) {
-                return null;
-            } else if (b == delimiter[p]) {
-                p++;
-                if (p == delimiter.length) { // found the delimiter
-                    return bo.toByteArray();
+            int end = (int) Math.min(limit, position + (long) maxOffset + 1);
+            for (int i = position + scanned; i < end; i++) {
+                if (buffer[i] == delimiter) {
+                    return i - position;
                 }
-            } else {
-                if (p > 0) {
-                    // write back the bytes that were matches as part of the delimiter sequence
-                    bo.write(delimiter, 0, p);
-                    // reset
-                    p = 0;
+            }
+            scanned = end - position;
+            if (scanned > maxOffset) {
+                return OVERSIZED;
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Finds the delimiter sequence in unconsumed bytes, reading more bytes from the stream as 
+     * needed.
+     * 
+     * @param maxOffset max offset of the delimiter to be found
+     * @return offset of the delimiter relative to current position, -1 if the stream ends 
+     *     before the delimiter is found, or {@value #OVERSIZED} if the delimiter is not found 
+     *     within max offset.
+     */
+    private int indexOf(byte[] delimiter, int maxOffset) throws IOException {
+        byte first = delimiter[0];
+        int scanned = 0;
+        while (true) {
+            int end = (int) Math.min(limit - delimiter.length + 1, position + (long) maxOffset + 1);
+            for (int i = position + scanned; i < end; i++) {
+                if (buffer[i] == first && Arrays.equals(buffer, i + 1, i + delimiter.length, delimiter, 1, delimiter.length)) {
+                    return i - position;
+                }
+            }
+            // delimiter might be partially read, rescan the tail after filling
+            scanned = Math.max(0, end - position);
+            if (scanned > maxOffset) {
+                return OVERSIZED;
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Discards bytes through the next CR-LF or to the end of stream, without buffering them. So 
+     * that frames after an oversized one are still readable.
+     */
+    private void skipLine() throws IOException {
+        while (true) {
+            int end = limit - DATA_DELIMITER.length + 1;
+            for (int i = position; i < end; i++) {
+                if (buffer[i] == DATA_DELIMITER[0] && buffer[i + 1] == DATA_DELIMITER[1]) {
+                    consume(i - position + DATA_DELIMITER.length);
+                    return;
                 }
-                bo.write(b);
             }
+            // keep a possibly partial delimiter
+            consume(Math.max(0, end - position));
+            if (!fill()) {
+                consume(limit - position);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Releases a buffer grown for a large frame, if unconsumed bytes fit in a buffer of the initial 
+     * size.
+     */
+    private void shrinkBuffer() {
+        if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+            return;
+        }
+        int keepFrom = Math.max(0, position - CONTEXT_BUFFER_SIZE);
+        int kept = limit - keepFrom;
+        if (kept > INITIAL_BUFFER_SIZE / 2) {
+            return;
+        }
+        byte[] newBuffer = new byte[INITIAL_BUFFER_SIZE];
+        System.arraycopy(buffer, keepFrom, newBuffer, 0, kept);
+        buffer = newBuffer;
+        position -= keepFrom;
+        limit = kept;
+    }
+
+    private void consume(int n) {
+        assert n >= 0 && position + n <= limit;
+        position += n;
+        consumedBytes += n;
+    }
+
+    /**
+     * Ensures at least n unconsumed bytes are available in the buffer.
+     * 
+     * @return false if the stream ends before that.
+     */
+    private boolean ensureAvailable(int n) throws IOException {
+        while (limit - position < n) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads more bytes from the stream into the buffer, compacting or growing the buffer if 
+     * there's no room left. Unconsumed bytes and the context are preserved.
+     * 
+     * @return false if the stream ends.
+     */
+    private boolean fill() throws IOException {
+        if (limit == buffer.length) {
+            int keepFrom = Math.max(0, position - CONTEXT_BUFFER_SIZE);
+            int kept = limit - keepFrom;
+            if (keepFrom > 0 && kept <= buffer.length / 2) {
+                // compact
+                System.arraycopy(buffer, keepFrom, buffer, 0, kept);
+            } else {
+                // grow, when more than half of the buffer is occupied by unconsumed bytes
+                byte[] newBuffer = new byte[buffer.length * 2];
+                System.arraycopy(buffer, keepFrom, newBuffer, 0, kept);
+                buffer = newBuffer;
+            }
+            position -= keepFrom;
+            limit = kept;
+        }
+
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            return false;
         }
+        limit += n;
+        return true;
     }
 
 }
@@ -15,30 +15,191 @@
  */
 package com.vivimice.datovn.icue.fast;
 
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_BASE64_DATA;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.PROTOCOL;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.PROTOCOL_V2;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.SUPPORTED_PROTOCOLS;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.V2_FRAME_HEADER_SIZE;
+
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 
+/**
+ * Frame encoder over the input stream of FastICUE daemon.
+ * 
+ * Frames are encoded into a reusable buffer and written to the underlying stream with a single 
+ * write call. Several frames (e.g. all frames of a request) can be buffered with 
+ * {@link #bufferFrames(List)} and written together at an explicit {@link #flush()}.
+ * 
+ * This class is not thread-safe. Frames should be written by a single thread.
+ */
 public class FastIcueFrameOutputStream extends FilterOutputStream {
 
+    private static final byte[] TEXT_SEPARATOR = new byte[] {0x20, 0x7c, 0x20};
+    private static final byte[] TEXT_TERMINATOR = new byte[] {0x0d, 0x0a};
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    // buffers grown beyond this size are released after written, to avoid holding large chunk of 
+    // memory for the lifetime of the connection because of one large request.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int count = 0;
+
+    // framing protocol. It's switched by the negotiating thread, while no frame is being written.
+    private volatile String protocol = PROTOCOL;
+
     public FastIcueFrameOutputStream(OutputStream out) {
         super(out);
     }
 
+    /**
+     * Switch the framing protocol of subsequent frames.
+     */
+    public void setProtocol(String protocol) {
+        assert SUPPORTED_PROTOCOLS.contains(protocol);
+        this.protocol = protocol;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Writes a frame, along with all frames buffered before, to the underlying stream.
+     */
     public void writeFrame(FastIcueFrame frame) throws IOException {
+        bufferFrames(List.of(frame));
+        writeBuffer();
+    }
+
+    /**
+     * Encodes frames into the buffer, without writing them to the underlying stream. Either all 
+     * frames are buffered, or none of them is if any frame can not be encoded.
+     * 
+     * @throws IOException if any frame can not be encoded in current protocol
+     */
+    public void bufferFrames(List<FastIcueFrame> frames) throws IOException {
+        int mark = count;
+        try {
+            boolean binary = PROTOCOL_V2.equals(protocol);
+            for (FastIcueFrame frame : frames) {
+                if (binary) {
+                    encodeBinaryFrame(frame);
+                } else {
+                    encodeTextFrame(frame);
+                }
+            }
+        } catch (IOException ex) {
+            count = mark;
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes all buffered frames to the underlying stream, and flushes it.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        writeBuffer();
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeBuffer();
+        out.write(b, off, len);
+    }
+
+    private void writeBuffer() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, count);
+        } finally {
+            count = 0;
+            if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+    }
+
+    private void encodeBinaryFrame(FastIcueFrame frame) {
+        byte[] payload = frame.payload();
+        ensureCapacity(V2_FRAME_HEADER_SIZE + payload.length);
+        // big-endian header
+        putInt(frame.invocationId());
+        buffer[count++] = (byte) frame.type();
+        putInt(payload.length);
+        put(payload);
+    }
+
+    private void encodeTextFrame(FastIcueFrame frame) throws IOException {
+        byte[] data = frame.payload();
+        if (frame.type() == FRAME_TYPE_BASE64_DATA) {
+            data = Base64.getEncoder().encode(data);
+        } else {
+            for (int i = 1; i < data.length; i++) {
+                if (data[i - 1] == 0x0d && data[i] == 0x0a) {
+                    throw new IOException("CRLF is not allowed in " + PROTOCOL + " frame data");
+                }
+            }
+        }
+
+        // invocation id (up to 8 hex digits), 2 separators, type, data and terminator
+        ensureCapacity(8 + 1 + 1 + TEXT_SEPARATOR.length + data.length + TEXT_TERMINATOR.length);
         // write invocation id
-        write(Integer.toHexString(frame.invocationId()).getBytes(StandardCharsets.UTF_8));
+        putHex(frame.invocationId());
         // write seperator 1
-        write(0x20);
+        buffer[count++] = 0x20;
         // write type
-        write((byte) frame.type());
+        buffer[count++] = (byte) frame.type();
         // write seperator 2
-        write(new byte[] {0x20, 0x7c, 0x20});
+        put(TEXT_SEPARATOR);
         // write data
-        write(frame.data().getBytes(StandardCharsets.UTF_8));
+        put(data);
         // write terminator
-        write(new byte[] {0x0d, 0x0a});
+        put(TEXT_TERMINATOR);
+    }
+
+    private void putHex(int value) {
+        int digits = Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(value) + 3) / 4);
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[count + i] = HEX_DIGITS[value & 0xf];
+            value >>>= 4;
+        }
+        count += digits;
+    }
+
+    private void putInt(int value) {
+        buffer[count++] = (byte) (value >>> 24);
+        buffer[count++] = (byte) (value >>> 16);
+        buffer[count++] = (byte) (value >>> 8);
+        buffer[count++] = (byte) value;
+    }
+
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = count + extra;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
     }
 
 }
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes frames to a FastICUE connection from a dedicated thread. Used by both parties: the 
+ * client writes requests with it, and the daemon side (see 
+ * {@link com.vivimice.datovn.icue.fast.daemon.FastIcueDaemon}) writes responses.
+ * 
+ * Threads queue groups of frames (e.g. a whole request, or some data frames of a response) 
+ * instead of contending on the output stream. Frames of a group are written contiguously. The 
+ * writer thread takes all queued groups at once, encodes them into the buffer of the output 
+ * stream, and writes them with a single flush. So concurrent invocations are coalesced into fewer 
+ * writes to the pipe.
+ * 
+ * This class is thread-safe.
+ */
+public final class FastIcueFrameWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastIcueFrameWriter.class);
+
+    /**
+     * Max number of frame groups to be coalesced into one flush.
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private record PendingFrames(List<FastIcueFrame> frames, CompletableFuture<Void> written) {
+    }
+
+    private final FastIcueFrameOutputStream output;
+    private final BlockingQueue<PendingFrames> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * @param name name of the writer thread
+     */
+    public FastIcueFrameWriter(FastIcueFrameOutputStream output, String name) {
+        assert output != null;
+        this.output = output;
+        this.thread = Thread.ofPlatform()
+                .name(name)
+                .daemon()
+                .start(this::run);
+    }
+
+    /**
+     * Queues a group of frames to be written.
+     * 
+     * @return future completes when frames are written and flushed, or completes exceptionally 
+     *     with IOException if they can not be written.
+     */
+    public CompletableFuture<Void> submit(List<FastIcueFrame> frames) {
+        PendingFrames pending = new PendingFrames(frames, new CompletableFuture<>());
+        queue.add(pending);
+        if (closed) {
+            // might be queued after the writer thread drained the queue for the last time
+            failPending();
+        }
+        return pending.written();
+    }
+
+    /**
+     * Switch the framing protocol of subsequent frames. Must not be called while any frame is 
+     * being written.
+     */
+    public void setProtocol(String protocol) {
+        output.setProtocol(protocol);
+    }
+
+    /**
+     * Stops the writer thread. Frames not written yet are failed. The output stream is not 
+     * closed.
+     */
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        failPending();
+    }
+
+    private void run() {
+        List<PendingFrames> batch = new ArrayList<>();
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            // closed
+        } catch (IOException ex) {
+            logger.debug("i/o error while writing frames", ex);
+            for (PendingFrames pending : batch) {
+                pending.written().completeExceptionally(ex);
+            }
+            closed = true;
+        } finally {
+            failPending();
+        }
+    }
+
+    private void write(List<PendingFrames> batch) throws IOException {
+        List<PendingFrames> buffered = new ArrayList<>(batch.size());
+        for (PendingFrames pending : batch) {
+            try {
+                if (logger.isTraceEnabled()) {
+                    pending.frames().forEach(frame -> logger.trace("Sending frame: {}", frame));
+                }
+                output.bufferFrames(pending.frames());
+                buffered.add(pending);
+            } catch (IOException ex) {
+                // only this group is not encodable, others are still good to go
+                pending.written().completeExceptionally(ex);
+            }
+        }
+        if (buffered.isEmpty()) {
+            return;
+        }
+
+        output.flush();
+        logger.trace("Flushed {} frame groups", buffered.size());
+        for (PendingFrames pending : buffered) {
+            pending.written().complete(null);
+        }
+    }
+
+    private void failPending() {
+        PendingFrames pending;
+        while ((pending = queue.poll()) != null) {
+            pending.written().completeExceptionally(new IOException("connection closed"));
+        }
+    }
+
+}
@@ -0,0 +1,468 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of FastICUE daemon instances started with the same command.
+ * 
+ * With {@link FastIcueTransport#SOCKET} transport, instances of the pool are connections to a 
+ * single daemon rather than separate daemons.
+ * 
+ * Each invocation is routed to the instance with the least outstanding invocations. Instances are 
+ * started lazily: a new one is started only if all existing instances are busy and the pool is 
+ * not full. Instances idle for a while are drained, but the pool keeps at least one instance 
+ * alive once it's started.
+ * 
+ * In-flight invocations of each instance are capped by its concurrency window (see 
+ * {@link AimdLimiter}). Invocations wait if all windows are full and the pool can't grow. 
+ * Invocations responded with 503 are routed to another instance if possible, or retried on the 
+ * same instance after a jittered backoff.
+ * 
+ * An invocation with a deadline fails once the deadline is exceeded, no matter whether it's 
+ * waiting for a free instance, backing off, or waiting for the response. 
+ * 
+ * Failures of invocations carry the last stderr lines of the daemon serving them, see 
+ * {@link FastIcueInvocationException#getDaemonStderr()} and {@link BodyReadException}.
+ * 
+ * This class is thread-safe.
+ */
+public class FastIcuePool {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastIcuePool.class);
+
+    /**
+     * Instances idle longer than this are drained.
+     */
+    private static final long IDLE_DRAIN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Max attempts of an invocation responded with 503.
+     */
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_BASE_MILLIS = 50;
+    private static final long BACKOFF_MAX_MILLIS = 2000;
+
+    private static final class Instance {
+        private final FastIcueConnection connection;
+        private final AimdLimiter limiter; // guarded by pool
+        private int outstanding; // guarded by pool
+        private long idleSinceNanos; // guarded by pool
+
+        Instance(FastIcueConnection connection, int initialConcurrency) {
+            this.connection = connection;
+            this.limiter = new AimdLimiter(initialConcurrency);
+            this.idleSinceNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Failure reading the body of a response, along with the last stderr lines of the daemon.
+     */
+    static final class BodyReadException extends IOException {
+
+        private final List<String> daemonStderr;
+
+        BodyReadException(IOException cause, List<String> daemonStderr) {
+            super(cause.getMessage(), cause);
+            this.daemonStderr = daemonStderr;
+        }
+
+        /**
+         * @see FastIcueInvocationException#getDaemonStderr()
+         */
+        List<String> getDaemonStderr() {
+            return daemonStderr;
+        }
+
+    }
+
+    private final String scopeName;
+    private final FastIcueSocketDaemon daemon; // null for stdio transport
+    private final IntFunction<FastIcueConnection> connectionFactory; // takes the number of the instance
+    private final long idleDrainNanos;
+    private final List<Instance> instances = new ArrayList<>(); // guarded by this
+    private int maxSize; // guarded by this
+    private int initialConcurrency; // guarded by this, zero if not specified
+    private boolean closed; // guarded by this
+
+    /**
+     * @param scopeName name of the scope, for logging purpose
+     * @param workingDirectory working directory of daemons
+     */
+    public FastIcuePool(String scopeName, Path workingDirectory, List<String> command, int maxSize) {
+        this(scopeName, workingDirectory, command, FastIcueTransport.STDIO, null, maxSize);
+    }
+
+    /**
+     * @param scopeName name of the scope, for logging purpose
+     * @param workingDirectory working directory of daemons
+     * @param socketPath socket of the daemon for socket transport. Null for a private one.
+     */
+    public FastIcuePool(String scopeName, Path workingDirectory, List<String> command, FastIcueTransport transport, Path socketPath, int maxSize) {
+        assert scopeName != null;
+        assert workingDirectory != null;
+        assert command != null;
+        assert transport != null;
+        assert socketPath == null || transport == FastIcueTransport.SOCKET;
+        assert maxSize > 0;
+        this.scopeName = scopeName;
+        FastIcueSocketDaemon daemon = (transport == FastIcueTransport.SOCKET) ? new FastIcueSocketDaemon(workingDirectory, command, socketPath) : null;
+        this.daemon = daemon;
+        this.connectionFactory = number -> {
+            if (daemon != null) {
+                logger.info("Opening FastICUE connection #{} to daemon of command: {}", number, command);
+                return new FastIcueConnection(scopeName, daemon);
+            } else {
+                logger.info("Starting FastICUE daemon #{} with command: {}", number, command);
+                return new FastIcueConnection(scopeName, workingDirectory, command);
+            }
+        };
+        this.idleDrainNanos = IDLE_DRAIN_NANOS;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Pool of connections made by the factory, for testing purpose.
+     * 
+     * @param idleDrainNanos instances idle longer than this are drained
+     * @param connectionFactory makes a connection not started yet, taking the number of the instance
+     */
+    FastIcuePool(String scopeName, int maxSize, long idleDrainNanos, IntFunction<FastIcueConnection> connectionFactory) {
+        assert scopeName != null;
+        assert maxSize > 0;
+        assert connectionFactory != null;
+        this.scopeName = scopeName;
+        this.daemon = null;
+        this.connectionFactory = connectionFactory;
+        this.idleDrainNanos = idleDrainNanos;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Raise the max size of the pool, if it's smaller than the given size.
+     */
+    public synchronized void ensureMaxSize(int maxSize) {
+        assert maxSize > 0;
+        this.maxSize = Math.max(this.maxSize, maxSize);
+    }
+
+    /**
+     * Set the initial concurrency window of instances started afterwards, if it's larger than the 
+     * current one. Defaults to {@link AimdLimiter#DEFAULT_INITIAL_LIMIT} if never set.
+     */
+    public synchronized void ensureInitialConcurrency(int initialConcurrency) {
+        assert initialConcurrency > 0;
+        this.initialConcurrency = Math.max(this.initialConcurrency, initialConcurrency);
+    }
+
+    /**
+     * Number of instances currently in the pool.
+     */
+    public synchronized int size() {
+        return instances.size();
+    }
+
+    /**
+     * Invokes on the least busy instance, with the response body streamed. Invocations responded 
+     * with 503 are retried, the last 503 response is returned if all attempts failed.
+     * 
+     * @see FastIcueClient#invokeStreaming(FastIcueRequest)
+     */
+    public FastIcueStreamingResponse invokeStreaming(FastIcueRequest request) throws FastIcueClientException, FastIcueInvocationException {
+        return invokeStreaming(request, 0);
+    }
+
+    /**
+     * Invokes on the least busy instance, with the response body streamed and a deadline.
+     * 
+     * @param timeoutMillis deadline of the invocation in milliseconds, including waiting for a free 
+     *     instance and retries. Non-positive for no deadline.
+     * @see FastIcueClient#invokeStreaming(FastIcueRequest, long)
+     */
+    public FastIcueStreamingResponse invokeStreaming(FastIcueRequest request, long timeoutMillis) throws FastIcueClientException, FastIcueInvocationException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Instance overloaded = null;
+        for (int attempt = 1; ; attempt++) {
+            Instance instance = null;
+            if (overloaded != null) {
+                // prefer another instance rather than waiting for the overloaded one
+                instance = acquire(overloaded, false, timeoutMillis, deadlineNanos);
+                if (instance == null) {
+                    backoff(attempt - 1, timeoutMillis, deadlineNanos);
+                }
+            }
+            if (instance == null) {
+                instance = acquire(null, true, timeoutMillis, deadlineNanos);
+            }
+
+            FastIcueStreamingResponse response = invokeStreaming(instance, request, remainingMillis(timeoutMillis, deadlineNanos));
+            if (response.statusCode() != FastIcueConstants.STATUS_SERVICE_UNAVAILABLE || attempt >= MAX_ATTEMPTS) {
+                return response;
+            }
+
+            logger.info("FastICUE daemon (pid: {}) is overloaded, retrying (attempt {})", instance.connection.getPid(), attempt);
+            try {
+                response.close();
+            } catch (IOException ex) {
+                // ignored
+            }
+            overloaded = instance;
+        }
+    }
+
+    private FastIcueStreamingResponse invokeStreaming(Instance instance, FastIcueRequest request, long timeoutMillis) throws FastIcueClientException, FastIcueInvocationException {
+        boolean released = false;
+        try {
+            FastIcueClient client = getClient(instance);
+            long startNanos = System.nanoTime();
+            int inFlight = inFlight(instance);
+            FastIcueStreamingResponse response;
+            try {
+                response = client.invokeStreaming(request, timeoutMillis);
+            } catch (FastIcueInvocationException ex) {
+                throw new FastIcueInvocationException(ex.getMessage(), ex, instance.connection.getDaemonStderr());
+            }
+            feedback(instance, request, response.statusCode(), System.nanoTime() - startNanos, inFlight);
+
+            // The instance is considered busy until the response is fully consumed.
+            released = true;
+            return new FastIcueStreamingResponse(response.statusCode(), response.statusMessage(), new FilterReader(response.body()) {
+                private boolean closed = false;
+
+                @Override
+                public int read() throws IOException {
+                    try {
+                        return super.read();
+                    } catch (IOException ex) {
+                        throw new BodyReadException(ex, instance.connection.getDaemonStderr());
+                    }
+                }
+
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    try {
+                        return super.read(cbuf, off, len);
+                    } catch (IOException ex) {
+                        throw new BodyReadException(ex, instance.connection.getDaemonStderr());
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (!closed) {
+                            closed = true;
+                            release(instance);
+                        }
+                    }
+                }
+            });
+        } finally {
+            if (!released) {
+                release(instance);
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds left before the deadline, at least 1. Or 0 if there's no deadline.
+     */
+    private static long remainingMillis(long timeoutMillis, long deadlineNanos) {
+        if (timeoutMillis <= 0) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    private static void checkDeadline(long timeoutMillis, long deadlineNanos) throws FastIcueInvocationException {
+        if (timeoutMillis > 0 && deadlineNanos - System.nanoTime() <= 0) {
+            throw new FastIcueInvocationException("deadline exceeded (" + timeoutMillis + "ms)");
+        }
+    }
+
+    private static void backoff(int retries, long timeoutMillis, long deadlineNanos) throws FastIcueClientException, FastIcueInvocationException {
+        // exponential backoff with full jitter
+        long ceiling = Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << Math.min(retries, 16));
+        long millis = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (timeoutMillis > 0) {
+            millis = Math.min(millis, remainingMillis(timeoutMillis, deadlineNanos));
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FastIcueClientException("Interrupted while backing off from overloaded FastICUE daemon.");
+        }
+        checkDeadline(timeoutMillis, deadlineNanos);
+    }
+
+    private FastIcueClient getClient(Instance instance) throws FastIcueClientException {
+        try {
+            return instance.connection.getClient();
+        } catch (FastIcueClientException ex) {
+            logger.info("Shutting down failed FastICUE connection.");
+            discard(instance);
+            throw ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FastIcueClientException("Interrupted while waiting for FastICUE client.");
+        }
+    }
+
+    /**
+     * Acquires an instance with free concurrency window, starting a new one if needed.
+     * 
+     * @param excluded instance not to be acquired. Nullable.
+     * @param wait whether to wait for a free instance
+     * @return the acquired instance, or null if not waiting and no instance is available
+     */
+    private Instance acquire(Instance excluded, boolean wait, long timeoutMillis, long deadlineNanos) throws FastIcueClientException, FastIcueInvocationException {
+        List<Instance> drained = new ArrayList<>();
+        try {
+            return acquire(excluded, wait, timeoutMillis, deadlineNanos, drained);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FastIcueClientException("Interrupted while waiting for FastICUE daemon.");
+        } finally {
+            if (!drained.isEmpty()) {
+                // closing waits for the daemon to respond to TERM, so it's done off the invoking thread
+                Thread.ofVirtual().name("[" + scopeName + "] FastICUE Drainer").start(() -> {
+                    for (Instance idle : drained) {
+                        logger.info("Draining idle FastICUE daemon (pid: {})", idle.connection.getPid());
+                        idle.connection.close();
+                    }
+                });
+            }
+        }
+    }
+
+    private synchronized Instance acquire(Instance excluded, boolean wait, long timeoutMillis, long deadlineNanos, List<Instance> drained) 
+            throws FastIcueClientException, FastIcueInvocationException, InterruptedException {
+        while (true) {
+            if (closed) {
+                throw new FastIcueClientException("FastICUE pool is closed");
+            }
+            checkDeadline(timeoutMillis, deadlineNanos);
+
+            long now = System.nanoTime();
+            Instance best = null;
+            for (Iterator<Instance> it = instances.iterator(); it.hasNext(); ) {
+                Instance instance = it.next();
+                if (!instance.connection.isAlive()) {
+                    // daemon exited, forget it
+                    it.remove();
+                    continue;
+                }
+                if (instance.outstanding == 0 && instances.size() > 1 && now - instance.idleSinceNanos > idleDrainNanos) {
+                    drained.add(instance);
+                    it.remove();
+                    continue;
+                }
+                if (instance == excluded || instance.outstanding >= instance.limiter.getLimit()) {
+                    continue;
+                }
+                if (best == null || instance.outstanding < best.outstanding) {
+                    best = instance;
+                }
+            }
+
+            if ((best == null || best.outstanding > 0) && instances.size() < maxSize) {
+                FastIcueConnection connection = connectionFactory.apply(instances.size() + 1);
+                connection.start();
+                best = new Instance(connection, initialConcurrency > 0 ? initialConcurrency : AimdLimiter.DEFAULT_INITIAL_LIMIT);
+                instances.add(best);
+            }
+
+            if (best != null) {
+                best.outstanding++;
+                return best;
+            } else if (!wait) {
+                return null;
+            }
+
+            // all windows are full, wait for releasing
+            if (timeoutMillis > 0) {
+                wait(remainingMillis(timeoutMillis, deadlineNanos));
+            } else {
+                wait();
+            }
+        }
+    }
+
+    private synchronized int inFlight(Instance instance) {
+        return instance.outstanding;
+    }
+
+    private synchronized void feedback(Instance instance, FastIcueRequest request, int statusCode, long latencyNanos, int inFlight) {
+        if (statusCode == FastIcueConstants.STATUS_SERVICE_UNAVAILABLE) {
+            instance.limiter.onOverload();
+        } else {
+            // units of the same command might take very different time, compare per unit
+            String unit = request.getHeaders().get(FastIcueConstants.HEADER_UNIT);
+            instance.limiter.onSuccess(unit != null ? unit : request.getMethod(), latencyNanos, inFlight);
+        }
+        logger.trace("Concurrency window of FastICUE daemon (pid: {}): {}", instance.connection.getPid(), instance.limiter.getLimit());
+    }
+
+    private synchronized void release(Instance instance) {
+        assert instance.outstanding > 0;
+        if (--instance.outstanding == 0) {
+            instance.idleSinceNanos = System.nanoTime();
+        }
+        notifyAll();
+    }
+
+    private void discard(Instance instance) {
+        synchronized (this) {
+            instances.remove(instance);
+            notifyAll();
+        }
+        instance.connection.close();
+    }
+
+    public void close() {
+        List<Instance> closing;
+        synchronized (this) {
+            closed = true;
+            closing = new ArrayList<>(instances);
+            instances.clear();
+            notifyAll();
+        }
+        for (Instance instance : closing) {
+            logger.debug("Closing FastICUE connection (pid: {})", instance.connection.getPid());
+            instance.connection.close();
+        }
+        if (daemon != null) {
+            daemon.close();
+        }
+    }
+
+}
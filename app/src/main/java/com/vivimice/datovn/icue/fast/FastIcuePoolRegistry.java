@@ -0,0 +1,85 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pools of FastICUE daemons in the same scope, keyed by command.
+ */
+class FastIcuePoolRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastIcuePoolRegistry.class);
+
+    private final String scopeName;
+    private final Path workingDirectory;
+    private record PoolKey(List<String> command, FastIcueTransport transport, Path socketPath) {
+    }
+
+    private final Map<PoolKey, FastIcuePool> pools = new ConcurrentHashMap<>();
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param scopeName name of the scope, for logging purpose
+     * @param workingDirectory working directory of daemons
+     */
+    FastIcuePoolRegistry(String scopeName, Path workingDirectory) {
+        assert scopeName != null;
+        assert workingDirectory != null;
+        this.scopeName = scopeName;
+        this.workingDirectory = workingDirectory;
+    }
+
+    /**
+     * Returns the pool of daemons started with the command. Pools are shared by all units with the 
+     * same command and transport, the max size of it is the largest one requested.
+     * 
+     * @param socketPath socket of the daemon for socket transport. Null for a private one.
+     * @param poolSize max number of daemon instances (or connections for socket transport)
+     * @param concurrency initial concurrency window of each instance. Null for the default.
+     * @return the pool, or null if the registry is closed.
+     */
+    FastIcuePool get(List<String> command, FastIcueTransport transport, Path socketPath, int poolSize, Integer concurrency) {
+        if (shutdown) {
+            logger.warn("Cannot get FastICUE client as service is shutting down.");
+            return null;
+        }
+
+        FastIcuePool pool = pools.computeIfAbsent(new PoolKey(command, transport, socketPath), 
+                key -> new FastIcuePool(scopeName, workingDirectory, command, transport, socketPath, poolSize));
+        pool.ensureMaxSize(poolSize);
+        if (concurrency != null) {
+            pool.ensureInitialConcurrency(concurrency);
+        }
+        return pool;
+    }
+
+    void close() {
+        shutdown = true;
+        logger.info("Closing FastICUE connections of scope: {}", scopeName);
+        pools.forEach((key, pool) -> {
+            logger.debug("Closing FastICUE pool: {}", key.command());
+            pool.close();
+        });
+    }
+
+}
@@ -15,6 +15,11 @@
  */
 package com.vivimice.datovn.icue.fast;
 
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_PARAM_LENGTH_PREFIX;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_PARAM_VALUE_PREFIX;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -22,6 +27,7 @@ public class FastIcueRequest {
 
     private final String method;
     private Map<String, String> headers = new LinkedHashMap<>();
+    private byte[] body;
 
     public FastIcueRequest(String method) {
         assert method != null && !method.isEmpty() : "Method cannot be null or empty";
@@ -46,6 +52,77 @@ public class FastIcueRequest {
         return headers;
     }
 
+    /**
+     * Body of the request, sent as data frames after the headers. Null if there is no body.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    /**
+     * Returns a copy of this request, with values of parameter headers (including those suffixed 
+     * with unit index of EXEC-BATCH) larger than the threshold, or not fitting in a header, moved 
+     * to the request body. Each moved {@code Param-Value-*} header is replaced by a 
+     * {@code Param-Length-*} header, and the values are concatenated in the order of headers.
+     * 
+     * Returns this request as is if there is nothing to move, or if it has a body already.
+     * 
+     * @param threshold max bytes of a parameter value kept in header
+     */
+    FastIcueRequest withLargeParamsInBody(int threshold) {
+        if (body != null || headers.entrySet().stream().noneMatch(entry -> isLargeParam(entry, threshold))) {
+            return this;
+        }
+
+        FastIcueRequest request = new FastIcueRequest(method);
+        ByteArrayOutputStream params = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (isLargeParam(entry, threshold)) {
+                byte[] bytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                String suffix = entry.getKey().substring(HEADER_PARAM_VALUE_PREFIX.length());
+                request.setHeader(HEADER_PARAM_LENGTH_PREFIX + suffix, String.valueOf(bytes.length));
+                params.writeBytes(bytes);
+            } else {
+                request.setHeader(entry.getKey(), entry.getValue());
+            }
+        }
+        request.setBody(params.toByteArray());
+        return request;
+    }
+
+    private static boolean isLargeParam(Map.Entry<String, String> header, int threshold) {
+        if (!header.getKey().startsWith(HEADER_PARAM_VALUE_PREFIX)) {
+            return false;
+        }
+        String value = header.getValue();
+        // UTF-8 takes at least one byte per char, and at most three bytes per UTF-16 char
+        if (value.length() > threshold) {
+            return true;
+        }
+        if (value.length() * 3 > threshold && value.getBytes(StandardCharsets.UTF_8).length > threshold) {
+            return true;
+        }
+        return !isHeaderValue(value);
+    }
+
+    /**
+     * Whether the value can be sent in a header frame: no control characters, and no leading or 
+     * trailing spaces.
+     */
+    private static boolean isHeaderValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == 0x7f) {
+                return false;
+            }
+        }
+        return value.isEmpty() || (value.charAt(0) != ' ' && value.charAt(value.length() - 1) != ' ');
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -53,6 +130,9 @@ public class FastIcueRequest {
         headers.forEach((name, value) -> {
             sb.repeat(" ", 4).append(name).append(": ").append(value).append(System.lineSeparator());
         });
+        if (body != null) {
+            sb.repeat(" ", 4).append("<").append(body.length).append(" bytes of body>").append(System.lineSeparator());
+        }
         return sb.toString();
     }
 
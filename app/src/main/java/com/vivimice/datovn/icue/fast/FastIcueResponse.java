@@ -15,6 +15,13 @@
  */
 package com.vivimice.datovn.icue.fast;
 
-public record FastIcueResponse(int statusCode, String statusMessage, String data) {
+import java.util.Map;
+
+/**
+ * A buffered response, available after the termination frame is received.
+ * 
+ * @param headers response headers, which come right after the response status frame. Won't be null.
+ */
+public record FastIcueResponse(int statusCode, String statusMessage, Map<String, String> headers, String data) {
 
 }
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Lifetime of FastICUE daemons, i.e. which units may share the same daemon instances.
+ */
+public enum FastIcueScope {
+
+    /**
+     * Daemons are started in the stage working directory, and stopped when the stage finishes.
+     */
+    @JsonProperty("stage") STAGE,
+
+    /**
+     * Daemons are started in the build directory, and shared by all stages with the same command 
+     * until the build finishes. The daemon must resolve paths against the working directory 
+     * passed in each request (see <code>Working-Directory</code> header) instead of its own.
+     */
+    @JsonProperty("build") BUILD,
+
+}
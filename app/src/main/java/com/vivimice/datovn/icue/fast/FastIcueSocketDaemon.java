@@ -0,0 +1,208 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A FastICUE daemon serving connections over a Unix domain socket.
+ * 
+ * If a socket path is configured and some daemon is already listening on it, that daemon is 
+ * attached to. It's never stopped by us, so that it can be shared by builds or Datovn processes.
+ * Otherwise the daemon is started with the socket path in {@value FastIcueConstants#ENV_SOCKET} 
+ * environment variable (a private temporary path if not configured), and is stopped once closed. 
+ * A started daemon which exits is started again on the next connection. Stderr of the started 
+ * daemon is kept by a {@link StderrTail}.
+ * 
+ * This class is thread-safe.
+ */
+class FastIcueSocketDaemon {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastIcueSocketDaemon.class);
+
+    /**
+     * Max time to wait for a started daemon to listen on the socket.
+     */
+    private static final long LISTEN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long LISTEN_POLL_MILLIS = 50;
+    private static final long STOP_GRACE_SECONDS = 5;
+
+    private final Path workingDirectory;
+    private final List<String> command;
+    private final Path configuredSocketPath; // null for a private socket
+
+    private volatile boolean closed;
+    private boolean attached; // guarded by this
+    private volatile Process process;
+    private volatile StderrTail stderr; // of the started daemon
+    private Path socketPath; // guarded by this
+    private Path privateDirectory; // guarded by this
+
+    /**
+     * @param workingDirectory working directory of the daemon, if it's to be started
+     * @param socketPath socket to attach to or to listen on. Null for a private socket.
+     */
+    FastIcueSocketDaemon(Path workingDirectory, List<String> command, Path socketPath) {
+        assert workingDirectory != null;
+        assert command != null;
+        this.workingDirectory = workingDirectory;
+        this.command = command;
+        this.configuredSocketPath = socketPath;
+    }
+
+    /**
+     * Opens a new connection to the daemon, attaching to or starting it if needed.
+     */
+    synchronized SocketChannel connect() throws IOException {
+        if (closed) {
+            throw new IOException("FastICUE daemon is closed");
+        }
+
+        if (attached) {
+            return SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+        }
+
+        if (process == null && configuredSocketPath != null) {
+            // attach to a running daemon if any
+            try {
+                SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(configuredSocketPath));
+                attached = true;
+                socketPath = configuredSocketPath;
+                logger.info("Attached to FastICUE daemon listening on: {}", socketPath);
+                return channel;
+            } catch (IOException ex) {
+                logger.debug("No FastICUE daemon listening on: {}", configuredSocketPath);
+            }
+        }
+
+        if (process == null || !process.isAlive()) {
+            start();
+        }
+        return awaitListening();
+    }
+
+    private void start() throws IOException {
+        if (configuredSocketPath != null) {
+            // stale socket file left by a dead daemon prevents binding
+            Files.deleteIfExists(configuredSocketPath);
+            socketPath = configuredSocketPath;
+        } else if (socketPath == null) {
+            privateDirectory = Files.createTempDirectory("fasticue-");
+            socketPath = privateDirectory.resolve("daemon.sock");
+        } else {
+            Files.deleteIfExists(socketPath);
+        }
+
+        logger.info("Starting FastICUE daemon listening on: {}", socketPath);
+        ProcessBuilder builder = new ProcessBuilder()
+                .command(command)
+                .directory(workingDirectory.toFile())
+                .redirectOutput(Redirect.DISCARD);
+        builder.environment().put(FastIcueConstants.ENV_SOCKET, socketPath.toString());
+        Process process = builder.start();
+        stderr = StderrTail.start("FastICUE Stderr: " + process.pid(), process.getErrorStream());
+        this.process = process;
+    }
+
+    private SocketChannel awaitListening() throws IOException {
+        Process process = this.process;
+        long deadline = System.nanoTime() + LISTEN_TIMEOUT_NANOS;
+        while (true) {
+            try {
+                return SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+            } catch (IOException ex) {
+                if (closed) {
+                    throw new IOException("FastICUE daemon is closed");
+                }
+                if (!process.isAlive()) {
+                    throw new IOException(StderrTail.describe("FastICUE daemon exited with code " + process.exitValue() + " before listening on: " + socketPath, getStderr()));
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IOException("FastICUE daemon is not listening on: " + socketPath, ex);
+                }
+            }
+
+            try {
+                Thread.sleep(LISTEN_POLL_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for FastICUE daemon to listen on: " + socketPath);
+            }
+        }
+    }
+
+    /**
+     * Last lines written to stderr by the started daemon. Empty if not started or attached.
+     */
+    List<String> getStderr() {
+        StderrTail stderr = this.stderr;
+        return stderr != null ? stderr.lines() : List.of();
+    }
+
+    /**
+     * PID of the started daemon, -1 if not started or attached.
+     */
+    long getPid() {
+        Process process = this.process;
+        return process != null ? process.pid() : -1;
+    }
+
+    /**
+     * Stops the daemon if it's started by us. Attached daemons are left running.
+     */
+    void close() {
+        closed = true;
+        Process process = this.process;
+        if (process != null) {
+            logger.info("Stopping FastICUE daemon (pid: {})", process.pid());
+            process.destroy();
+            try {
+                if (!process.waitFor(STOP_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                    logger.warn("FastICUE daemon (pid: {}) is still running, killing it", process.pid());
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted while waiting for FastICUE daemon to finish");
+            }
+        }
+
+        synchronized (this) {
+            try {
+                if (process != null && socketPath != null) {
+                    Files.deleteIfExists(socketPath);
+                }
+                if (privateDirectory != null) {
+                    Files.deleteIfExists(privateDirectory);
+                }
+            } catch (IOException ex) {
+                logger.warn("Failed to remove FastICUE daemon socket: {}", socketPath, ex);
+            }
+        }
+    }
+
+}
@@ -23,15 +23,75 @@ import com.vivimice.datovn.icue.CommandBasedSpec;
 
 public final class FastIcueSpec extends CommandBasedSpec {
 
+    private final int poolSize;
+    private final Integer concurrency;
+    private final FastIcueScope scope;
+    private final FastIcueTransport transport;
+    private final String socket;
+
     @JsonCreator
     public FastIcueSpec(
         @JsonProperty("name") String name, 
         @JsonProperty("revision") String revision, 
         @JsonProperty("executable") String executable, 
         @JsonProperty("args") List<String> args, 
-        @JsonProperty("params") List<String> params
+        @JsonProperty("params") List<String> params,
+        @JsonProperty("timeoutMillis") Long timeoutMillis,
+        @JsonProperty("poolSize") Integer poolSize,
+        @JsonProperty("concurrency") Integer concurrency,
+        @JsonProperty("scope") FastIcueScope scope,
+        @JsonProperty("transport") FastIcueTransport transport,
+        @JsonProperty("socket") String socket
     ) {
-        super("fast-icue", name, revision, executable, args, params);
+        super("fast-icue", name, revision, executable, args, params, timeoutMillis);
+        this.poolSize = (poolSize != null) ? poolSize : 1;
+        assert this.poolSize > 0;
+        assert concurrency == null || concurrency > 0;
+        this.concurrency = concurrency;
+        this.scope = (scope != null) ? scope : FastIcueScope.STAGE;
+        this.transport = (transport != null) ? transport : (socket != null ? FastIcueTransport.SOCKET : FastIcueTransport.STDIO);
+        assert socket == null || this.transport == FastIcueTransport.SOCKET;
+        this.socket = socket;
+    }
+
+    /**
+     * Max number of daemon instances to be started for the command. It's not part of opaque 
+     * identifier since it doesn't affect the result.
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Initial number of concurrent invocations sent to each daemon instance. Null for the default. 
+     * It's not part of opaque identifier since it doesn't affect the result.
+     */
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Scope of daemons. It's not part of opaque identifier since it doesn't affect the result.
+     */
+    public FastIcueScope getScope() {
+        return scope;
+    }
+
+    /**
+     * Transport to the daemons. It's not part of opaque identifier since it doesn't affect the 
+     * result.
+     */
+    public FastIcueTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Path of the Unix domain socket the daemon listens on, relative to the working directory. 
+     * If a daemon is already listening on it, it's attached to rather than started. Null for a 
+     * private socket of the started daemon.
+     */
+    public String getSocket() {
+        return socket;
     }
 
 }
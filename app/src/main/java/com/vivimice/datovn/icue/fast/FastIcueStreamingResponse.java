@@ -0,0 +1,36 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A response whose body is streamed as data frames arrive. It's available as soon as the response 
+ * status frame is received. 
+ * 
+ * Reading the body blocks until more data frames arrive, and reaches the end at the termination 
+ * frame. If the invocation fails halfway (e.g. connection broken), reading fails with an 
+ * IOException. The body must be closed after use.
+ */
+public record FastIcueStreamingResponse(int statusCode, String statusMessage, Reader body) implements AutoCloseable {
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+
+}
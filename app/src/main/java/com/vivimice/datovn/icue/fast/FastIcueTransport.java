@@ -0,0 +1,39 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * How frames are exchanged with FastICUE daemons.
+ */
+public enum FastIcueTransport {
+
+    /**
+     * Frames are exchanged through stdin and stdout of the daemon. Each daemon serves exactly one 
+     * connection, so the pool size is the number of daemons.
+     */
+    @JsonProperty("stdio") STDIO,
+
+    /**
+     * Frames are exchanged through Unix domain socket connections. A single daemon serves 
+     * multiple connections, so the pool size is the number of connections, and invocations on 
+     * different connections don't block each other. The daemon might be one that is already 
+     * listening on the configured socket, which is attached to instead of started.
+     */
+    @JsonProperty("socket") SOCKET,
+
+}
@@ -17,10 +17,10 @@ package com.vivimice.datovn.icue.fast;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,19 +57,25 @@ public class FastIcueUnit implements CompUnit {
         command.add(executablePath.toString());
         command.addAll(spec.getArgs());
 
-        logger.info("Getting FastICUE daemon client for command: {}", command);
-        FastIcueClientService clientService = ctx.getStageService(FastIcueClientService.class.getName(), FastIcueClientService::new);
-        FastIcueClient client;
-        try {
-            client = clientService.get(command);
-        } catch (FastIcueClientException ex) {
-            throw new DatovnRuntimeException("Failed get connection to FastICUE daemon.");
+        // Socket path is relative to working directory as well
+        Path socketPath = (spec.getSocket() != null) ? ctx.getWorkingDirectory().resolve(spec.getSocket()) : null;
+
+        logger.info("Getting FastICUE daemon pool for command: {}", command);
+        FastIcuePool pool = switch (spec.getScope()) {
+            case STAGE -> ctx.getStageService(FastIcueClientService.class.getName(), FastIcueClientService::new)
+                    .get(command, spec.getTransport(), socketPath, spec.getPoolSize(), spec.getConcurrency());
+            case BUILD -> ctx.getBuildService(FastIcueBuildService.class.getName(), FastIcueBuildService::new)
+                    .get(command, spec.getTransport(), socketPath, spec.getPoolSize(), spec.getConcurrency());
+        };
+        if (pool == null) {
+            throw new DatovnRuntimeException("Failed get connection to FastICUE daemon: service is shutting down.");
         }
 
         logger.info("Invoking FastICUE request");
         FastIcueRequest request = new FastIcueRequest("EXEC");
         request.setHeader("Unit", spec.getName());
         request.setHeader("Stage", ctx.getStageName());
+        request.setHeader("Working-Directory", ctx.getWorkingDirectory().toAbsolutePath().toString());
         request.setHeader("Opaque-Id", spec.getOpaqueIdentifier());
         request.setHeader("Params-Count", String.valueOf(spec.getParams().size()));
         
@@ -78,22 +84,22 @@ public class FastIcueUnit implements CompUnit {
             request.setHeader("Param-Value-" + (paramIndex++), param);
         }
 
-        FastIcueResponse response;
-        try {
-            response = client.invoke(request);
-        } catch (FastIcueInvocationException ex) {
-            throw new DatovnRuntimeException("Failed invoking FastICUE request: " + ex.getMessage());
-        }
+        // The deadline covers the whole invocation. Once exceeded, the invocation is cancelled, and
+        // the daemon is asked to abort it.
+        Long timeoutMillis = spec.getTimeoutMillis();
+        long startNanos = System.nanoTime();
 
-        String statusLine = response.statusCode() + " " + response.statusMessage();
-        logger.info("FastICUE response received with status: {}", statusLine);
-        if (response.statusCode() != FastIcueConstants.STATUS_ACCEPTED) {
-            throw new DatovnRuntimeException("FastICUE request failed with status: " + statusLine);
-        }
+        // Sketches are parsed and recorded while the daemon is still producing them
+        try (FastIcueStreamingResponse response = invokeStreaming(pool, request, timeoutMillis)) {
+            String statusLine = response.statusCode() + " " + response.statusMessage();
+            logger.info("FastICUE response received with status: {}", statusLine);
+            if (response.statusCode() != FastIcueConstants.STATUS_ACCEPTED) {
+                throw new DatovnRuntimeException("FastICUE request failed with status: " + statusLine);
+            }
 
-        logger.info("Parsing sketches from FastICUE response");
-        try (SketchDocumentReader reader = new SketchDocumentReader(new BufferedReader(new StringReader(response.data())))) {
-             while (true) {
+            logger.info("Parsing sketches from FastICUE response");
+            SketchDocumentReader reader = new SketchDocumentReader(new BufferedReader(response.body()));
+            while (true) {
                 CompAction.Sketch<?> sketch = reader.read();
                 if (sketch == null) {
                     break;
@@ -102,9 +108,37 @@ public class FastIcueUnit implements CompUnit {
             }
         } catch (MalformedActionDocumentException ex) {
             throw new DatovnRuntimeException("Malformed action document", ex);
+        } catch (FastIcueInvocationException ex) {
+            if (isTimedOut(timeoutMillis, startNanos)) {
+                recordTimeout(recorder, timeoutMillis, ex.getDaemonStderr());
+                return;
+            }
+            throw new DatovnRuntimeException(StderrTail.describe("Failed invoking FastICUE request: " + ex.getMessage(), ex.getDaemonStderr()));
         } catch (IOException ex) {
-            throw new DatovnRuntimeException("I/O error while loading action document", ex);
+            List<String> stderr = (ex instanceof FastIcuePool.BodyReadException bodyEx) ? bodyEx.getDaemonStderr() : List.of();
+            if (isTimedOut(timeoutMillis, startNanos)) {
+                recordTimeout(recorder, timeoutMillis, stderr);
+                return;
+            }
+            throw new DatovnRuntimeException(StderrTail.describe("I/O error while loading action document", stderr), ex);
+        }
+    }
+
+    private static FastIcueStreamingResponse invokeStreaming(FastIcuePool pool, FastIcueRequest request, Long timeoutMillis) throws FastIcueInvocationException {
+        try {
+            return pool.invokeStreaming(request, timeoutMillis == null ? 0 : timeoutMillis);
+        } catch (FastIcueClientException ex) {
+            throw new DatovnRuntimeException(StderrTail.describe("Failed get connection to FastICUE daemon: " + ex.getMessage(), ex.getDaemonStderr()));
         }
     }
 
+    private static boolean isTimedOut(Long timeoutMillis, long startNanos) {
+        return timeoutMillis != null && System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    private static void recordTimeout(CompActionRecorder recorder, long timeoutMillis, List<String> daemonStderr) {
+        logger.warn("FastICUE invocation timed out after {}ms, cancelled", timeoutMillis);
+        recorder.recordFatalError(StderrTail.describe("FastICUE invocation timed out after " + timeoutMillis + "ms and was cancelled", daemonStderr));
+    }
+
 }
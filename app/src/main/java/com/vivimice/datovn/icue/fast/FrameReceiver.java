@@ -0,0 +1,38 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+/**
+ * Receives frames of an invocation, routed by the frame dispatching thread.
+ */
+interface FrameReceiver {
+
+    /**
+     * Called by the dispatching thread with each response frame of the invocation, in order.
+     */
+    void addFrame(FastIcueFrame frame);
+
+    /**
+     * Fails the invocation. Frames after that are ignored.
+     */
+    void setError(String message);
+
+    /**
+     * Protocol declared in the response status frame. Null if not received yet.
+     */
+    String getProtocol();
+
+}
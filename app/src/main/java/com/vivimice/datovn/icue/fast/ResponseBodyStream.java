@@ -0,0 +1,176 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Body of a streaming response. Data chunks are appended by the frame dispatching thread as they 
+ * arrive, and read by the invoking thread.
+ * 
+ * Appending never blocks, since the dispatching thread is shared by all invocations on the 
+ * connection. Chunks appended after the stream is closed are discarded.
+ * 
+ * Reading blocks as a managed blocker, so that a fork-join pool running the invoking thread may 
+ * activate a spare worker while waiting for data.
+ */
+class ResponseBodyStream extends InputStream {
+
+    private final Runnable earlyCloseCallback;
+
+    private final Queue<byte[]> chunks = new ArrayDeque<>();
+    private byte[] current;
+    private int position;
+    private boolean finished;
+    private String error;
+    private boolean closed;
+
+    private final ForkJoinPool.ManagedBlocker dataBlocker = new ForkJoinPool.ManagedBlocker() {
+        @Override
+        public boolean block() throws InterruptedException {
+            // Always called with the monitor held, by awaitData()
+            if (!isReleasable()) {
+                ResponseBodyStream.this.wait();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return closed || finished || error != null || !chunks.isEmpty();
+        }
+    };
+
+    /**
+     * @param earlyCloseCallback called if the stream is closed before the end of body
+     */
+    ResponseBodyStream(Runnable earlyCloseCallback) {
+        assert earlyCloseCallback != null;
+        this.earlyCloseCallback = earlyCloseCallback;
+    }
+
+    synchronized void append(byte[] chunk) {
+        assert !finished;
+        if (closed || chunk.length == 0) {
+            return;
+        }
+        chunks.add(chunk);
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of body.
+     */
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Marks the body as broken. Bytes appended before are still readable, after that reads fail 
+     * with an IOException.
+     */
+    synchronized void fail(String message) {
+        if (!finished) {
+            error = message;
+            finished = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (!awaitData()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!awaitData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        int available = (current == null) ? 0 : current.length - position;
+        for (byte[] chunk : chunks) {
+            available += chunk.length;
+        }
+        return available;
+    }
+
+    @Override
+    public void close() {
+        boolean early;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            early = !finished;
+            chunks.clear();
+            current = null;
+        }
+        if (early) {
+            earlyCloseCallback.run();
+        }
+    }
+
+    /**
+     * @return false if the end of body is reached
+     */
+    private boolean awaitData() throws IOException {
+        while (true) {
+            if (closed) {
+                throw new IOException("response body closed");
+            }
+            if (current != null && position < current.length) {
+                return true;
+            }
+            current = chunks.poll();
+            position = 0;
+            if (current != null) {
+                continue;
+            }
+            if (error != null) {
+                throw new IOException("invocation error: " + error);
+            } else if (finished) {
+                return false;
+            }
+            try {
+                ForkJoinPool.managedBlock(dataBlocker);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for response data", ex);
+            }
+        }
+    }
+
+}
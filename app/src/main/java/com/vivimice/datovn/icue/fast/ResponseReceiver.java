@@ -16,19 +16,46 @@
 package com.vivimice.datovn.icue.fast;
 
 import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_BASE64_DATA;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_HEADER;
 import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_LINE_DATA;
 import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_RESPONSE_STATUS;
 import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_TERMINATION;
-import static com.vivimice.datovn.icue.fast.FastIcueConstants.PROTOCOL;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.SUPPORTED_PROTOCOLS;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.Objects;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class ResponseReceiver {
+/**
+ * Receives response frames of an invocation, routed by the frame dispatching thread.
+ * 
+ * In buffered mode, data frames are accumulated and the response is available after the 
+ * termination frame. In streaming mode, the response is available right after the response 
+ * status frame, and data frames are fed into its body as they arrive.
+ * 
+ * The response is delivered through a {@link CompletableFuture}, so that callers can either wait 
+ * for it or compose on it. Futures are completed by the dispatching thread, dependent actions 
+ * which are not run asynchronously must not block. Parsing state is confined to the dispatching 
+ * thread.
+ * 
+ * An invocation can be cancelled by other threads, e.g. when its deadline is exceeded or its 
+ * streaming body is closed early. Waiters fail right away, and the daemon is asked to abort the 
+ * invocation. Cancelling the future has the same effect. The receiver stays registered and 
+ * discards frames until the daemon terminates the response, so that late frames are not taken as 
+ * dangling ones.
+ */
+class ResponseReceiver implements FrameReceiver {
 
     private static final Logger logger = LoggerFactory.getLogger(ResponseReceiver.class);
 
@@ -36,16 +63,64 @@ class ResponseReceiver {
         READ_STATUS_LINE, READ_BODY, ERROR, OK;
     }
 
-    private final StringBuilder dataBuilder = new StringBuilder();
-    private State state;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final ByteArrayOutputStream dataBuilder; // null in streaming mode
+    private final ResponseBodyStream body; // null in buffered mode
+    private final Runnable completionCallback;
+    private State state = State.READ_STATUS_LINE;
+    private String protocol;
     private int statusCode;
     private String statusMessage;
-    private FastIcueInvocationException error;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private boolean dataReceived;
+
+    // Sends CANCEL to the daemon. Null before the request is sent, or once taken.
+    private final AtomicReference<Runnable> canceller = new AtomicReference<>();
+    private volatile Future<?> deadline;
+    private volatile boolean cancelled;
+    private volatile boolean terminated;
+
+    private final CompletableFuture<FastIcueResponse> response; // null in streaming mode
+    private final CompletableFuture<FastIcueStreamingResponse> streamingResponse; // null in buffered mode
+
+    /**
+     * Creates a receiver in buffered mode.
+     */
+    public ResponseReceiver() {
+        this(false, () -> {});
+    }
 
-    private Object responseSynchronizer = new Object(); // Used to synchronize access to the response object
-    private FastIcueResponse response = null;
+    /**
+     * @param streaming whether to stream the response body
+     * @param completionCallback called by the dispatching thread once the response is terminated 
+     *     or failed
+     */
+    public ResponseReceiver(boolean streaming, Runnable completionCallback) {
+        assert completionCallback != null;
+        this.dataBuilder = streaming ? null : new ByteArrayOutputStream();
+        this.body = streaming ? new ResponseBodyStream(() -> cancel("response body closed before the end")) : null;
+        this.completionCallback = completionCallback;
+        this.response = streaming ? null : new CompletableFuture<>();
+        this.streamingResponse = streaming ? new CompletableFuture<>() : null;
 
+        // cancelling the future by the caller cancels the invocation
+        (streaming ? streamingResponse : response).whenComplete((r, ex) -> {
+            if (ex instanceof CancellationException) {
+                cancel("cancelled by caller");
+            }
+        });
+    }
+
+    @Override
     public void addFrame(FastIcueFrame frame) {
+        if (cancelled) {
+            // Discard frames until the daemon aborts the invocation
+            if (frame.type() == FRAME_TYPE_TERMINATION) {
+                terminate();
+            }
+            return;
+        }
         if (state == State.ERROR) {
             // Ignore any frames after an error has been detected
             return;
@@ -55,6 +130,9 @@ class ResponseReceiver {
             case FRAME_TYPE_RESPONSE_STATUS:
                 addResponseStatusFrame(frame);
                 break;
+            case FRAME_TYPE_HEADER:
+                addResponseHeaderFrame(frame);
+                break;
             case FRAME_TYPE_LINE_DATA:
             case FRAME_TYPE_BASE64_DATA:
                 addDataFrame(frame);
@@ -81,7 +159,7 @@ class ResponseReceiver {
         }
 
         String protocol = parts[0];
-        if (!Objects.equals(protocol, PROTOCOL)) {
+        if (!SUPPORTED_PROTOCOLS.contains(protocol)) {
             setError("Unsupported protocol: " + protocol);
             return;
         }
@@ -103,9 +181,31 @@ class ResponseReceiver {
 
         String statusMessage = parts[2];
 
+        this.protocol = protocol;
         this.statusCode = statusCode;
         this.statusMessage = statusMessage;
         this.state = State.READ_BODY;
+
+        if (body != null) {
+            streamingResponse.complete(new FastIcueStreamingResponse(statusCode, statusMessage, 
+                    new InputStreamReader(body, StandardCharsets.UTF_8)));
+        }
+    }
+
+    private void addResponseHeaderFrame(FastIcueFrame frame) {
+        // headers come right after the status frame, before any data frame
+        if (state != State.READ_BODY || dataReceived) {
+            setError("Unexpected header frame: " + frame.data());
+            return;
+        }
+
+        String data = frame.data();
+        int colon = data.indexOf(':');
+        if (colon <= 0) {
+            setError("Invalid header frame: " + data);
+            return;
+        }
+        headers.put(data.substring(0, colon).trim(), data.substring(colon + 1).trim());
     }
 
     private void addDataFrame(FastIcueFrame frame) {
@@ -113,33 +213,40 @@ class ResponseReceiver {
             setError("Unexpected data frame: " + frame.data());
             return;
         }
+        dataReceived = true;
 
-        String data;
-        if (frame.type() == FRAME_TYPE_LINE_DATA) {
-            data = frame.data() + System.lineSeparator();
-        } else if (frame.type() == FRAME_TYPE_BASE64_DATA) {
-            data = new String(Base64.getDecoder().decode(frame.data()), StandardCharsets.UTF_8);
+        // B frames are already decoded by the frame stream, regardless of the framing
+        if (body != null) {
+            body.append(frame.payload());
+            if (frame.type() == FRAME_TYPE_LINE_DATA) {
+                body.append(LINE_SEPARATOR);
+            }
         } else {
-            // should not happen
-            setError("Unexpected frame type: " + frame.type());
-            return;
+            this.dataBuilder.writeBytes(frame.payload());
+            if (frame.type() == FRAME_TYPE_LINE_DATA) {
+                this.dataBuilder.writeBytes(LINE_SEPARATOR);
+            }
         }
-
-        this.dataBuilder.append(data);
     }
 
     private void addTerminationFrame() {
         switch (state) {
             case READ_BODY:
             case READ_STATUS_LINE:
+                if (body != null && state == State.READ_STATUS_LINE) {
+                    // streaming response is never delivered without status
+                    setError("Response terminated without status frame");
+                    break;
+                }
                 // Normal termination, we have the full response
                 state = State.OK;
-                if (response == null) {
-                    synchronized (responseSynchronizer) {
-                        response = new FastIcueResponse(statusCode, statusMessage, dataBuilder.toString());
-                        responseSynchronizer.notifyAll();
-                    }
+                if (body != null) {
+                    body.finish();
+                } else {
+                    response.complete(new FastIcueResponse(statusCode, statusMessage, 
+                            Collections.unmodifiableMap(headers), dataBuilder.toString(StandardCharsets.UTF_8)));
                 }
+                terminate();
                 break;
             case OK:
                 // Duplicate termination frame, log error
@@ -151,27 +258,144 @@ class ResponseReceiver {
         }
     }
 
+    /**
+     * Protocol declared in the response status frame. Null if not received yet.
+     */
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Future of the full response. Only for buffered mode. It's completed exceptionally with 
+     * {@link FastIcueInvocationException} if the invocation fails.
+     */
+    public CompletableFuture<FastIcueResponse> getFuture() {
+        assert response != null;
+        return response;
+    }
+
+    /**
+     * Future of the response status, completed before the body is received. Only for streaming 
+     * mode. It's completed exceptionally with {@link FastIcueInvocationException} if the 
+     * invocation fails.
+     */
+    public CompletableFuture<FastIcueStreamingResponse> getStreamingFuture() {
+        assert streamingResponse != null;
+        return streamingResponse;
+    }
+
+    /**
+     * Waits for the full response. Only for buffered mode.
+     */
     public FastIcueResponse get() throws FastIcueInvocationException, InterruptedException {
-        synchronized (responseSynchronizer) {
-            while (true) {
-                if (error != null) {
-                    throw error;
-                } else if (response != null) {
-                    return response;
-                } else {
-                    responseSynchronizer.wait();
-                }
+        return await(getFuture());
+    }
+
+    /**
+     * Waits for the response status. Only for streaming mode.
+     */
+    public FastIcueStreamingResponse getStreaming() throws FastIcueInvocationException, InterruptedException {
+        return await(getStreamingFuture());
+    }
+
+    /**
+     * Waits for the future of an invocation, unwrapping the failure.
+     */
+    static <T> T await(CompletableFuture<T> future) throws FastIcueInvocationException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof FastIcueInvocationException cause) {
+                throw cause;
             }
+            throw new FastIcueInvocationException("invocation failed", ex.getCause());
+        } catch (CancellationException ex) {
+            throw new FastIcueInvocationException("invocation cancelled");
         }
     }
 
+    @Override
     public void setError(String message) {
+        if (terminated) {
+            return;
+        }
         logger.warn("invocation error: {}", message);
         state = State.ERROR;
-        synchronized (responseSynchronizer) {
-            error = new FastIcueInvocationException(message);
-            responseSynchronizer.notifyAll();
+        fail(message);
+        terminate();
+    }
+
+    /**
+     * Sets the action to ask the daemon to abort the invocation, once the request is sent. It's 
+     * run right away if the invocation is already cancelled.
+     */
+    void setCanceller(Runnable canceller) {
+        this.canceller.set(canceller);
+        if (cancelled) {
+            runCanceller();
+        }
+    }
+
+    /**
+     * Sets the timer task enforcing the deadline of the invocation, which is cancelled once the 
+     * response is terminated.
+     */
+    void setDeadline(Future<?> deadline) {
+        this.deadline = deadline;
+        if (terminated) {
+            deadline.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels the invocation, if it's not terminated yet. Waiters of the response (and readers of 
+     * the streaming body) fail with the given reason.
+     * 
+     * @return whether the invocation is cancelled by this call
+     */
+    public boolean cancel(String reason) {
+        if (terminated || cancelled) {
+            return false;
+        }
+        cancelled = true;
+        logger.debug("invocation cancelled: {}", reason);
+        fail(reason);
+        runCanceller();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void runCanceller() {
+        Runnable canceller = this.canceller.getAndSet(null);
+        if (canceller != null) {
+            canceller.run();
+        }
+    }
+
+    private void fail(String message) {
+        FastIcueInvocationException error = new FastIcueInvocationException(message);
+        if (body != null) {
+            streamingResponse.completeExceptionally(error);
+            body.fail(message);
+        } else {
+            response.completeExceptionally(error);
+        }
+    }
+
+    private void terminate() {
+        if (terminated) {
+            return;
+        }
+        terminated = true;
+        Future<?> deadline = this.deadline;
+        if (deadline != null) {
+            deadline.cancel(false);
         }
+        completionCallback.run();
     }
 
 }
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the last lines written to stderr of a FastICUE daemon, so that failures of the daemon 
+ * can be reported along with what it complained about.
+ * 
+ * Stderr is drained by a virtual thread. Both the number of lines and the length of each line 
+ * are bounded, so a chatty daemon costs constant heap no matter how long it lives. Each line is 
+ * also logged at debug level as it arrives.
+ * 
+ * This class is thread-safe.
+ */
+final class StderrTail {
+
+    private static final Logger logger = LoggerFactory.getLogger(StderrTail.class);
+
+    static final int MAX_LINES = 64;
+    static final int MAX_LINE_BYTES = 512;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private final String[] lines = new String[MAX_LINES]; // guarded by this
+    private final long[] timestamps = new long[MAX_LINES]; // guarded by this
+    private int next; // guarded by this
+    private int count; // guarded by this
+
+    /**
+     * Starts draining the stream in background. The stream will be closed after it's fully drained.
+     * 
+     * @param name name of the draining thread
+     */
+    static StderrTail start(String name, InputStream in) {
+        StderrTail tail = new StderrTail();
+        Thread.ofVirtual().name(name).start(() -> tail.drain(in));
+        return tail;
+    }
+
+    void drain(InputStream in) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        boolean truncated = false;
+        byte[] buffer = new byte[4096];
+        try (in) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        append(line, truncated);
+                        line.reset();
+                        truncated = false;
+                    } else if (line.size() < MAX_LINE_BYTES) {
+                        line.write(b);
+                    } else {
+                        // rest of an overlong line is dropped
+                        truncated = true;
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            logger.debug("Failed to drain FastICUE daemon stderr", ex);
+        } finally {
+            if (line.size() > 0) {
+                append(line, truncated);
+            }
+        }
+    }
+
+    private void append(ByteArrayOutputStream bytes, boolean truncated) {
+        String line = bytes.toString(StandardCharsets.UTF_8);
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        if (truncated) {
+            line += " ...";
+        }
+        logger.debug("FastICUE daemon stderr: {}", line);
+        append(System.currentTimeMillis(), line);
+    }
+
+    synchronized void append(long timestamp, String line) {
+        lines[next] = line;
+        timestamps[next] = timestamp;
+        next = (next + 1) % MAX_LINES;
+        count = Math.min(count + 1, MAX_LINES);
+    }
+
+    /**
+     * Returns the kept lines from the oldest to the newest, each prefixed with the local time it 
+     * arrived.
+     */
+    synchronized List<String> lines() {
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = (next - count + i + MAX_LINES) % MAX_LINES;
+            LocalTime time = LocalTime.ofInstant(Instant.ofEpochMilli(timestamps[index]), ZoneId.systemDefault());
+            result.add(TIME_FORMAT.format(time.truncatedTo(ChronoUnit.MILLIS)) + " " + lines[index]);
+        }
+        return result;
+    }
+
+    /**
+     * Appends stderr lines of the daemon to a message, if any.
+     */
+    static String describe(String message, List<String> stderr) {
+        if (stderr.isEmpty()) {
+            return message;
+        }
+        return message + "\nLast stderr lines of FastICUE daemon:\n" + String.join("\n", stderr);
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast.daemon;
+
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.vivimice.datovn.action.DirectoryAccessMode;
+import com.vivimice.datovn.action.FileAccessMode;
+import com.vivimice.datovn.action.MessageLevel;
+
+/**
+ * Reports actions of an executing specification to Datovn core. Actions are streamed as soon as 
+ * they are emitted, each as a one-line YAML document (in JSON flow style) of response data lines.
+ * 
+ * The response status is sent along with the first emitted action. Paths are relative to the 
+ * working directory of the stage, as in ICUE action documents.
+ * 
+ * This class is thread-safe.
+ */
+public final class ActionEmitter {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final UnitResponse response;
+
+    ActionEmitter(UnitResponse response) {
+        assert response != null;
+        this.response = response;
+    }
+
+    /**
+     * Reports a message.
+     */
+    public void message(MessageLevel level, String message) {
+        message(level, message, null);
+    }
+
+    /**
+     * Reports a message located in a file, e.g. {@code src/foo.c:12:3}.
+     * 
+     * @param location nullable
+     */
+    public void message(MessageLevel level, String message, String location) {
+        assert level != null;
+        assert message != null;
+        ObjectNode action = action("messageOutput");
+        action.set("level", mapper.valueToTree(level));
+        action.put("message", message);
+        if (location != null) {
+            action.put("location", location);
+        }
+        emit(action);
+    }
+
+    /**
+     * Reports an access to a file, so that the specification is re-executed once the file changes.
+     */
+    public void fileAccess(String path, FileAccessMode mode) {
+        assert path != null;
+        assert mode != null;
+        ObjectNode action = action("fileAccess");
+        action.put("path", path);
+        action.set("mode", mapper.valueToTree(mode));
+        emit(action);
+    }
+
+    /**
+     * Reports an access to a directory.
+     * 
+     * @param pattern glob pattern of accessed entries. Null for all entries.
+     */
+    public void directoryAccess(String path, String pattern, DirectoryAccessMode mode) {
+        assert path != null;
+        assert mode != null;
+        ObjectNode action = action("directoryAccess");
+        action.put("path", path);
+        if (pattern != null) {
+            action.put("pattern", pattern);
+        }
+        action.set("mode", mapper.valueToTree(mode));
+        emit(action);
+    }
+
+    /**
+     * Reports the exit code of the specification. Should be the last action.
+     */
+    public void exit(int exitCode) {
+        ObjectNode action = action("exit");
+        action.put("exitCode", exitCode);
+        emit(action);
+    }
+
+    /**
+     * Whether the invocation is cancelled by Datovn core. Emitting actions of a cancelled 
+     * invocation throws {@link java.util.concurrent.CancellationException}.
+     */
+    public boolean isCancelled() {
+        return response.isCancelled();
+    }
+
+    private static ObjectNode action(String type) {
+        ObjectNode action = mapper.createObjectNode();
+        action.put("type", type);
+        return action;
+    }
+
+    private void emit(ObjectNode action) {
+        String line;
+        try {
+            line = mapper.writeValueAsString(action);
+        } catch (JsonProcessingException ex) {
+            // never happens for tree nodes
+            throw new IllegalStateException(ex);
+        }
+        response.data(List.of("---", line));
+    }
+
+}
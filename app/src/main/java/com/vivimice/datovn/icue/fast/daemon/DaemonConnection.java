@@ -0,0 +1,489 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast.daemon;
+
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.CAPABILITY_REQUEST_BODY;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_BASE64_DATA;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_HEADER;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_LINE_DATA;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_REQUEST;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_RESPONSE_STATUS;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.FRAME_TYPE_TERMINATION;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_CAPABILITIES;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_INVOCATION_ID;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_PARAM_LENGTH_PREFIX;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_PARAM_VALUE_PREFIX;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.HEADER_UNIT_INDEX;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_CANCEL;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_EXEC;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_EXEC_BATCH;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.METHOD_PING;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.PROTOCOL_V1;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_BAD_REQUEST;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_NOT_FOUND;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_OK;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_SERVICE_UNAVAILABLE;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_VERSION_NOT_SUPPORTED;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.SUPPORTED_PROTOCOLS;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.icue.fast.FastIcueFrame;
+import com.vivimice.datovn.icue.fast.FastIcueFrameInputStream;
+import com.vivimice.datovn.icue.fast.FastIcueFrameOutputStream;
+import com.vivimice.datovn.icue.fast.FastIcueFrameWriter;
+import com.vivimice.datovn.icue.fast.MalformedFrameException;
+
+/**
+ * Serves a single connection from Datovn core.
+ * 
+ * Frames are read and requests are assembled by the serving thread. Each specification of EXEC 
+ * and EXEC-BATCH invocations is executed on its own virtual thread, while other invocations are 
+ * responded by the serving thread right away. Responses are written by a {@link FastIcueFrameWriter}.
+ */
+final class DaemonConnection {
+
+    private static final Logger logger = LoggerFactory.getLogger(DaemonConnection.class);
+
+    private static final String CAPABILITIES = String.join(", ", METHOD_EXEC_BATCH, METHOD_CANCEL, CAPABILITY_REQUEST_BODY);
+
+    /**
+     * A request being received, until its termination frame.
+     */
+    private static final class PendingRequest {
+        private final String method;
+        private final String protocol;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private ByteArrayOutputStream body;
+
+        PendingRequest(String method, String protocol) {
+            this.method = method;
+            this.protocol = protocol;
+        }
+    }
+
+    private final FastIcueDaemon daemon;
+    private final FastIcueFrameInputStream input;
+    private final FastIcueFrameWriter writer;
+    private final Map<Integer, PendingRequest> requests = new HashMap<>(); // only accessed by serving thread
+    private final ConcurrentMap<Integer, List<UnitResponse>> invocations = new ConcurrentHashMap<>();
+    private volatile String protocol = PROTOCOL_V1;
+    private boolean negotiated; // only accessed by serving thread
+    private volatile boolean terminating;
+
+    DaemonConnection(FastIcueDaemon daemon, InputStream in, OutputStream out, String name) {
+        this.daemon = daemon;
+        this.input = new FastIcueFrameInputStream(in);
+        this.writer = new FastIcueFrameWriter(new FastIcueFrameOutputStream(out), "[" + name + "] FastICUE Response Writer");
+    }
+
+    /**
+     * Serves until the connection is closed by Datovn core, or until a TERM invocation is 
+     * responded. Ongoing invocations are cancelled if the connection is broken.
+     */
+    void serve() throws IOException {
+        try {
+            while (true) {
+                FastIcueFrame frame;
+                try {
+                    frame = input.readFrame();
+                } catch (MalformedFrameException ex) {
+                    if (!PROTOCOL_V1.equals(input.getProtocol())) {
+                        throw new IOException("malformed frame: " + ex.getMessage(), ex);
+                    }
+                    logger.warn("Malformed frame discarded: {}", ex.getMessage());
+                    ex.getInvocationId().ifPresent(requests::remove);
+                    continue;
+                } catch (EOFException ex) {
+                    logger.debug("Connection closed by Datovn core");
+                    return;
+                }
+                if (receive(frame)) {
+                    return;
+                }
+            }
+        } finally {
+            if (!invocations.isEmpty()) {
+                logger.info("Cancelling {} ongoing invocations of closed connection", invocations.size());
+                invocations.values().forEach(units -> units.forEach(UnitResponse::cancel));
+            }
+            writer.close();
+        }
+    }
+
+    /**
+     * @return true if the connection is terminated by TERM
+     */
+    private boolean receive(FastIcueFrame frame) {
+        int id = frame.invocationId();
+        PendingRequest request = requests.get(id);
+        if (frame.type() == FRAME_TYPE_REQUEST) {
+            String[] parts = frame.data().split(" ", 2);
+            requests.put(id, new PendingRequest(parts[0], parts.length > 1 ? parts[1] : ""));
+            return false;
+        }
+        if (request == null) {
+            logger.warn("Dangling frame discarded: {}", frame);
+            return false;
+        }
+
+        switch (frame.type()) {
+            case FRAME_TYPE_HEADER -> {
+                String data = frame.data();
+                int colon = data.indexOf(':');
+                if (colon > 0) {
+                    request.headers.put(data.substring(0, colon).trim(), data.substring(colon + 1).trim());
+                } else {
+                    logger.warn("Malformed header discarded: {}", data);
+                }
+            }
+            case FRAME_TYPE_LINE_DATA -> body(request).writeBytes((frame.data() + "\n").getBytes(StandardCharsets.UTF_8));
+            case FRAME_TYPE_BASE64_DATA -> body(request).writeBytes(frame.payload());
+            case FRAME_TYPE_TERMINATION -> {
+                requests.remove(id);
+                return dispatch(id, request);
+            }
+            default -> logger.warn("Unexpected frame discarded: {}", frame);
+        }
+        return false;
+    }
+
+    private static ByteArrayOutputStream body(PendingRequest request) {
+        if (request.body == null) {
+            request.body = new ByteArrayOutputStream();
+        }
+        return request.body;
+    }
+
+    /**
+     * @return true if the connection is terminated by TERM
+     */
+    private boolean dispatch(int id, PendingRequest request) {
+        logger.debug("Received {} request #{}", request.method, id);
+        if (request.method.equals(METHOD_PING) && !negotiated) {
+            negotiate(id, request);
+            return false;
+        }
+        if (!request.protocol.equals(protocol)) {
+            respond(id, STATUS_VERSION_NOT_SUPPORTED, "Version Not Supported");
+            return false;
+        }
+
+        switch (request.method) {
+            case METHOD_PING -> respond(id, STATUS_OK, "OK", Map.of(HEADER_CAPABILITIES, CAPABILITIES));
+            case METHOD_EXEC -> exec(id, request);
+            case METHOD_EXEC_BATCH -> execBatch(id, request);
+            case METHOD_CANCEL -> cancel(id, request);
+            case "TERM" -> {
+                terminate(id);
+                return true;
+            }
+            default -> respond(id, STATUS_BAD_REQUEST, "Unknown Method");
+        }
+        return false;
+    }
+
+    /**
+     * Responds the first PING, and switches to the requested protocol if supported.
+     */
+    private void negotiate(int id, PendingRequest request) {
+        negotiated = true;
+        if (!SUPPORTED_PROTOCOLS.contains(request.protocol)) {
+            respond(id, STATUS_VERSION_NOT_SUPPORTED, "Version Not Supported");
+            return;
+        }
+
+        // the response is in 1.0 framing, and no other frame is written until it's written
+        List<FastIcueFrame> frames = List.of(
+            new FastIcueFrame(id, FRAME_TYPE_RESPONSE_STATUS, request.protocol + " " + STATUS_OK + " OK"),
+            new FastIcueFrame(id, FRAME_TYPE_HEADER, HEADER_CAPABILITIES + ": " + CAPABILITIES),
+            new FastIcueFrame(id, FRAME_TYPE_TERMINATION, "")
+        );
+        try {
+            writer.submit(frames).join();
+        } catch (CompletionException ex) {
+            // connection broken, which will be noticed by the reading loop
+            return;
+        }
+        logger.debug("Negotiated protocol: {}", request.protocol);
+        protocol = request.protocol;
+        writer.setProtocol(request.protocol);
+        input.setProtocol(request.protocol);
+    }
+
+    private void exec(int id, PendingRequest request) {
+        ExecRequest execRequest;
+        try {
+            execRequest = ExecRequest.parse(resolveParams(request));
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Bad EXEC request #{}: {}", id, ex.getMessage());
+            respond(id, STATUS_BAD_REQUEST, "Bad Request");
+            return;
+        }
+        if (terminating || !daemon.tryAcquire(1)) {
+            respond(id, STATUS_SERVICE_UNAVAILABLE, "Service Unavailable");
+            return;
+        }
+
+        UnitResponse response = new UnitResponse(writer) {
+            @Override
+            List<FastIcueFrame> statusFrames(int statusCode, String statusMessage) {
+                return List.of(new FastIcueFrame(id, FRAME_TYPE_RESPONSE_STATUS, protocol + " " + statusCode + " " + statusMessage));
+            }
+
+            @Override
+            FastIcueFrame dataFrame(String line) {
+                return new FastIcueFrame(id, FRAME_TYPE_LINE_DATA, line);
+            }
+
+            @Override
+            List<FastIcueFrame> endFrames() {
+                return List.of(new FastIcueFrame(id, FRAME_TYPE_TERMINATION, ""));
+            }
+
+            @Override
+            void onTerminated() {
+                daemon.release(1);
+                removeInvocation(id);
+            }
+        };
+        invocations.put(id, List.of(response));
+        start(id, execRequest, response);
+    }
+
+    private void execBatch(int id, PendingRequest request) {
+        List<ExecRequest> units = new ArrayList<>();
+        try {
+            Map<String, String> headers = resolveParams(request);
+            int count = Integer.parseInt(headers.getOrDefault("Units-Count", ""));
+            List<Map<String, String>> unitHeaders = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                unitHeaders.add(new LinkedHashMap<>());
+            }
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                int at = header.getKey().lastIndexOf('@');
+                if (at > 0) {
+                    int index = Integer.parseInt(header.getKey().substring(at + 1));
+                    unitHeaders.get(index).put(header.getKey().substring(0, at), header.getValue());
+                }
+            }
+            for (Map<String, String> unit : unitHeaders) {
+                units.add(ExecRequest.parse(unit));
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            logger.warn("Bad EXEC-BATCH request #{}: {}", id, ex.getMessage());
+            respond(id, STATUS_BAD_REQUEST, "Bad Request");
+            return;
+        }
+        if (terminating || !daemon.tryAcquire(units.size())) {
+            respond(id, STATUS_SERVICE_UNAVAILABLE, "Service Unavailable");
+            return;
+        }
+
+        // the batch is terminated after all of its units
+        AtomicInteger remaining = new AtomicInteger(units.size());
+        List<UnitResponse> responses = new ArrayList<>(units.size());
+        for (int i = 0; i < units.size(); i++) {
+            String prefix = i + " ";
+            responses.add(new UnitResponse(writer) {
+                @Override
+                List<FastIcueFrame> statusFrames(int statusCode, String statusMessage) {
+                    return List.of(new FastIcueFrame(id, FRAME_TYPE_LINE_DATA, prefix + "R " + statusCode + " " + statusMessage));
+                }
+
+                @Override
+                FastIcueFrame dataFrame(String line) {
+                    return new FastIcueFrame(id, FRAME_TYPE_LINE_DATA, prefix + "L " + line);
+                }
+
+                @Override
+                List<FastIcueFrame> endFrames() {
+                    return List.of(new FastIcueFrame(id, FRAME_TYPE_LINE_DATA, prefix + "Z"));
+                }
+
+                @Override
+                void onTerminated() {
+                    daemon.release(1);
+                    if (remaining.decrementAndGet() == 0) {
+                        writer.submit(List.of(new FastIcueFrame(id, FRAME_TYPE_TERMINATION, "")));
+                        removeInvocation(id);
+                    }
+                }
+            });
+        }
+        invocations.put(id, responses);
+
+        writer.submit(List.of(new FastIcueFrame(id, FRAME_TYPE_RESPONSE_STATUS, protocol + " " + STATUS_OK + " OK")));
+        for (int i = 0; i < units.size(); i++) {
+            start(id, units.get(i), responses.get(i));
+        }
+    }
+
+    private void start(int id, ExecRequest request, UnitResponse response) {
+        Thread.ofVirtual().name("fasticue-exec-" + Integer.toHexString(id)).start(() -> {
+            if (!response.attach(Thread.currentThread())) {
+                return;
+            }
+            ActionEmitter emitter = new ActionEmitter(response);
+            boolean failed = false;
+            try {
+                daemon.getHandler().execute(request, emitter);
+            } catch (CancellationException ex) {
+                // cancelled while emitting
+            } catch (Exception | Error ex) {
+                if (!response.isCancelled()) {
+                    failed = true;
+                    logger.error("Failed executing unit {} of stage {}", request.unit(), request.stage(), ex);
+                    fatal(emitter, response, ex);
+                }
+            } finally {
+                response.complete(failed);
+            }
+        });
+    }
+
+    /**
+     * Reports the failure as a fatal message, if the response status is sent already.
+     */
+    private static void fatal(ActionEmitter emitter, UnitResponse response, Throwable ex) {
+        if (!response.isStatusSent()) {
+            return;
+        }
+        try {
+            emitter.message(MessageLevel.FATAL, "FastICUE daemon error: " + ex);
+        } catch (CancellationException cancelled) {
+            // nothing to report to
+        }
+    }
+
+    private void cancel(int id, PendingRequest request) {
+        List<UnitResponse> units;
+        int unitIndex;
+        try {
+            units = invocations.get(Integer.parseInt(request.headers.getOrDefault(HEADER_INVOCATION_ID, ""), 16));
+            unitIndex = Integer.parseInt(request.headers.getOrDefault(HEADER_UNIT_INDEX, "-1"));
+        } catch (NumberFormatException ex) {
+            respond(id, STATUS_BAD_REQUEST, "Bad Request");
+            return;
+        }
+
+        boolean cancelled = false;
+        if (units != null && unitIndex < 0) {
+            for (UnitResponse unit : units) {
+                cancelled |= unit.cancel();
+            }
+        } else if (units != null && unitIndex < units.size()) {
+            cancelled = units.get(unitIndex).cancel();
+        }
+        if (cancelled) {
+            respond(id, STATUS_OK, "OK");
+        } else {
+            respond(id, STATUS_NOT_FOUND, "Not Found");
+        }
+    }
+
+    /**
+     * Stops accepting new specifications, waits for ongoing ones to finish, and responds TERM.
+     */
+    private void terminate(int id) {
+        logger.info("Terminating, waiting for {} ongoing invocations", invocations.size());
+        terminating = true;
+        synchronized (invocations) {
+            while (!invocations.isEmpty()) {
+                try {
+                    invocations.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        try {
+            writer.submit(statusFrames(id, STATUS_OK, "OK", Map.of())).join();
+        } catch (CompletionException ex) {
+            logger.debug("Failed responding TERM", ex);
+        }
+    }
+
+    private void removeInvocation(int id) {
+        invocations.remove(id);
+        synchronized (invocations) {
+            invocations.notifyAll();
+        }
+    }
+
+    /**
+     * Moves parameters carried in the request body back into {@code Param-Value-*} headers.
+     * 
+     * @throws IllegalArgumentException if lengths don't match the body
+     */
+    private static Map<String, String> resolveParams(PendingRequest request) {
+        byte[] body = request.body != null ? request.body.toByteArray() : new byte[0];
+        int offset = 0;
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            String name = header.getKey();
+            if (!name.startsWith(HEADER_PARAM_LENGTH_PREFIX)) {
+                headers.put(name, header.getValue());
+                continue;
+            }
+            int length = Integer.parseInt(header.getValue());
+            if (length < 0 || length > body.length - offset) {
+                throw new IllegalArgumentException("param length exceeds request body: " + name);
+            }
+            String suffix = name.substring(HEADER_PARAM_LENGTH_PREFIX.length());
+            headers.put(HEADER_PARAM_VALUE_PREFIX + suffix, new String(body, offset, length, StandardCharsets.UTF_8));
+            offset += length;
+        }
+        return headers;
+    }
+
+    private void respond(int id, int statusCode, String statusMessage) {
+        respond(id, statusCode, statusMessage, Map.of());
+    }
+
+    private void respond(int id, int statusCode, String statusMessage, Map<String, String> headers) {
+        writer.submit(statusFrames(id, statusCode, statusMessage, headers));
+    }
+
+    private List<FastIcueFrame> statusFrames(int id, int statusCode, String statusMessage, Map<String, String> headers) {
+        List<FastIcueFrame> frames = new ArrayList<>(headers.size() + 2);
+        frames.add(new FastIcueFrame(id, FRAME_TYPE_RESPONSE_STATUS, protocol + " " + statusCode + " " + statusMessage));
+        headers.forEach((name, value) -> frames.add(new FastIcueFrame(id, FRAME_TYPE_HEADER, name + ": " + value)));
+        frames.add(new FastIcueFrame(id, FRAME_TYPE_TERMINATION, ""));
+        return frames;
+    }
+
+}
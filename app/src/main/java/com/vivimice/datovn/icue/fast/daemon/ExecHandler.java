@@ -0,0 +1,40 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast.daemon;
+
+/**
+ * Executes computation specifications of EXEC invocations (including those in EXEC-BATCH 
+ * invocations) for {@link FastIcueDaemon}.
+ * 
+ * Each specification is executed on its own virtual thread, so a handler may block freely. 
+ * Handlers must be thread-safe, since hundreds of specifications might be executed concurrently.
+ */
+@FunctionalInterface
+public interface ExecHandler {
+
+    /**
+     * Executes the specification, reporting actions through the emitter. The response is 
+     * terminated once this method returns.
+     * 
+     * If the invocation is cancelled by Datovn core, the executing thread is interrupted, and 
+     * subsequent emitting throws {@link java.util.concurrent.CancellationException}.
+     * 
+     * @throws Exception if the execution fails. The invocation is responded with status 500 if 
+     *     nothing has been emitted yet, otherwise a fatal message is emitted.
+     */
+    void execute(ExecRequest request, ActionEmitter emitter) throws Exception;
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast.daemon;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A computation specification to be executed, parsed from headers of an EXEC request. Parameters 
+ * carried in the request body are resolved already.
+ * 
+ * @param unit name of the unit
+ * @param stage name of the stage
+ * @param workingDirectory working directory of the stage, relative paths of the specification 
+ *     should be resolved against it. Null if not provided.
+ * @param opaqueId opaque identifier of the specification. Null if not provided.
+ * @param params parameters of the specification
+ * @param headers all request headers, for extensions
+ */
+public record ExecRequest(
+    String unit,
+    String stage,
+    Path workingDirectory,
+    String opaqueId,
+    List<String> params,
+    Map<String, String> headers
+) {
+
+    /**
+     * @throws IllegalArgumentException if required headers are missing or malformed
+     */
+    static ExecRequest parse(Map<String, String> headers) {
+        String count = headers.get("Params-Count");
+        if (count == null) {
+            throw new IllegalArgumentException("missing Params-Count header");
+        }
+        int paramsCount;
+        try {
+            paramsCount = Integer.parseInt(count);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("malformed Params-Count header: " + count);
+        }
+        if (paramsCount < 0) {
+            throw new IllegalArgumentException("malformed Params-Count header: " + count);
+        }
+
+        List<String> params = new ArrayList<>(paramsCount);
+        for (int i = 0; i < paramsCount; i++) {
+            String value = headers.get("Param-Value-" + i);
+            if (value == null) {
+                throw new IllegalArgumentException("missing Param-Value-" + i + " header");
+            }
+            params.add(value);
+        }
+
+        String workingDirectory = headers.get("Working-Directory");
+        return new ExecRequest(
+            headers.get("Unit"), 
+            headers.get("Stage"), 
+            workingDirectory != null ? Path.of(workingDirectory) : null, 
+            headers.get("Opaque-Id"), 
+            List.copyOf(params), 
+            Map.copyOf(headers)
+        );
+    }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast.daemon;
+
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.ENV_SOCKET;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A FastICUE daemon, which serves EXEC invocations with an {@link ExecHandler}.
+ * 
+ * The daemon implements the whole protocol: version negotiation, EXEC-BATCH, CANCEL, request 
+ * bodies and graceful TERM. Each specification is executed on its own virtual thread, and 
+ * responses of concurrent specifications are coalesced into fewer writes. A daemon could be 
+ * written as simple as:
+ * 
+ * <pre>
+ * public static void main(String[] args) throws IOException {
+ *     new FastIcueDaemon((request, emitter) -&gt; {
+ *         Path source = request.workingDirectory().resolve(request.params().get(0));
+ *         emitter.fileAccess(source.toString(), FileAccessMode.READ);
+ *         emitter.message(MessageLevel.INFO, "compiled " + source);
+ *     }).serve();
+ * }
+ * </pre>
+ * 
+ * This class is thread-safe.
+ */
+public final class FastIcueDaemon {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastIcueDaemon.class);
+
+    private final ExecHandler handler;
+    private final AtomicInteger executing = new AtomicInteger();
+    private volatile int maxConcurrency = 0;
+
+    public FastIcueDaemon(ExecHandler handler) {
+        assert handler != null;
+        this.handler = handler;
+    }
+
+    ExecHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Sets the max number of specifications executing concurrently, across all connections. 
+     * Invocations beyond that are responded with status 503, so that Datovn core backs off. 
+     * 
+     * @param maxConcurrency 0 for unlimited, which is the default
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        assert maxConcurrency >= 0;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Reserves the execution of some specifications.
+     * 
+     * @return false if the max concurrency would be exceeded
+     */
+    boolean tryAcquire(int count) {
+        int limit = maxConcurrency;
+        while (true) {
+            int current = executing.get();
+            if (limit > 0 && current + count > limit) {
+                return false;
+            }
+            if (executing.compareAndSet(current, current + count)) {
+                return true;
+            }
+        }
+    }
+
+    void release(int count) {
+        executing.addAndGet(-count);
+    }
+
+    /**
+     * Serves as started by Datovn core. Listens on the Unix domain socket in 
+     * {@value com.vivimice.datovn.icue.fast.FastIcueConstants#ENV_SOCKET} environment variable if 
+     * present, until the process is terminated. Otherwise serves over standard streams, and 
+     * returns once terminated by TERM or closed by Datovn core.
+     * 
+     * When serving over standard streams, {@link System#out} is redirected to stderr, so that 
+     * nothing printed by handlers corrupts the protocol.
+     */
+    public void serve() throws IOException {
+        String socket = System.getenv(ENV_SOCKET);
+        if (socket != null && !socket.isEmpty()) {
+            listen(Path.of(socket));
+            return;
+        }
+
+        OutputStream out = new FileOutputStream(FileDescriptor.out);
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+        serve(new FileInputStream(FileDescriptor.in), out);
+    }
+
+    /**
+     * Serves a single connection. Returns once terminated by TERM or closed by Datovn core.
+     * Ongoing invocations are cancelled if the connection is closed.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        assert in != null;
+        assert out != null;
+        new DaemonConnection(this, in, out, "stdio").serve();
+    }
+
+    /**
+     * Listens on the Unix domain socket, serving each connection on its own virtual thread. 
+     * Never returns normally. The socket file is removed on exit.
+     */
+    public void listen(Path socketPath) throws IOException {
+        assert socketPath != null;
+
+        Files.deleteIfExists(socketPath);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteQuietly(socketPath)));
+            logger.info("Listening on {}", socketPath);
+
+            AtomicInteger connections = new AtomicInteger();
+            while (true) {
+                SocketChannel channel = server.accept();
+                String name = "conn-" + connections.incrementAndGet();
+                Thread.ofVirtual().name("fasticue-" + name).start(() -> {
+                    try (channel) {
+                        new DaemonConnection(this, Channels.newInputStream(channel), Channels.newOutputStream(channel), name).serve();
+                    } catch (IOException ex) {
+                        logger.warn("Connection {} broken: {}", name, ex.getMessage());
+                    }
+                });
+            }
+        } finally {
+            deleteQuietly(socketPath);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            logger.debug("Failed to delete {}", path, ex);
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast.daemon;
+
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_ACCEPTED;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_CANCELLED;
+import static com.vivimice.datovn.icue.fast.FastIcueConstants.STATUS_INTERNAL_ERROR;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.vivimice.datovn.icue.fast.FastIcueFrame;
+import com.vivimice.datovn.icue.fast.FastIcueFrameWriter;
+
+/**
+ * Response of a single specification, either a whole EXEC response or a unit of an EXEC-BATCH 
+ * response. Tracks whether the status is sent and whether the response is terminated, so that 
+ * the response is terminated exactly once, whether it's completed or cancelled.
+ * 
+ * Frames are queued to the frame writer of the connection without waiting, which coalesces 
+ * frames of concurrent responses into fewer writes. Only a limited number of frame groups of a 
+ * response may be unwritten, so that a fast producer is slowed down by a slow pipe rather than 
+ * exhausting the heap.
+ * 
+ * This class is thread-safe.
+ */
+abstract class UnitResponse {
+
+    /**
+     * Max number of frame groups of a response queued but not written yet.
+     */
+    private static final int MAX_UNWRITTEN_GROUPS = 64;
+
+    private final FastIcueFrameWriter writer;
+    private final Queue<CompletableFuture<Void>> unwritten = new ArrayDeque<>(); // guarded by this
+    private boolean statusSent; // guarded by this
+    private boolean terminated; // guarded by this
+    private volatile boolean cancelled;
+    private volatile Thread thread;
+
+    UnitResponse(FastIcueFrameWriter writer) {
+        assert writer != null;
+        this.writer = writer;
+    }
+
+    /**
+     * Frames of the response status.
+     */
+    abstract List<FastIcueFrame> statusFrames(int statusCode, String statusMessage);
+
+    /**
+     * Frame of a line of response data.
+     */
+    abstract FastIcueFrame dataFrame(String line);
+
+    /**
+     * Frames terminating the response.
+     */
+    abstract List<FastIcueFrame> endFrames();
+
+    /**
+     * Called once after the response is terminated.
+     */
+    abstract void onTerminated();
+
+    /**
+     * Binds the executing thread, which is interrupted once cancelled.
+     * 
+     * @return false if cancelled already
+     */
+    boolean attach(Thread thread) {
+        this.thread = thread;
+        return !cancelled;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    synchronized boolean isStatusSent() {
+        return statusSent;
+    }
+
+    /**
+     * Sends lines of response data, preceded by the status if it's not sent yet.
+     * 
+     * @throws CancellationException if the response is cancelled or terminated
+     */
+    void data(List<String> lines) {
+        synchronized (this) {
+            if (cancelled || terminated) {
+                throw new CancellationException("invocation cancelled");
+            }
+            List<FastIcueFrame> frames = new ArrayList<>(lines.size() + 1);
+            if (!statusSent) {
+                statusSent = true;
+                frames.addAll(statusFrames(STATUS_ACCEPTED, "Accepted"));
+            }
+            for (String line : lines) {
+                frames.add(dataFrame(line));
+            }
+            write(frames);
+        }
+    }
+
+    /**
+     * Terminates the response after the specification is executed. Responds with status 500 if 
+     * failed before anything is sent.
+     * 
+     * @param failed whether the execution failed
+     */
+    void complete(boolean failed) {
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            List<FastIcueFrame> frames = new ArrayList<>();
+            if (!statusSent) {
+                statusSent = true;
+                frames.addAll(failed ? statusFrames(STATUS_INTERNAL_ERROR, "Internal Error") : statusFrames(STATUS_ACCEPTED, "Accepted"));
+            }
+            frames.addAll(endFrames());
+            write(frames);
+        }
+        onTerminated();
+    }
+
+    /**
+     * Aborts the response: terminates it right away, with status 499 if the status is not sent 
+     * yet, and interrupts the executing thread.
+     * 
+     * @return false if the response is terminated already
+     */
+    boolean cancel() {
+        cancelled = true;
+        synchronized (this) {
+            if (terminated) {
+                return false;
+            }
+            terminated = true;
+            List<FastIcueFrame> frames = new ArrayList<>();
+            if (!statusSent) {
+                statusSent = true;
+                frames.addAll(statusFrames(STATUS_CANCELLED, "Cancelled"));
+            }
+            frames.addAll(endFrames());
+            write(frames);
+        }
+        Thread thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        onTerminated();
+        return true;
+    }
+
+    /**
+     * Queues frames to the writer, waiting for the oldest group if too many are unwritten. 
+     * Failures of writing are ignored, since the connection is broken and will be closed by the 
+     * reading loop.
+     */
+    private void write(List<FastIcueFrame> frames) {
+        unwritten.removeIf(CompletableFuture::isDone);
+        if (unwritten.size() >= MAX_UNWRITTEN_GROUPS) {
+            try {
+                unwritten.poll().join();
+            } catch (CompletionException | CancellationException ex) {
+                // connection broken
+            }
+        }
+        unwritten.add(writer.submit(frames));
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.plugin;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vivimice.datovn.DatovnRuntimeException;
+import com.vivimice.datovn.stage.StageContext;
+import com.vivimice.datovn.stage.StageScopeService;
+import com.vivimice.datovn.unit.CompUnit;
+
+/**
+ * Stage scope service which caches isolated classloaders of Java units, keyed by their resolved 
+ * classpath. Units sharing the same classpath within a stage share the same classloader, so 
+ * classes are loaded (and static states are initialized) only once per stage.
+ */
+public class JavaPluginService implements StageScopeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JavaPluginService.class);
+
+    private final Map<List<Path>, URLClassLoader> classLoaders = new ConcurrentHashMap<>();
+    private volatile boolean shutdown = false;
+
+    @Override
+    public void onInit(StageContext context) {
+        assert context != null;
+    }
+
+    @Override
+    public void onDestroy() {
+        shutdown = true;
+        classLoaders.forEach((classpath, loader) -> {
+            logger.debug("Closing Java unit classloader: {}", classpath);
+            try {
+                loader.close();
+            } catch (IOException ex) {
+                logger.warn("i/o error while closing classloader of: {}", classpath, ex);
+            }
+        });
+        classLoaders.clear();
+    }
+
+    /**
+     * Get the classloader for the classpath. Its parent is the classloader of datovn, so that 
+     * {@link CompUnit} and related types are shared.
+     * 
+     * @param classpath absolute, normalized classpath entries
+     */
+    public ClassLoader getClassLoader(List<Path> classpath) {
+        if (shutdown) {
+            throw new DatovnRuntimeException("Cannot load Java unit as service is shutting down.");
+        }
+
+        return classLoaders.computeIfAbsent(classpath, cp -> {
+            logger.debug("Creating Java unit classloader: {}", cp);
+            URL[] urls = new URL[cp.size()];
+            for (int i = 0; i < urls.length; i++) {
+                try {
+                    urls[i] = cp.get(i).toUri().toURL();
+                } catch (MalformedURLException ex) {
+                    throw new DatovnRuntimeException("Illegal classpath entry: " + cp.get(i), ex);
+                }
+            }
+            return new URLClassLoader("datovn-java-unit", urls, CompUnit.class.getClassLoader());
+        });
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.plugin;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.vivimice.datovn.spec.CompExecSpec;
+import com.vivimice.datovn.util.DigestUtils;
+
+/**
+ * Specification of a computation unit implemented in Java, which is loaded from the classpath 
+ * and executed in-process.
+ */
+public final class JavaSpec implements CompExecSpec {
+
+    private final String name;
+
+    /**
+     * An additional revision string, used to alter opaque identifier manually in spec.
+     * 
+     * Might be null.
+     */
+    private final String revision;
+
+    /**
+     * Classpath entries (jars or directories) to load the unit implementation from. Relative 
+     * entries are resolved against the stage directory.
+     * 
+     * Won't be null or empty.
+     */
+    private final List<String> classpath;
+
+    /**
+     * Fully qualified class name of the {@link com.vivimice.datovn.unit.CompUnit} implementation.
+     * Required only if the classpath provides more than one implementation.
+     * 
+     * Might be null.
+     */
+    private final String provider;
+
+    /**
+     * Parameters of computation.
+     * 
+     * Won't be null.
+     */
+    private final List<String> params;
+
+    private final String opaqueIdentifier;
+
+    @JsonCreator
+    public JavaSpec(
+        @JsonProperty("name") String name, 
+        @JsonProperty("revision") String revision, 
+        @JsonProperty("classpath") List<String> classpath, 
+        @JsonProperty("provider") String provider, 
+        @JsonProperty("params") List<String> params
+    ) {
+        assert classpath != null && !classpath.isEmpty();
+        assert params != null;
+
+        this.revision = revision;
+        this.classpath = classpath;
+        this.provider = provider;
+        this.params = params;
+
+        String keyProperties = "java:" + String.join(":", classpath) + ";" + provider + ";" + String.join(",", params);
+        if (revision != null) {
+            keyProperties += "@rev=" + revision;
+        }
+        this.opaqueIdentifier = DigestUtils.sha256Hex(keyProperties);
+
+        if (name == null) {
+            name = "unnamed_" + opaqueIdentifier.substring(0, 8);
+        }
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public String getRevision() {
+        return revision;
+    }
+
+    public List<String> getClasspath() {
+        return classpath;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    @Override
+    public List<String> getParams() {
+        return params;
+    }
+
+    @Override
+    public String getOpaqueIdentifier() {
+        return opaqueIdentifier;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.plugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vivimice.datovn.DatovnRuntimeException;
+import com.vivimice.datovn.unit.CompActionRecorder;
+import com.vivimice.datovn.unit.CompUnit;
+import com.vivimice.datovn.unit.UnitContext;
+
+/**
+ * Implementation of {@link CompUnit} which loads another CompUnit implementation from the 
+ * configured classpath via {@link ServiceLoader}, and executes it in-process.
+ * 
+ * The loaded unit reports actions to the recorder directly. Its parameters are available via 
+ * {@link UnitContext#getParams()}.
+ */
+public final class JavaUnit implements CompUnit {
+
+    private static final Logger logger = LoggerFactory.getLogger(JavaUnit.class);
+
+    private final JavaSpec spec;
+
+    public JavaUnit(JavaSpec spec) {
+        assert spec != null;
+        this.spec = spec;
+    }
+
+    @Override
+    public void execute(UnitContext ctx, CompActionRecorder recorder) {
+        // Record reads of classpath entries, so that the unit will be re-executed once the 
+        // implementation changes.
+        List<Path> classpath = new ArrayList<>(spec.getClasspath().size());
+        for (String entry : spec.getClasspath()) {
+            Path path = ctx.getWorkingDirectory().resolve(entry).normalize().toAbsolutePath();
+            if (!Files.exists(path)) {
+                throw new DatovnRuntimeException("Classpath entry not found: " + entry);
+            }
+            if (Files.isDirectory(path)) {
+                recordClassDirectory(entry, path, recorder);
+            } else {
+                recorder.recordReadFile(entry);
+            }
+            classpath.add(path);
+        }
+
+        JavaPluginService service = ctx.getStageService(JavaPluginService.class.getName(), JavaPluginService::new);
+        ClassLoader loader = service.getClassLoader(List.copyOf(classpath));
+        CompUnit unit = loadUnit(loader);
+        logger.debug("Executing Java unit: {}", unit.getClass().getName());
+
+        Thread currentThread = Thread.currentThread();
+        ClassLoader originalLoader = currentThread.getContextClassLoader();
+        currentThread.setContextClassLoader(loader);
+        try {
+            unit.execute(ctx, recorder);
+        } finally {
+            currentThread.setContextClassLoader(originalLoader);
+        }
+    }
+
+    /**
+     * Records listings of all directories, and reads of all regular files under a directory 
+     * classpath entry, since any of them might be loaded by the unit.
+     */
+    private static void recordClassDirectory(String entry, Path directory, CompActionRecorder recorder) {
+        Path entryPath = Path.of(entry);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted().toList()) {
+                String recordedPath = entryPath.resolve(directory.relativize(path)).toString();
+                if (Files.isDirectory(path)) {
+                    recorder.recordListDirectory(recordedPath);
+                } else if (Files.isRegularFile(path)) {
+                    recorder.recordReadFile(recordedPath);
+                }
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            throw new DatovnRuntimeException("I/O error while scanning classpath entry: " + entry, ex);
+        }
+    }
+
+    private CompUnit loadUnit(ClassLoader loader) {
+        List<ServiceLoader.Provider<CompUnit>> providers;
+        try {
+            providers = ServiceLoader.load(CompUnit.class, loader).stream()
+                // Only implementations from the unit's own classpath are eligible
+                .filter(p -> p.type().getClassLoader() == loader)
+                .filter(p -> spec.getProvider() == null || p.type().getName().equals(spec.getProvider()))
+                .toList();
+        } catch (ServiceConfigurationError ex) {
+            throw new DatovnRuntimeException("Failed to load Java unit: " + ex.getMessage(), ex);
+        }
+
+        if (providers.isEmpty()) {
+            if (spec.getProvider() != null) {
+                throw new DatovnRuntimeException("CompUnit implementation '" + spec.getProvider() + "' not found in classpath.");
+            }
+            throw new DatovnRuntimeException("No CompUnit implementation found in classpath.");
+        } else if (providers.size() > 1) {
+            String names = providers.stream().map(p -> p.type().getName()).collect(Collectors.joining(", "));
+            throw new DatovnRuntimeException("Multiple CompUnit implementations found in classpath, 'provider' must be specified: " + names);
+        }
+
+        try {
+            return providers.get(0).get();
+        } catch (ServiceConfigurationError ex) {
+            throw new DatovnRuntimeException("Failed to instantiate Java unit: " + ex.getMessage(), ex);
+        }
+    }
+
+}
@@ -21,6 +21,8 @@ import java.util.regex.Pattern;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.vivimice.datovn.icue.IcueSpec;
+import com.vivimice.datovn.icue.fast.FastIcueSpec;
+import com.vivimice.datovn.plugin.JavaSpec;
 import com.vivimice.datovn.unit.CompUnit;
 
 /**
@@ -34,6 +36,8 @@ import com.vivimice.datovn.unit.CompUnit;
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
 @JsonSubTypes({
     @JsonSubTypes.Type(value = IcueSpec.class, name = "icue"),
+    @JsonSubTypes.Type(value = FastIcueSpec.class, name = "fast-icue"),
+    @JsonSubTypes.Type(value = JavaSpec.class, name = "java"),
 })
 public interface CompExecSpec {
 
@@ -17,45 +17,56 @@ package com.vivimice.datovn.stage;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
-import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.vivimice.datovn.action.CompAction;
 import com.vivimice.datovn.action.DirectoryAccessAction;
 import com.vivimice.datovn.action.ExecAction;
 import com.vivimice.datovn.action.ExitAction;
 import com.vivimice.datovn.action.FileAccessAction;
+import com.vivimice.datovn.action.LoadedSketches;
 import com.vivimice.datovn.action.MessageLevel;
 import com.vivimice.datovn.action.MessageOutputAction;
+import com.vivimice.datovn.action.SketchBuffer;
 import com.vivimice.datovn.spec.CompExecSpec;
 import com.vivimice.datovn.unit.CompActionRecorder;
 import com.vivimice.datovn.unit.UnitContext;
 import com.vivimice.datovn.util.OffendingPathAccessChecker;
+import com.vivimice.datovn.util.OperationType;
+import com.vivimice.datovn.util.PathAccess;
 import com.vivimice.datovn.util.PathAccessOperation;
 
 class CompActionProcessor implements Consumer<CompAction.Sketch<?>> {
 
-    final List<CompAction.Sketch<?>> recordedSketches = new LinkedList<>();
+    private static final Logger logger = LoggerFactory.getLogger(CompActionProcessor.class);
+
+    final SketchBuffer recordedSketches; // null if replaying, since the sketches are in the store already
     private final List<CompExecSpec> invocations = new ArrayList<>();
     private final StageContext stageContext;
     private final UnitContext execContext;
-    private final OffendingPathAccessChecker<String> pathAccessChecker;
+    private final StagePathAccessChecker pathAccessChecker;
     private final CompExecSpec spec;
     final List<ProcessingError> processingErrors = new ArrayList<>();
 
     private boolean hasFatalError = false;
     private Optional<Integer> explicitExitCode = Optional.empty();
     private boolean offendingPathAccessReported = false;
+    private boolean sealed = false;
+    private final List<PathAccess> pathAccesses = new ArrayList<>(); // checked path accesses
+    private List<String> replayedPathAccessDescriptions; // of unchecked path accesses, null if not replaying
 
-    CompActionProcessor(StageContext stageContext, UnitContext execContext, OffendingPathAccessChecker<String> pathAccessChecker, CompExecSpec spec) {
+    CompActionProcessor(StageContext stageContext, UnitContext execContext, StagePathAccessChecker pathAccessChecker, CompExecSpec spec, SketchBuffer recordedSketches) {
         assert stageContext != null;
         assert execContext != null;
         assert pathAccessChecker != null;
         assert spec != null;
 
+        this.recordedSketches = recordedSketches;
         this.pathAccessChecker = pathAccessChecker;
         this.stageContext = stageContext;
         this.execContext = execContext;
@@ -64,7 +75,65 @@ class CompActionProcessor implements Consumer<CompAction.Sketch<?>> {
 
     @Override
     public synchronized void accept(CompAction.Sketch<?> sketch) {
-        recordedSketches.add(sketch);
+        if (sealed) {
+            logger.debug("Dropped action sketch reported after execution: {}", sketch);
+            return;
+        }
+        process(sketch);
+    }
+
+    /**
+     * Accepts a batch of sketches, in order, while holding the lock only once.
+     */
+    public synchronized void acceptAll(List<? extends CompAction.Sketch<?>> sketches) {
+        if (sealed) {
+            logger.debug("Dropped {} action sketches reported after execution", sketches.size());
+            return;
+        }
+        for (CompAction.Sketch<?> sketch : sketches) {
+            process(sketch);
+        }
+    }
+
+    /**
+     * Stops accepting sketches. Sketches reported afterwards, e.g. by a descendant process which 
+     * escaped the kill of a timed out unit, are dropped, so that recorded sketches can be safely 
+     * consumed without holding the lock.
+     */
+    public synchronized void seal() {
+        sealed = true;
+    }
+
+    /**
+     * Accepts all sketches of an up-to-date computation, in order. Path accesses are checked in a 
+     * batch after all sketches are processed, since they're known up front.
+     */
+    public synchronized void replay(LoadedSketches loaded) {
+        replayedPathAccessDescriptions = new ArrayList<>();
+        for (CompAction.Sketch<?> sketch : loaded.sketches()) {
+            process(sketch);
+        }
+
+        List<String> descriptions = replayedPathAccessDescriptions;
+        replayedPathAccessDescriptions = null;
+
+        OffendingPathAccessChecker.BatchOffence<String> offence = pathAccessChecker.checkReplayed(spec, loaded.updateTime(), pathAccesses);
+        if (offence != null) {
+            reportOffendingPathAccess(pathAccesses.get(offence.index()).path(), offence.operation(), descriptions.get(offence.index()));
+        }
+    }
+
+    /**
+     * All checked path accesses.
+     */
+    public synchronized List<PathAccess> getPathAccesses() {
+        return pathAccesses;
+    }
+
+    private void process(CompAction.Sketch<?> sketch) {
+        if (recordedSketches != null) {
+            recordedSketches.add(sketch);
+        }
 
         switch (sketch) {
             case ExecAction.Sketch execSketch:
@@ -118,15 +187,11 @@ class CompActionProcessor implements Consumer<CompAction.Sketch<?>> {
         }
 
         checkPathAccess(sketch.getPath(), switch (sketch.getMode()) {
-            case CREATE -> pathAccessChecker::onFileCreation;
-            case DELETE -> pathAccessChecker::onPathRemoval;
-            case READ -> pathAccessChecker::onFileRead;
-            case WRITE -> pathAccessChecker::onFileWrite;
-            case CHECK_EXISTENCE -> pathAccessChecker::onCheckExistence;
-            // should never happen
-            default -> (path, owner) -> { 
-                throw new AssertionError(); 
-            };
+            case CREATE -> OperationType.FILE_CREATE;
+            case DELETE -> OperationType.PATH_DELETE;
+            case READ -> OperationType.CONTENT_READ;
+            case WRITE -> OperationType.CONTENT_WRITE;
+            case CHECK_EXISTENCE -> OperationType.PATH_CHECK;
         }, "file access with mode '" + sketch.getMode() + "'");
     }
 
@@ -136,32 +201,36 @@ class CompActionProcessor implements Consumer<CompAction.Sketch<?>> {
         }
 
         checkPathAccess(sketch.getPath(), switch (sketch.getMode()) {
-            case CREATE -> pathAccessChecker::onDirectoryCreation;
-            case DELETE -> pathAccessChecker::onPathRemoval;
-            case LIST -> pathAccessChecker::onDirectoryListing;
-            case CHECK_EXISTENCE -> pathAccessChecker::onCheckExistence;
-            // should never happen
-            default -> (path, owner) -> { 
-                throw new AssertionError(); 
-            };
+            case CREATE -> OperationType.DIR_CREATE;
+            case DELETE -> OperationType.PATH_DELETE;
+            case LIST -> OperationType.DIR_LIST;
+            case CHECK_EXISTENCE -> OperationType.PATH_CHECK;
         }, "directory access with mode '" + sketch.getMode() + "'");
     }
 
-    private void checkPathAccess(String path, BiFunction<Path, String, PathAccessOperation<String>> checker, String description) {
+    private void checkPathAccess(String path, OperationType type, String description) {
         Path p = stageContext.getStageWorkingDir().resolve(path).normalize().toAbsolutePath();
-
-        PathAccessOperation<String> offendingOperation;
-        synchronized (pathAccessChecker) { // checker is backed by OffendingPathAccessChecker, which is not thread-safe
-            offendingOperation = checker.apply(p, spec.getName());
+        PathAccess access = new PathAccess(type, p);
+        if (replayedPathAccessDescriptions != null) {
+            pathAccesses.add(access);
+            replayedPathAccessDescriptions.add(description);
+            return;
         }
 
+        PathAccessOperation<String> offendingOperation = pathAccessChecker.check(access, spec.getName());
         if (offendingOperation != null) {
-            CompActionRecorder reporter = new CompActionRecorder(this);
-            reporter.recordFatalError("Our " + description + " at path '" + p + "' offends operation from '" + offendingOperation.owner() + "': " + offendingOperation.reason());
-            offendingPathAccessReported = true;
+            reportOffendingPathAccess(p, offendingOperation, description);
+        } else {
+            pathAccesses.add(access);
         }
     }
 
+    private void reportOffendingPathAccess(Path p, PathAccessOperation<String> offendingOperation, String description) {
+        CompActionRecorder reporter = new CompActionRecorder(this);
+        reporter.recordFatalError("Our " + description + " at path '" + p + "' offends operation from '" + offendingOperation.owner() + "': " + offendingOperation.reason());
+        offendingPathAccessReported = true;
+    }
+
     private void reportProcessingError(String message, String location) {
         processingErrors.add(new ProcessingError(message, location));
     }
@@ -30,6 +30,8 @@ import com.vivimice.datovn.DatovnRuntimeException;
 import com.vivimice.datovn.action.ActionsStore;
 import com.vivimice.datovn.action.LoadedSketches;
 import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.action.PathAccessSnapshot;
+import com.vivimice.datovn.action.SketchBuffer;
 import com.vivimice.datovn.profiler.ProfilerCloseable;
 import com.vivimice.datovn.profiler.UnitProfiler;
 import com.vivimice.datovn.spec.CompExecSpec;
@@ -37,7 +39,6 @@ import com.vivimice.datovn.unit.CompActionRecorder;
 import com.vivimice.datovn.unit.CompUnit;
 import com.vivimice.datovn.unit.CompUnits;
 import com.vivimice.datovn.unit.UnitContext;
-import com.vivimice.datovn.util.OffendingPathAccessChecker;
 
 public class CompStage {
 
@@ -47,8 +48,7 @@ public class CompStage {
     private final Set<String> scheduledSpecs = Collections.newSetFromMap(new ConcurrentHashMap<>());
     private final Map<String, StageScopeService> services = new ConcurrentHashMap<>();
 
-    // Note: Path access checker is not thread-safe.
-    private final OffendingPathAccessChecker<String> pathAccessChecker = new OffendingPathAccessChecker<>();
+    private StagePathAccessChecker pathAccessChecker; // created once started
 
     // Variables that must be protected by <code>synchronized (this) {}</code> block
     // Number of remaining unfinished computations
@@ -79,11 +79,13 @@ public class CompStage {
 
             logger.info("Stage started");
             
+            boolean finished;
             synchronized (this) {
                 // Check if already started
                 assert !started : "Stage already started";
                 started = true;
                 totalExecutions = 0;
+                pathAccessChecker = new StagePathAccessChecker(context.getStageWorkingDir(), context.getActionsStore().loadPathAccessSnapshot());
 
                 // Schedule the initial computation
                 schedule(initialSpec);
@@ -97,6 +99,15 @@ public class CompStage {
                         break;
                     }
                 }
+                finished = (remainExecutions == 0);
+            }
+
+            // Keep path access operations, so that checking can be skipped by the next no-op build
+            Map<String, PathAccessSnapshot.Unit> snapshotUnits = finished ? pathAccessChecker.getSnapshotUnits() : null;
+            if (snapshotUnits == null) {
+                context.getActionsStore().deletePathAccessSnapshot();
+            } else if (pathAccessChecker.isSnapshotChanged()) {
+                context.getActionsStore().writePathAccessSnapshot(snapshotUnits);
             }
 
             // Destroy all services after finishing the stage
@@ -166,48 +177,73 @@ public class CompStage {
      * Execute the computation.
      */
     private void execute(CompExecSpec spec, UnitContext execContext) {
-        // Create computation unit from specification
-        CompUnit unit = CompUnits.create(spec);
         ActionsStore actionsStore = context.getActionsStore();
-        CompActionProcessor actionProcessor = new CompActionProcessor(context, execContext, pathAccessChecker, spec);
         UnitProfiler profiler = execContext.getProfiler();
 
         logger.debug("Reading previous action sketches");
         LoadedSketches prev;
-        boolean upToDate;
         try (ProfilerCloseable pc = profiler.wrapLoadSketches()) { 
             prev = actionsStore.loadActionSketches(spec);
-            upToDate = (prev != null);
-            pc.set("upToDate", upToDate);
+            pc.set("upToDate", prev != null);
             if (prev != null) {
                 pc.set("updateTime", prev.updateTime());
             }
         }
 
-        if (upToDate) {
+        if (prev != null) {
+            // Replayed sketches are in the store already, so they're not buffered for writing back.
             logger.debug("Computation is up-to-date.");
-            prev.sketches().forEach(actionProcessor::accept);
+            CompActionProcessor actionProcessor = new CompActionProcessor(context, execContext, pathAccessChecker, spec, null);
+            actionProcessor.replay(prev);
+            reportProcessingErrors(execContext, actionProcessor);
+            complete(spec, actionProcessor, prev.updateTime());
         } else {
-            // Execute CompUnit and collect action sketches reported during the computation.
-            logger.debug("Computation is out-of-date. Execute computation from scratch.");
-            try (ProfilerCloseable pc = profiler.wrapUnitRun()) {
-                unit.execute(execContext, new CompActionRecorder(actionProcessor));
+            try (SketchBuffer recordedSketches = actionsStore.createSketchBuffer(spec)) {
+                execute(spec, execContext, actionsStore, recordedSketches);
             }
         }
+    }
+
+    private void execute(CompExecSpec spec, UnitContext execContext, ActionsStore actionsStore, SketchBuffer recordedSketches) {
+        // Create computation unit from specification
+        CompUnit unit = CompUnits.create(spec);
+        CompActionProcessor actionProcessor = new CompActionProcessor(context, execContext, pathAccessChecker, spec, recordedSketches);
+        UnitProfiler profiler = execContext.getProfiler();
+
+        // Execute CompUnit and collect action sketches reported during the computation.
+        logger.debug("Computation is out-of-date. Execute computation from scratch.");
+        pathAccessChecker.startChecking();
+        try (ProfilerCloseable pc = profiler.wrapUnitRun()) {
+            unit.execute(execContext, new CompActionRecorder(actionProcessor, actionProcessor::acceptAll));
+        } finally {
+            actionProcessor.seal();
+        }
 
-        // Report addition errors during action recording
+        reportProcessingErrors(execContext, actionProcessor);
+
+        // Write sketches to store.
+        logger.debug("Writing action sketches to store.");
+        String updateTime;
+        try (ProfilerCloseable pc = profiler.wrapWriteSketches()) {
+            updateTime = actionsStore.writeActionSketches(spec, recordedSketches);
+            pc.set("count", recordedSketches.size());
+            pc.set("omittedMessages", recordedSketches.getOmittedMessages());
+        }
+
+        complete(spec, actionProcessor, updateTime);
+    }
+
+    /**
+     * Report addition errors during action recording.
+     */
+    private static void reportProcessingErrors(UnitContext execContext, CompActionProcessor actionProcessor) {
         for (ProcessingError pe : actionProcessor.processingErrors) {
             execContext.logMessage(MessageLevel.ERROR, pe.message(), pe.location());
         }
+    }
 
-        // Write sketches to store, if out-of-date.
-        if (!upToDate) {
-            logger.debug("Writing action sketches to store.");
-            try (ProfilerCloseable pc = profiler.wrapWriteSketches()) {
-                actionsStore.writeActionSketches(spec, actionProcessor.recordedSketches);
-                pc.set("count", actionProcessor.recordedSketches.size());
-            }
-        }
+    private void complete(CompExecSpec spec, CompActionProcessor actionProcessor, String updateTime) {
+        pathAccessChecker.complete(spec, updateTime, actionProcessor.getPathAccesses());
 
         // Schedule subsequent computations
         logger.debug("Scheduling subsequent computations.");
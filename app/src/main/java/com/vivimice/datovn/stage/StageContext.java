@@ -17,12 +17,14 @@ package com.vivimice.datovn.stage;
 
 import java.nio.file.Path;
 import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import org.slf4j.MDC;
 import org.slf4j.MDC.MDCCloseable;
 
 import com.vivimice.datovn.action.ActionsStore;
 import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.build.BuildScopeService;
 import com.vivimice.datovn.profiler.StageProfiler;
 
 /**
@@ -71,6 +73,11 @@ public interface StageContext {
      */
     void logProgress(double progress, String message);
 
+    /**
+     * Get a build scope service. If not exists, create one using the supplier.
+     */
+    <T extends BuildScopeService> T getBuildService(String key, Supplier<T> factory);
+
     default MDCCloseable putMdcClosable() {
         return MDC.putCloseable("stage", getStageName());
     }
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.stage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vivimice.datovn.action.PathAccessSnapshot;
+import com.vivimice.datovn.spec.CompExecSpec;
+import com.vivimice.datovn.util.OffendingPathAccessChecker;
+import com.vivimice.datovn.util.OperationType;
+import com.vivimice.datovn.util.PathAccess;
+import com.vivimice.datovn.util.PathAccessOperation;
+
+/**
+ * Checks offending path accesses between units of a stage, with the help of the path access 
+ * snapshot of the last build.
+ * 
+ * Operations in the snapshot are free of offence. So are operations of any up-to-date unit which 
+ * matches its snapshot entry, i.e. replays the same actions, among each other. Thus checking is 
+ * deferred as long as all units are such units, which is the case of a no-op build, and never 
+ * happens if it stays so. Once any unit is executed, or replays actions not in the snapshot, 
+ * operations of the matching units so far are recorded from the snapshot, and all path accesses 
+ * are checked from then on.
+ * 
+ * A new snapshot is made from operations of all completed units, unless any offence is found.
+ * 
+ * This class is thread-safe.
+ */
+final class StagePathAccessChecker {
+
+    private static final Logger logger = LoggerFactory.getLogger(StagePathAccessChecker.class);
+
+    private final OffendingPathAccessChecker<String> checker = new OffendingPathAccessChecker<>();
+    private final Path stageDirectory;
+    private final Map<String, PathAccessSnapshot.Unit> previousUnits;
+    private final Map<String, PathAccessSnapshot.Unit> units = new ConcurrentHashMap<>();
+    private final List<String> deferredUnits = new ArrayList<>(); // guarded by this
+    private boolean checking = false; // guarded by this
+    private volatile boolean offended = false;
+
+    /**
+     * @param stageDirectory working directory of the stage
+     * @param previous snapshot of the last build. Null if not available.
+     */
+    StagePathAccessChecker(Path stageDirectory, PathAccessSnapshot previous) {
+        assert stageDirectory != null;
+        this.stageDirectory = stageDirectory.toAbsolutePath().normalize();
+        this.previousUnits = (previous != null) ? previous.units() : Map.of();
+    }
+
+    /**
+     * Starts checking, before any path access of a unit not matching the snapshot.
+     */
+    synchronized void startChecking() {
+        if (checking) {
+            return;
+        }
+
+        logger.debug("Start checking path accesses, recording operations of {} deferred units", deferredUnits.size());
+        for (String unitName : deferredUnits) {
+            OffendingPathAccessChecker.BatchOffence<String> offence = checker.onPathAccesses(toAccesses(previousUnits.get(unitName)), unitName);
+            if (offence != null) {
+                // never happens unless the snapshot is tampered
+                offended = true;
+                logger.warn("Offending operation found in path access snapshot: {}", offence.operation());
+            }
+        }
+        deferredUnits.clear();
+        checking = true;
+    }
+
+    /**
+     * Checks path accesses of an up-to-date unit, replaying its actions.
+     * 
+     * @param updateTime update time of the replayed actions
+     * @return the offence if any. Otherwise null.
+     */
+    OffendingPathAccessChecker.BatchOffence<String> checkReplayed(CompExecSpec spec, String updateTime, List<PathAccess> accesses) {
+        PathAccessSnapshot.Unit previous = previousUnits.get(spec.getName());
+        if (previous != null && previous.matches(spec.getOpaqueIdentifier(), updateTime)) {
+            synchronized (this) {
+                if (!checking) {
+                    deferredUnits.add(spec.getName());
+                    return null;
+                }
+            }
+        } else {
+            startChecking();
+        }
+
+        OffendingPathAccessChecker.BatchOffence<String> offence = checker.onPathAccesses(accesses, spec.getName());
+        offended |= (offence != null);
+        return offence;
+    }
+
+    /**
+     * Checks a path access of an executing unit. {@link #startChecking()} must be called before 
+     * the unit executes.
+     * 
+     * @return the offending operation if any. Otherwise null.
+     */
+    PathAccessOperation<String> check(PathAccess access, String owner) {
+        PathAccessOperation<String> offendingOperation = checker.onPathAccess(access.type(), access.path(), owner);
+        offended |= (offendingOperation != null);
+        return offendingOperation;
+    }
+
+    /**
+     * Records operations of a completed unit for the next snapshot.
+     * 
+     * @param updateTime update time of the replayed or written actions
+     * @param accesses all path accesses of the unit, which are checked already
+     */
+    void complete(CompExecSpec spec, String updateTime, List<PathAccess> accesses) {
+        PathAccessSnapshot.Unit previous = previousUnits.get(spec.getName());
+        if (previous != null && previous.matches(spec.getOpaqueIdentifier(), updateTime)) {
+            units.put(spec.getName(), previous);
+            return;
+        }
+
+        Map<OperationType, List<String>> operations = new EnumMap<>(OperationType.class);
+        for (PathAccess access : accesses) {
+            operations.computeIfAbsent(access.type(), t -> new ArrayList<>()).add(toSnapshotPath(access.path()));
+        }
+        units.put(spec.getName(), new PathAccessSnapshot.Unit(spec.getOpaqueIdentifier(), updateTime, operations));
+    }
+
+    /**
+     * Returns units of the new snapshot, see {@link PathAccessSnapshot#units()}. Null if any offence 
+     * is found, in which case no snapshot should be kept.
+     */
+    Map<String, PathAccessSnapshot.Unit> getSnapshotUnits() {
+        return offended ? null : units;
+    }
+
+    /**
+     * Whether the new snapshot differs from the last one.
+     */
+    boolean isSnapshotChanged() {
+        return !units.equals(previousUnits);
+    }
+
+    private String toSnapshotPath(Path path) {
+        return path.startsWith(stageDirectory) ? stageDirectory.relativize(path).toString() : path.toString();
+    }
+
+    private List<PathAccess> toAccesses(PathAccessSnapshot.Unit unit) {
+        List<PathAccess> accesses = new ArrayList<>();
+        unit.operations().forEach((type, paths) -> {
+            for (String path : paths) {
+                accesses.add(new PathAccess(type, stageDirectory.resolve(path).normalize()));
+            }
+        });
+        return accesses;
+    }
+
+}
@@ -16,10 +16,12 @@
 package com.vivimice.datovn.stage;
 
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
 
 import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.build.BuildScopeService;
 import com.vivimice.datovn.profiler.UnitProfiler;
 import com.vivimice.datovn.spec.CompExecSpec;
 import com.vivimice.datovn.unit.UnitContext;
@@ -53,6 +55,11 @@ class UnitContextImpl implements UnitContext {
         return context.getStageWorkingDir();
     }
 
+    @Override
+    public List<String> getParams() {
+        return spec.getParams();
+    }
+
     @Override
     public void logMessage(MessageLevel level, String message, String loc) {
         String location = spec.getName();
@@ -78,4 +85,9 @@ class UnitContextImpl implements UnitContext {
         });
     }
 
-}
\ No newline at end of file
+    @Override
+    public <T extends BuildScopeService> T getBuildService(String key, Supplier<T> factory) {
+        return context.getBuildService(key, factory);
+    }
+
+}
@@ -15,17 +15,23 @@
  */
 package com.vivimice.datovn.stage.bootstrap;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vivimice.datovn.util.DateTimeUtils;
 
 public abstract class CommandBasedUnitDescriptor extends UnitDescriptor {
 
     private String revision;
     private Object command;
+    private Object timeout;
+
+    @JsonIgnore
+    private Long timeoutMillis;
 
     @JsonIgnore
     private String executable;
@@ -58,6 +64,54 @@ public abstract class CommandBasedUnitDescriptor extends UnitDescriptor {
 
         executable = cmd.get(0);
         args = List.copyOf(cmd.subList(1, cmd.size()));
+
+        if (timeout != null) {
+            timeoutMillis = parseTimeoutMillis(timeout);
+        }
+    }
+
+    /**
+     * Parses a timeout value, which is either a number in seconds, or a duration string 
+     * (see {@link DateTimeUtils#parseDuration(String)}).
+     * 
+     * @return timeout in milliseconds. Always positive, durations shorter than 1 millisecond are rejected.
+     */
+    static long parseTimeoutMillis(Object timeout) throws IllegalArgumentException {
+        assert timeout != null;
+
+        long millis;
+        if (timeout instanceof Number number) {
+            double seconds = number.doubleValue();
+            if (!(seconds > 0)) {
+                throw new IllegalArgumentException("'timeout' field must be positive.");
+            }
+            if (seconds * 1000 >= Long.MAX_VALUE) {
+                throw new IllegalArgumentException("'timeout' field is out of range: " + timeout);
+            }
+            millis = Math.round(seconds * 1000);
+        } else if (timeout instanceof String text) {
+            Duration duration;
+            try {
+                duration = DateTimeUtils.parseDuration(text);
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("'timeout' field is not a valid duration: " + text);
+            }
+            if (duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException("'timeout' field must be positive.");
+            }
+            try {
+                millis = duration.toMillis();
+            } catch (ArithmeticException ex) {
+                throw new IllegalArgumentException("'timeout' field is out of range: " + text);
+            }
+        } else {
+            throw new IllegalArgumentException("'timeout' field must be number of seconds or duration string.");
+        }
+
+        if (millis < 1) {
+            throw new IllegalArgumentException("'timeout' field must be at least 1 millisecond: " + timeout);
+        }
+        return millis;
     }
 
     public Object getCommand() {
@@ -88,6 +142,32 @@ public abstract class CommandBasedUnitDescriptor extends UnitDescriptor {
         this.args = args;
     }
 
+    /**
+     * "timeout" field of the unit. Optional, number of seconds or duration string.
+     * 
+     * @return the raw timeout value. Might be null.
+     */
+    public Object getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Object timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return timeout of the unit execution in milliseconds, resolved after mapping. Null if no timeout.
+     */
+    @JsonIgnore
+    public Long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    @JsonIgnore
+    public void setTimeoutMillis(Long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
     public String getRevision() {
         return revision;
     }
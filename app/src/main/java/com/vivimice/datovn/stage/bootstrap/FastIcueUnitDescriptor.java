@@ -16,12 +16,90 @@
 package com.vivimice.datovn.stage.bootstrap;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vivimice.datovn.icue.fast.FastIcueScope;
+import com.vivimice.datovn.icue.fast.FastIcueTransport;
 
 public class FastIcueUnitDescriptor extends CommandBasedUnitDescriptor {
 
+    private Integer poolSize;
+    private Integer concurrency;
+    private FastIcueScope scope;
+    private FastIcueTransport transport;
+    private String socket;
+
     @Override
     public void afterMapping(ObjectMapper mapper) throws IllegalArgumentException {
         super.afterMapping(mapper);
+
+        if (poolSize != null && poolSize < 1) {
+            throw new IllegalArgumentException("'poolSize' field in unit descriptor must be positive.");
+        }
+        if (concurrency != null && concurrency < 1) {
+            throw new IllegalArgumentException("'concurrency' field in unit descriptor must be positive.");
+        }
+        if (socket != null && transport == FastIcueTransport.STDIO) {
+            throw new IllegalArgumentException("'socket' field in unit descriptor requires 'socket' transport.");
+        }
+    }
+
+    /**
+     * "poolSize" field of the unit. Optional, max number of daemon instances to be started for 
+     * the command, defaults to 1.
+     */
+    public Integer getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(Integer poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * "concurrency" field of the unit. Optional, initial number of concurrent invocations sent to 
+     * each daemon instance, defaults to the number of available processors. The window is then 
+     * adjusted by the daemon's backpressure.
+     */
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * "scope" field of the unit. Optional, "stage" or "build", defaults to "stage".
+     */
+    public FastIcueScope getScope() {
+        return scope;
+    }
+
+    public void setScope(FastIcueScope scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * "transport" field of the unit. Optional, "stdio" or "socket", defaults to "socket" if 
+     * "socket" field is specified, otherwise "stdio".
+     */
+    public FastIcueTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(FastIcueTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * "socket" field of the unit. Optional, path of the Unix domain socket which the daemon 
+     * listens on. A daemon already listening on it is attached to instead of started.
+     */
+    public String getSocket() {
+        return socket;
+    }
+
+    public void setSocket(String socket) {
+        this.socket = socket;
     }
 
 }
@@ -16,12 +16,47 @@
 package com.vivimice.datovn.stage.bootstrap;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vivimice.datovn.icue.IcueActionsChannel;
 
 public class IcueUnitDescriptor extends CommandBasedUnitDescriptor {
 
+    private IcueActionsChannel actionsChannel;
+    private Boolean largeParamsInFileOnly;
+
     @Override
     public void afterMapping(ObjectMapper mapper) throws IllegalArgumentException {
         super.afterMapping(mapper);
     }
 
+    /**
+     * "actionsChannel" field of the unit. Optional, defaults to "file".
+     * 
+     * @return the channel through which the ICUE executable reports actions. Might be null.
+     */
+    public IcueActionsChannel getActionsChannel() {
+        return actionsChannel;
+    }
+
+    public void setActionsChannel(IcueActionsChannel actionsChannel) {
+        this.actionsChannel = actionsChannel;
+    }
+
+    /**
+     * "largeParamsInFileOnly" field of the unit. Optional, defaults to false. 
+     * 
+     * If params take more than 32 KiB in total, they are also passed in a params file, whose path 
+     * is in DATOVN_PARAMS_FILE environment variable. If this field is true, params larger than 
+     * 4 KiB are then only passed in the params file, not in DATOVN_PARAM_VALUE_&lt;i&gt;. Otherwise 
+     * they are only left out if exceeding the environment size limit of the system.
+     * 
+     * @return might be null.
+     */
+    public Boolean getLargeParamsInFileOnly() {
+        return largeParamsInFileOnly;
+    }
+
+    public void setLargeParamsInFileOnly(Boolean largeParamsInFileOnly) {
+        this.largeParamsInFileOnly = largeParamsInFileOnly;
+    }
+
 }
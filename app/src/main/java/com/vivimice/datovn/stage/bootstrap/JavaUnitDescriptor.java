@@ -0,0 +1,107 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.stage.bootstrap;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JavaUnitDescriptor extends UnitDescriptor {
+
+    private String revision;
+    private Object classpath;
+    private String provider;
+
+    @JsonIgnore
+    private List<String> classpathEntries;
+
+    @Override
+    public void afterMapping(ObjectMapper mapper) throws IllegalArgumentException {
+        super.afterMapping(mapper);
+
+        if (classpath == null) {
+            throw new IllegalArgumentException("Missing 'classpath' field in unit descriptor.");
+        }
+
+        List<String> entries;
+        try {
+            if (classpath instanceof Collection) {
+                entries = mapper.convertValue(classpath, new TypeReference<List<String>>() {});
+            } else {
+                entries = List.of(mapper.convertValue(classpath, String.class).split(":"));
+            }
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("'classpath' field in unit descriptor must be string or array of strings.");
+        }
+
+        entries = entries.stream().filter(e -> e != null && !e.isBlank()).toList();
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("'classpath' field in unit descriptor cannot be empty.");
+        }
+
+        classpathEntries = entries;
+    }
+
+    /**
+     * "classpath" field of the unit. Required, either a string of entries separated by ':', or 
+     * an array of entries. Entries are jars or directories, relative to the stage directory.
+     * 
+     * @return the raw classpath value.
+     */
+    public Object getClasspath() {
+        return classpath;
+    }
+
+    public void setClasspath(Object classpath) {
+        this.classpath = classpath;
+    }
+
+    @JsonIgnore
+    public List<String> getClasspathEntries() {
+        return classpathEntries;
+    }
+
+    @JsonIgnore
+    public void setClasspathEntries(List<String> classpathEntries) {
+        this.classpathEntries = classpathEntries;
+    }
+
+    /**
+     * "provider" field of the unit. Optional, fully qualified class name of the CompUnit 
+     * implementation, if the classpath provides more than one.
+     * 
+     * @return the provider class name. Might be null.
+     */
+    public String getProvider() {
+        return provider;
+    }
+
+    public void setProvider(String provider) {
+        this.provider = provider;
+    }
+
+    public String getRevision() {
+        return revision;
+    }
+
+    public void setRevision(String revision) {
+        this.revision = revision;
+    }
+
+}
@@ -70,6 +70,16 @@ public class StageBootstrapCompUnit implements CompUnit {
             return;
         }
 
+        Long defaultTimeoutMillis = null;
+        if (descriptor.getTimeout() != null) {
+            try {
+                defaultTimeoutMillis = CommandBasedUnitDescriptor.parseTimeoutMillis(descriptor.getTimeout());
+            } catch (IllegalArgumentException ex) {
+                recorder.recordError(ex.getMessage(), path.toString());
+                return;
+            }
+        }
+
         List<UnitDescriptor> units = descriptor.getUnits();
         if (units != null) {
             for (UnitDescriptor unit : descriptor.getUnits()) {
@@ -81,6 +91,10 @@ public class StageBootstrapCompUnit implements CompUnit {
                     continue;
                 }
 
+                if (unit instanceof CommandBasedUnitDescriptor commandUnit && commandUnit.getTimeoutMillis() == null) {
+                    commandUnit.setTimeoutMillis(defaultTimeoutMillis);
+                }
+
                 CompExecSpec spec = CompUnits.createSpec(unit);
                 if (spec != null) {
                     recorder.recordInfo("Scheduled unit: " + spec.getName());
@@ -23,6 +23,7 @@ import java.util.List;
 public class StageBootstrapDescriptor {
 
     private List<UnitDescriptor> units;
+    private Object timeout;
 
     /**
      * "units" section of stage.yml. It contains the list of unit descriptors.
@@ -39,4 +40,20 @@ public class StageBootstrapDescriptor {
         this.units = units;
     }
 
+    /**
+     * "timeout" section of stage.yml. Default timeout of command based units, in number of 
+     * seconds or duration string. Units with their own "timeout" field override it.
+     * 
+     * This section is optional. If not specified, units has no timeout by default.
+     * 
+     * @return the raw timeout value. Might be null.
+     */
+    public Object getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Object timeout) {
+        this.timeout = timeout;
+    }
+
 }
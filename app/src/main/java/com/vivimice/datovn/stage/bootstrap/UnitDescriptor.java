@@ -34,6 +34,7 @@ import com.vivimice.datovn.spec.CompExecSpec;
 @JsonSubTypes({
     @JsonSubTypes.Type(value = IcueUnitDescriptor.class, name = "icue"),
     @JsonSubTypes.Type(value = FastIcueUnitDescriptor.class, name = "fast-icue"),
+    @JsonSubTypes.Type(value = JavaUnitDescriptor.class, name = "java"),
 })
 public class UnitDescriptor {
 
@@ -15,6 +15,7 @@
  */
 package com.vivimice.datovn.unit;
 
+import java.util.List;
 import java.util.function.Consumer;
 
 import com.vivimice.datovn.action.CompAction;
@@ -36,15 +37,36 @@ import com.vivimice.datovn.spec.CompExecSpec;
 public class CompActionRecorder {
 
     private final Consumer<CompAction.Sketch<?>> consumer;
+    private final Consumer<List<? extends CompAction.Sketch<?>>> batchConsumer;
 
     public CompActionRecorder(Consumer<CompAction.Sketch<?>> consumer) {
+        this(consumer, sketches -> sketches.forEach(consumer));
+    }
+
+    /**
+     * @param consumer consumer of single sketch
+     * @param batchConsumer consumer of a batch of sketches, which should be equivalent to feeding 
+     *     sketches one by one to the consumer, but allows consumer to do it more efficiently.
+     */
+    public CompActionRecorder(Consumer<CompAction.Sketch<?>> consumer, Consumer<List<? extends CompAction.Sketch<?>>> batchConsumer) {
         assert consumer != null;
+        assert batchConsumer != null;
         this.consumer = consumer;
+        this.batchConsumer = batchConsumer;
     }
 
     public void record(CompAction.Sketch<?> sketch) {
         consumer.accept(sketch);
     }
+
+    /**
+     * Records a batch of sketches, in order.
+     */
+    public void recordAll(List<? extends CompAction.Sketch<?>> sketches) {
+        if (!sketches.isEmpty()) {
+            batchConsumer.accept(sketches);
+        }
+    }
     
     public void recordCheckFileExists(String path) {
         recordFileAccess(path, FileAccessMode.CHECK_EXISTENCE);
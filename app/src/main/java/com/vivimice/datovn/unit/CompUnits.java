@@ -20,9 +20,12 @@ import com.vivimice.datovn.icue.IcueSpec;
 import com.vivimice.datovn.icue.IcueUnit;
 import com.vivimice.datovn.icue.fast.FastIcueSpec;
 import com.vivimice.datovn.icue.fast.FastIcueUnit;
+import com.vivimice.datovn.plugin.JavaSpec;
+import com.vivimice.datovn.plugin.JavaUnit;
 import com.vivimice.datovn.spec.CompExecSpec;
 import com.vivimice.datovn.stage.bootstrap.FastIcueUnitDescriptor;
 import com.vivimice.datovn.stage.bootstrap.IcueUnitDescriptor;
+import com.vivimice.datovn.stage.bootstrap.JavaUnitDescriptor;
 import com.vivimice.datovn.stage.bootstrap.StageBootstrapCompUnit;
 import com.vivimice.datovn.stage.bootstrap.StageBootstrapSpec;
 import com.vivimice.datovn.stage.bootstrap.UnitDescriptor;
@@ -39,6 +42,7 @@ public class CompUnits {
         return switch (spec) {
             case IcueSpec icueSpec -> new IcueUnit(icueSpec);
             case FastIcueSpec fastIcueSpec -> new FastIcueUnit(fastIcueSpec);
+            case JavaSpec javaSpec -> new JavaUnit(javaSpec);
             case StageBootstrapSpec stageBootstrapSpec -> new StageBootstrapCompUnit();
             case null -> throw new NullPointerException("specification can't be null");
             default -> throw new DatovnRuntimeException("Unknown computation specification: " + spec.getName());
@@ -59,13 +63,29 @@ public class CompUnits {
                 unit.getRevision(),
                 unit.getExecutable(),
                 unit.getArgs(), 
-                unit.getParams()
+                unit.getParams(),
+                unit.getActionsChannel(),
+                unit.getTimeoutMillis(),
+                unit.getLargeParamsInFileOnly()
             );
             case FastIcueUnitDescriptor unit -> new FastIcueSpec(
                 unit.getName(), 
                 unit.getRevision(),
                 unit.getExecutable(),
                 unit.getArgs(), 
+                unit.getParams(),
+                unit.getTimeoutMillis(),
+                unit.getPoolSize(),
+                unit.getConcurrency(),
+                unit.getScope(),
+                unit.getTransport(),
+                unit.getSocket()
+            );
+            case JavaUnitDescriptor unit -> new JavaSpec(
+                unit.getName(), 
+                unit.getRevision(),
+                unit.getClasspathEntries(),
+                unit.getProvider(),
                 unit.getParams()
             );
             default -> null;
@@ -16,9 +16,11 @@
 package com.vivimice.datovn.unit;
 
 import java.nio.file.Path;
+import java.util.List;
 import java.util.function.Supplier;
 
 import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.build.BuildScopeService;
 import com.vivimice.datovn.profiler.UnitProfiler;
 import com.vivimice.datovn.stage.StageScopeService;
 
@@ -37,6 +39,11 @@ public interface UnitContext {
      */
     Path getWorkingDirectory();
 
+    /**
+     * Get the parameters of current CompUnit's execution.
+     */
+    List<String> getParams();
+
     /**
      * Log a message with specified level.
      */
@@ -52,4 +59,10 @@ public interface UnitContext {
      */
     <T extends StageScopeService> T getStageService(String key, Supplier<T> factory);
 
+    /**
+     * Get a build scope service, which is shared by all stages. If not exists, create one using 
+     * the supplier.
+     */
+    <T extends BuildScopeService> T getBuildService(String key, Supplier<T> factory);
+
 }
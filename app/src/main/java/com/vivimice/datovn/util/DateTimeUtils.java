@@ -15,12 +15,18 @@
  */
 package com.vivimice.datovn.util;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class DateTimeUtils {
 
+    private static final Pattern SIMPLE_DURATION_PATTERN = Pattern.compile("(\\d+)(ms|s|m|h)");
+
     /**
      * Converts a timestamp in milliseconds since the epoch to an ISO 8601 formatted date-time string.
      */
@@ -30,4 +36,42 @@ public class DateTimeUtils {
         return instant.atZone(ZoneId.systemDefault()).format(formatter);
     }
 
+    /**
+     * Parses a duration string. Both simple form (e.g. "500ms", "30s", "5m", "1h") and ISO 8601 
+     * form (e.g. "PT1M30S") are supported.
+     * 
+     * @throws IllegalArgumentException if the string is not a valid duration
+     */
+    public static Duration parseDuration(String text) throws IllegalArgumentException {
+        assert text != null;
+        text = text.trim();
+
+        Matcher m = SIMPLE_DURATION_PATTERN.matcher(text);
+        if (m.matches()) {
+            long amount;
+            try {
+                amount = Long.parseLong(m.group(1));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Duration out of range: " + text);
+            }
+            try {
+                return switch (m.group(2)) {
+                    case "ms" -> Duration.ofMillis(amount);
+                    case "s" -> Duration.ofSeconds(amount);
+                    case "m" -> Duration.ofMinutes(amount);
+                    case "h" -> Duration.ofHours(amount);
+                    default -> throw new IllegalStateException("unreachable");
+                };
+            } catch (ArithmeticException ex) {
+                throw new IllegalArgumentException("Duration out of range: " + text);
+            }
+        }
+
+        try {
+            return Duration.parse(text);
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Illegal duration: " + text);
+        }
+    }
+
 }
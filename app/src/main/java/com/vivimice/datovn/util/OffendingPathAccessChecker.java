@@ -16,14 +16,17 @@
 package com.vivimice.datovn.util;
 
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.StampedLock;
 
 import static com.vivimice.datovn.util.OperationType.*;
 
@@ -122,32 +125,173 @@ import static com.vivimice.datovn.util.OperationType.*;
  * 
  * # THREAD SAFTY
  * 
- * This class is NOT thread-safe.
+ * This class is thread-safe. Each tree node has its own lock. An operation on path P read-locks every node prefixing P 
+ * from the root down, then write-locks the node of P itself, and holds them all while checking and recording. Since 
+ * operations can only offend each other when one path prefixes (or equals) the other, any two possibly colliding 
+ * operations contend for the same node lock in conflicting modes, and are serialized. Whereas operations on unrelated 
+ * paths only share read locks of common prefixes, and are checked in parallel. Locks are always taken from the root 
+ * downwards, so there is no deadlock.
+ * 
+ * # MEMORY
+ * 
+ * The tree is keyed by single path segments, which are interned in a dictionary of the checker, and each path is split 
+ * into segments once per operation. Nodes don't hold their paths, and operation lists are only allocated once 
+ * something is recorded. Recorded operations are (type, owner) pairs shared by all paths, and recording the same pair 
+ * on a path twice is a no-op, since it can't change any result. {@link PathAccessOperation}s are only built for 
+ * reporting offending operations.
+ * 
+ * # SUBTREE SUMMARY
+ * 
+ * Each node keeps a summary of operations recorded in its subtree (including itself): a bitmask of operation types, and 
+ * the owner if all of them are from a single owner. When checking children of a path, a subtree is skipped as a whole 
+ * if it has no type offending the new operation, or only has operations of the same owner. So listing or removing a 
+ * directory with lots of descendants doesn't cost a full traversal. Summaries only grow, and are updated from the 
+ * node of the path up to the root while all locks are held. Since a node read-locked by an updater is an ancestor of 
+ * every node it updates, the summaries are complete whenever a node is write-locked for checking its children.
  */
 public class OffendingPathAccessChecker<T> {
 
     private static class TreeNode<T> {
-        final Map<Path, TreeNode<T>> children = new HashMap<>();
-        final List<PathAccessOperation<T>> operations = new ArrayList<>();
-        final List<PathAccessOperation<T>> prefixOperations = new ArrayList<>();
-        final Path path;
+        /**
+         * Subtree owner of a subtree with operations from more than one owner.
+         */
+        static final Object MIXED_OWNERS = new Object();
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<TreeNode> SUBTREE_TYPES = 
+                AtomicIntegerFieldUpdater.newUpdater(TreeNode.class, "subtreeTypes");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<TreeNode, Object> SUBTREE_OWNER = 
+                AtomicReferenceFieldUpdater.newUpdater(TreeNode.class, Object.class, "subtreeOwner");
+
+        final StampedLock lock = new StampedLock();
+        final TreeNode<T> parent; // null for root
+        final String name; // interned segment, null for root
+        volatile Map<String, TreeNode<T>> children; // null if there's no child yet
+        List<Operation<T>> operations; // guarded by lock, null if nothing recorded
+        List<Operation<T>> prefixOperations; // guarded by lock, null if nothing recorded
+        volatile int subtreeTypes; // bitmask of operation types recorded in the subtree
+        volatile Object subtreeOwner; // the only owner in the subtree, MIXED_OWNERS, or null if empty
+
+        TreeNode(TreeNode<T> parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
 
-        TreeNode(Path path) {
-            this.path = path;
+        TreeNode<T> getOrCreateChild(String name) {
+            Map<String, TreeNode<T>> map = children;
+            if (map == null) {
+                synchronized (this) {
+                    map = children;
+                    if (map == null) {
+                        map = new ConcurrentHashMap<>(4);
+                        children = map;
+                    }
+                }
+            }
+            TreeNode<T> child = map.get(name);
+            if (child == null) {
+                child = map.computeIfAbsent(name, n -> new TreeNode<>(this, n));
+            }
+            return child;
         }
 
-        TreeNode<T> copy() {
-            TreeNode<T> copy = new TreeNode<>(path);
-            copy.operations.addAll(operations);
-            copy.prefixOperations.addAll(prefixOperations);
+        /**
+         * Adds an operation to the subtree summary.
+         * 
+         * @return false if the summary covers it already
+         */
+        boolean summarize(Operation<T> op) {
+            boolean changed = false;
+            int typeBit = 1 << op.type().ordinal();
+            int types = subtreeTypes;
+            while ((types & typeBit) == 0) {
+                if (SUBTREE_TYPES.compareAndSet(this, types, types | typeBit)) {
+                    changed = true;
+                    break;
+                }
+                types = subtreeTypes;
+            }
+
+            Object owner = subtreeOwner;
+            while (owner != MIXED_OWNERS && !Objects.equals(owner, op.owner())) {
+                if (SUBTREE_OWNER.compareAndSet(this, owner, (owner == null) ? op.owner() : MIXED_OWNERS)) {
+                    changed = true;
+                    break;
+                }
+                owner = subtreeOwner;
+            }
+            return changed;
+        }
+
+        /**
+         * Whether the subtree might have an operation of the given types from other owners.
+         */
+        boolean mightOffend(int types, Object owner) {
+            if ((subtreeTypes & types) == 0) {
+                return false;
+            }
+            Object summaryOwner = subtreeOwner;
+            return summaryOwner == MIXED_OWNERS || !Objects.equals(summaryOwner, owner);
+        }
+
+        /**
+         * Path of the node, under the given root.
+         */
+        Path path(Path root) {
+            return (parent == null) ? root : parent.path(root).resolve(name);
+        }
+
+        /**
+         * Deep copy of the subtree. Caller must make sure the subtree is not modified meanwhile.
+         */
+        TreeNode<T> copy(TreeNode<T> parent) {
+            TreeNode<T> copy = new TreeNode<>(parent, name);
+            copy.operations = (operations == null) ? null : new ArrayList<>(operations);
+            copy.prefixOperations = (prefixOperations == null) ? null : new ArrayList<>(prefixOperations);
+            copy.subtreeTypes = subtreeTypes;
+            copy.subtreeOwner = subtreeOwner;
+            Map<String, TreeNode<T>> map = children;
+            if (map != null) {
+                Map<String, TreeNode<T>> copyChildren = new ConcurrentHashMap<>(Math.max(4, map.size()));
+                map.forEach((n, child) -> copyChildren.put(n, child.copy(copy)));
+                copy.children = copyChildren;
+            }
             return copy;
         }
     }
 
+    /**
+     * A recorded operation. Instances are shared by all paths, one per owner and type.
+     */
+    private record Operation<T>(OperationType type, T owner) {
+    }
+
+    /**
+     * An offending operation found, recorded on the node.
+     */
+    private record Offence<T>(TreeNode<T> node, Operation<T> op) {
+    }
+
+    private static <T> List<Operation<T>> add(List<Operation<T>> operations, Operation<T> op) {
+        if (operations == null) {
+            operations = new ArrayList<>(2);
+        } else {
+            for (Operation<T> recorded : operations) {
+                if (recorded == op) {
+                    return operations;
+                }
+            }
+        }
+        operations.add(op);
+        return operations;
+    }
+
     private static final int NUM_OF_OPERATIONS = OperationType.values().length;
     private static final boolean[][] selfMatrix = new boolean[NUM_OF_OPERATIONS][];
     private static final boolean[][] prefixMatrix = new boolean[NUM_OF_OPERATIONS][];
     private static final boolean[][] childMatrix = new boolean[NUM_OF_OPERATIONS][];
+    private static final int[] childMasks = new int[NUM_OF_OPERATIONS]; // childMatrix rows as bitmasks
     static {
         define(selfMatrix).on(DIR_CREATE).offendedBy(
             DIR_CREATE, DIR_LIST, PATH_DELETE, PATH_CHECK, FILE_CREATE, CONTENT_READ, CONTENT_WRITE
@@ -221,6 +365,16 @@ public class OffendingPathAccessChecker<T> {
             DIR_CREATE, DIR_LIST, PATH_DELETE, PATH_CHECK, FILE_CREATE, CONTENT_READ, CONTENT_WRITE
         );
 
+
+        /////////////////////////////////////////
+
+        for (int i = 0; i < NUM_OF_OPERATIONS; i++) {
+            if (childMatrix[i] != null) {
+                for (int j = 0; j < NUM_OF_OPERATIONS; j++) {
+                    childMasks[i] |= childMatrix[i][j] ? (1 << j) : 0;
+                }
+            }
+        }
     }
 
     private static interface OperationCollisions {
@@ -245,9 +399,13 @@ public class OffendingPathAccessChecker<T> {
     }
 
     private final TreeNode<T> root;
+    private final Map<String, String> segments; // interned path segments
+    private final Map<T, Operation<T>[]> operationsByOwner; // indexed by operation type
 
     public OffendingPathAccessChecker() {
-        this.root = new TreeNode<>(null);
+        this.root = new TreeNode<>(null, null);
+        this.segments = new ConcurrentHashMap<>();
+        this.operationsByOwner = new ConcurrentHashMap<>();
     }
 
     /**
@@ -255,108 +413,308 @@ public class OffendingPathAccessChecker<T> {
      * @param source The source to copy from.
      */
     public OffendingPathAccessChecker(OffendingPathAccessChecker<T> source) {
-        this.root = source.root.copy();
+        // every operation read-locks the root, so it's excluded while copying
+        long stamp = source.root.lock.writeLock();
+        try {
+            this.root = source.root.copy(null);
+            this.segments = new ConcurrentHashMap<>(source.segments);
+            this.operationsByOwner = new ConcurrentHashMap<>(source.operationsByOwner);
+        } finally {
+            source.root.lock.unlockWrite(stamp);
+        }
     }
 
-    private PathAccessOperation<T> isOffending(PathAccessOperation<T> x) {
-        PathAccessOperation<T> offendingOp = null;
-
-        // traverse the tree to find any conflicting operations
-        Path path = x.path();
-        int nameCount = path.getNameCount();
-        TreeNode<T> node = root;
-        for (int i = 0; i < nameCount; i++) {
-            Path p = path.subpath(0, i + 1);
-            node = node.children.get(p);
-            if (node == null) {
-                break;
+    private Operation<T> operation(OperationType type, T owner) {
+        Operation<T>[] operations = operationsByOwner.computeIfAbsent(owner, o -> {
+            Operation<T>[] array = newOperationArray(NUM_OF_OPERATIONS);
+            for (OperationType t : OperationType.values()) {
+                array[t.ordinal()] = new Operation<>(t, o);
             }
+            return array;
+        });
+        return operations[type.ordinal()];
+    }
 
-            if (i < nameCount - 1) {
-                // This is parent of x.path(), so we lookup
-                // lookup for any conflicting operations that are not from the same owner
-                offendingOp = findAnyOffendingOperation(x, node.prefixOperations.stream(), prefixMatrix);
-                if (offendingOp != null) {
-                    return offendingOp;
-                }
-            } else {
-                // operation on current node, we check path itself
-                offendingOp = findAnyOffendingOperation(x, node.operations.stream(), selfMatrix);
-                if (offendingOp != null) {
-                    return offendingOp;
-                }
+    @SuppressWarnings("unchecked")
+    private static <T> Operation<T>[] newOperationArray(int length) {
+        return (Operation<T>[]) new Operation<?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> TreeNode<T>[] newNodeArray(int length) {
+        return (TreeNode<T>[]) new TreeNode<?>[length];
+    }
+
+    /**
+     * Splits the path into interned segments.
+     */
+    private String[] split(Path path) {
+        String[] names = new String[path.getNameCount()];
+        for (int i = 0; i < names.length; i++) {
+            String name = path.getName(i).toString();
+            String interned = segments.putIfAbsent(name, name);
+            names[i] = (interned != null) ? interned : name;
+        }
+        return names;
+    }
+
+    /**
+     * Lookup any offending operation of x. 
+     * 
+     * @param nodes nodes from the root to the node of x's path (with nameCount names), all locked by the caller
+     */
+    private Offence<T> isOffending(Operation<T> x, TreeNode<T>[] nodes, int nameCount) {
+        Operation<T> offendingOp;
+
+        // parents of x's path, lookup for any conflicting operations that are not from the same owner
+        for (int i = 1; i < nameCount; i++) {
+            offendingOp = findAnyOffendingOperation(x, nodes[i].prefixOperations, prefixMatrix);
+            if (offendingOp != null) {
+                return new Offence<>(nodes[i], offendingOp);
             }
         }
 
-        if (node != null) {
-            // we have children to lookup
-            Deque<TreeNode<T>> children = new LinkedList<>(node.children.values());
+        // operation on current node, we check path itself
+        TreeNode<T> node = nodes[nameCount];
+        if (nameCount > 0) {
+            offendingOp = findAnyOffendingOperation(x, node.operations, selfMatrix);
+            if (offendingOp != null) {
+                return new Offence<>(node, offendingOp);
+            }
+        }
+
+        int childMask = childMasks[x.type().ordinal()];
+        if (childMask != 0 && node.children != null) {
+            // we have children to lookup. They're not modified meanwhile, since operations on them 
+            // must read-lock the current node, which is write-locked.
+            Deque<TreeNode<T>> children = new ArrayDeque<>();
+            addChildrenMightOffend(children, node, childMask, x.owner());
             while (!children.isEmpty()) {
                 TreeNode<T> child = children.removeFirst();
                 // lookup for any conflicting operations that are not from the same owner
-                offendingOp = findAnyOffendingOperation(x, child.operations.stream(), childMatrix);
+                offendingOp = findAnyOffendingOperation(x, child.operations, childMatrix);
                 if (offendingOp != null) {
-                    return offendingOp;
+                    return new Offence<>(child, offendingOp);
                 }
                 
-                children.addAll(child.children.values());
+                addChildrenMightOffend(children, child, childMask, x.owner());
             }
         }
         
         return null;
     }
 
-    private PathAccessOperation<T> findAnyOffendingOperation(
-        PathAccessOperation<T> x, 
-        Stream<PathAccessOperation<T>> stream, 
+    private static <T> void addChildrenMightOffend(Deque<TreeNode<T>> deque, TreeNode<T> node, int types, T owner) {
+        Map<String, TreeNode<T>> children = node.children;
+        if (children != null) {
+            for (TreeNode<T> child : children.values()) {
+                // skip subtrees without any offending operation
+                if (child.mightOffend(types, owner)) {
+                    deque.addLast(child);
+                }
+            }
+        }
+    }
+
+    private Operation<T> findAnyOffendingOperation(
+        Operation<T> x, 
+        List<Operation<T>> operations, 
         boolean[][] collisionMatrix
     ) {
-        return stream
-            .filter(op -> !Objects.equals(op.owner(), x.owner())) 
-            .filter(op -> collisionMatrix[x.type().ordinal()][op.type().ordinal()])
-            .findAny()
-            .orElse(null);
+        if (operations == null) {
+            return null;
+        }
+        boolean[] row = collisionMatrix[x.type().ordinal()];
+        for (Operation<T> op : operations) {
+            if (row[op.type().ordinal()] && !Objects.equals(op.owner(), x.owner())) {
+                return op;
+            }
+        }
+        return null;
     }
 
-    private PathAccessOperation<T> onPathAccess(PathAccessOperation<T> op) {
-        assert op.path().isAbsolute() : "Not absolute: " + op.path();
-        assert op.owner() != null : "Owner must not be null";
-        assert op.reason() != null : "Reason must not be null";
+    /**
+     * Check offending operations upon a successful path access.
+     * 
+     * Return the offending operation if any. Otherwise, return null.
+     */
+    public PathAccessOperation<T> onPathAccess(OperationType type, Path path, T owner) {
+        assert path.isAbsolute() : "Not absolute: " + path;
+        assert owner != null : "Owner must not be null";
+
+        Operation<T> op = operation(type, owner);
+        String[] names = split(path);
+        int nameCount = names.length;
+        TreeNode<T>[] nodes = newNodeArray(nameCount + 1);
+        long[] stamps = new long[nameCount + 1];
+        int locked = 0;
+        try {
+            // lock from the root down: parents for read, the path itself for write
+            TreeNode<T> node = root;
+            for (int i = 0; i <= nameCount; i++) {
+                if (i > 0) {
+                    node = node.getOrCreateChild(names[i - 1]);
+                }
+                nodes[i] = node;
+                stamps[i] = (i == nameCount) ? node.lock.writeLock() : node.lock.readLock();
+                locked++;
+            }
 
-        // check collision
-        PathAccessOperation<T> offendingOp = this.isOffending(op);
-        if (offendingOp != null) {
-            return offendingOp; 
+            return checkAndRecord(op, nodes, nameCount, path.getRoot());
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                nodes[i].lock.unlock(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * An offending operation found by {@link OffendingPathAccessChecker#onPathAccesses}.
+     * 
+     * @param index index of the offended access in the batch
+     * @param operation the offending operation
+     */
+    public record BatchOffence<T>(int index, PathAccessOperation<T> operation) {
+    }
+
+    /**
+     * Check offending operations upon a batch of successful path accesses of the same owner, e.g. all accesses of an 
+     * up-to-date unit.
+     * 
+     * Accesses are sorted by path, and checked and recorded in one pass. Locks of common prefixes are kept from one 
+     * path to the next, so each prefix is traversed and locked once for the whole batch rather than once per access. 
+     * Since operations of the same owner never offend each other, the result doesn't depend on the order, except 
+     * that once an offending operation is found, the rest of the batch (in path order) is not recorded.
+     * 
+     * Return the first offence found. Otherwise, return null.
+     */
+    public BatchOffence<T> onPathAccesses(List<PathAccess> accesses, T owner) {
+        assert owner != null : "Owner must not be null";
+
+        int size = accesses.size();
+        String[][] names = new String[size][];
+        Integer[] order = new Integer[size];
+        int maxNameCount = 0;
+        for (int i = 0; i < size; i++) {
+            Path path = accesses.get(i).path();
+            assert path.isAbsolute() : "Not absolute: " + path;
+            names[i] = split(path);
+            order[i] = i;
+            maxNameCount = Math.max(maxNameCount, names[i].length);
         }
+        // prefixes before their descendants, and descendants of a path are contiguous (stable for equal paths)
+        Arrays.sort(order, (a, b) -> Arrays.compare(names[a], names[b]));
+
+        // nodes[0, locked) are locked, all for read but the last one, which is the path of the last access
+        TreeNode<T>[] nodes = newNodeArray(maxNameCount + 1);
+        long[] stamps = new long[maxNameCount + 1];
+        int locked = 0;
+        String[] lockedNames = null;
+        try {
+            for (int index : order) {
+                String[] path = names[index];
+                int nameCount = path.length;
+
+                if (locked == 0 || nameCount != locked - 1 || Arrays.compare(path, lockedNames) != 0) {
+                    // number of common leading names with the locked path
+                    int common = 0;
+                    if (locked > 0) {
+                        int max = Math.min(locked - 1, nameCount);
+                        while (common < max && path[common] == lockedNames[common]) {
+                            common++;
+                        }
+                    }
+
+                    // release nodes beyond the common prefix, and downgrade the last path to read if it's a prefix
+                    assert locked == 0 || common < nameCount : "prefix sorted after its descendant";
+                    int keep = (locked == 0) ? 0 : common + 1;
+                    if (locked > keep) {
+                        while (locked > keep) {
+                            locked--;
+                            nodes[locked].lock.unlock(stamps[locked]);
+                        }
+                    } else if (locked > 0) {
+                        stamps[locked - 1] = nodes[locked - 1].lock.tryConvertToReadLock(stamps[locked - 1]);
+                    }
+
+                    // lock the rest from the common prefix down
+                    for (int i = locked; i <= nameCount; i++) {
+                        TreeNode<T> node = (i == 0) ? root : nodes[i - 1].getOrCreateChild(path[i - 1]);
+                        nodes[i] = node;
+                        stamps[i] = (i == nameCount) ? node.lock.writeLock() : node.lock.readLock();
+                        locked++;
+                    }
+                    lockedNames = path;
+                }
 
-        OperationType type = op.type();
-        Path path = op.path();
-        TreeNode<T> node = root;
-        int nameCount = path.getNameCount();
-        for (int i = 0; i < nameCount; i++) {
-            Path p = path.subpath(0, i + 1);
-            node = node.children.computeIfAbsent(p, TreeNode::new);
-            if (i == nameCount - 1) {
-                // path itself
-                node.operations.add(op);
-                // prefix operations for delete and list operations
-                if (type == PATH_DELETE || type == DIR_LIST) {
-                    node.prefixOperations.add(op);
+                PathAccess access = accesses.get(index);
+                PathAccessOperation<T> offendingOp = checkAndRecord(operation(access.type(), owner), nodes, nameCount, access.path().getRoot());
+                if (offendingOp != null) {
+                    return new BatchOffence<>(index, offendingOp);
                 }
             }
+            return null;
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                nodes[i].lock.unlock(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks the operation, and records it if not offending.
+     * 
+     * @param nodes nodes from the root to the node of op's path (with nameCount names). The last one must be 
+     *     write-locked, and the others read-locked by the caller.
+     * @param root root of op's path
+     * @return offending operation, or null if recorded
+     */
+    private PathAccessOperation<T> checkAndRecord(Operation<T> op, TreeNode<T>[] nodes, int nameCount, Path root) {
+        // check collision
+        Offence<T> offence = isOffending(op, nodes, nameCount);
+        if (offence != null) {
+            Path offendingPath = offence.node().path(root);
+            OperationType offendingType = offence.op().type();
+            return new PathAccessOperation<>(offendingType, offendingPath, offence.op().owner(), reason(offendingType, offendingPath));
         }
 
+        if (nameCount > 0) {
+            TreeNode<T> node = nodes[nameCount];
+            // path itself
+            node.operations = add(node.operations, op);
+            // prefix operations for delete and list operations
+            if (op.type() == PATH_DELETE || op.type() == DIR_LIST) {
+                node.prefixOperations = add(node.prefixOperations, op);
+            }
+            // summaries of ancestors cover those of descendants, once all updates are done
+            for (int i = nameCount; i > 0; i--) {
+                if (!nodes[i].summarize(op)) {
+                    break;
+                }
+            }
+        }
         return null;
     }
 
+    private static String reason(OperationType type, Path p) {
+        return switch (type) {
+            case DIR_CREATE -> "directory creation at " + p;
+            case DIR_LIST -> "directory listing at " + p;
+            case PATH_DELETE -> "directory removal at " + p;
+            case PATH_CHECK -> "existence checking at " + p;
+            case FILE_CREATE -> "file creation at " + p;
+            case CONTENT_READ -> "file read at " + p;
+            case CONTENT_WRITE -> "file write at " + p;
+        };
+    }
+
     /**
      * Check offending operations upon successful directory creation. 
      * 
      * Return the offending operation if any. Otherwise, return null.
      */
     public PathAccessOperation<T> onDirectoryCreation(Path p, T owner) {
-        String reason = "directory creation at " + p;
-        return onPathAccess(new PathAccessOperation<T>(DIR_CREATE, p, owner, reason));
+        return onPathAccess(DIR_CREATE, p, owner);
     }
 
     /**
@@ -365,8 +723,7 @@ public class OffendingPathAccessChecker<T> {
      * Return the offending operation if any. Otherwise, return null.
      */
     public PathAccessOperation<T> onDirectoryListing(Path p, T owner) {
-        String reason = "directory listing at " + p;
-        return onPathAccess(new PathAccessOperation<T>(DIR_LIST, p, owner, reason));
+        return onPathAccess(DIR_LIST, p, owner);
     }
 
     /**
@@ -375,8 +732,7 @@ public class OffendingPathAccessChecker<T> {
      * Return the offending operation if any. Otherwise, return null.
      */
     public PathAccessOperation<T> onPathRemoval(Path p, T owner) {
-        String reason = "directory removal at " + p;
-        return onPathAccess(new PathAccessOperation<T>(PATH_DELETE, p, owner, reason));
+        return onPathAccess(PATH_DELETE, p, owner);
     }
 
     /**
@@ -385,8 +741,7 @@ public class OffendingPathAccessChecker<T> {
      * Return the offending operation if any. Otherwise, return null.
      */
     public PathAccessOperation<T> onCheckExistence(Path p, T owner) {
-        String reason = "existence checking at " + p;
-        return onPathAccess(new PathAccessOperation<T>(PATH_CHECK, p, owner, reason));
+        return onPathAccess(PATH_CHECK, p, owner);
     }
 
     /**
@@ -395,8 +750,7 @@ public class OffendingPathAccessChecker<T> {
      * Return the offending operation if any. Otherwise, return null.
      */
     public PathAccessOperation<T> onFileCreation(Path p, T owner) {
-        String reason = "file creation at " + p;
-        return onPathAccess(new PathAccessOperation<T>(FILE_CREATE, p, owner, reason));
+        return onPathAccess(FILE_CREATE, p, owner);
     }
 
     /**
@@ -405,8 +759,7 @@ public class OffendingPathAccessChecker<T> {
      * Return the offending operation if any. Otherwise, return null.
      */
     public PathAccessOperation<T> onFileRead(Path p, T owner) {
-        String reason = "file read at " + p;
-        return onPathAccess(new PathAccessOperation<T>(CONTENT_READ, p, owner, reason));
+        return onPathAccess(CONTENT_READ, p, owner);
     }
 
         /**
@@ -415,8 +768,7 @@ public class OffendingPathAccessChecker<T> {
      * Return the offending operation if any. Otherwise, return null.
      */
     public PathAccessOperation<T> onFileWrite(Path p, T owner) {
-        String reason = "file write at " + p;
-        return onPathAccess(new PathAccessOperation<T>(CONTENT_WRITE, p, owner, reason));
+        return onPathAccess(CONTENT_WRITE, p, owner);
     }
 
 }
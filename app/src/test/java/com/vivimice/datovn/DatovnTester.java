@@ -25,6 +25,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitResult;
@@ -43,6 +44,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +55,7 @@ import com.vivimice.datovn.build.BuildContext;
 import com.vivimice.datovn.build.CompBuild;
 import com.vivimice.datovn.profiler.BuildProfiler;
 import com.vivimice.datovn.profiler.ProfileEvent;
+import com.vivimice.datovn.unit.CompUnit;
 
 import ch.qos.logback.classic.Level;
 
@@ -171,6 +176,26 @@ public class DatovnTester {
             return DatovnTester.this;
         }
 
+        /**
+         * Compiles Java sources under another workspace path into the target directory, against 
+         * the classes of datovn.
+         */
+        public DatovnTester byCompilingJavaSources(String sourceWorkspacePath) throws IOException, URISyntaxException {
+            List<String> args = new ArrayList<>();
+            args.add("-d");
+            args.add(target.toString());
+            args.add("-cp");
+            args.add(Path.of(CompUnit.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+            try (var files = Files.walk(workingDirectory.resolve(sourceWorkspacePath))) {
+                files.filter(p -> p.toString().endsWith(".java")).forEach(p -> args.add(p.toString()));
+            }
+
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            assertNotNull(compiler, "Java compiler not available");
+            assertEquals(0, compiler.run(null, null, null, args.toArray(String[]::new)), "Failed to compile: " + sourceWorkspacePath);
+            return DatovnTester.this;
+        }
+
     }
 
     public class ResultChecker {
@@ -207,6 +232,16 @@ public class DatovnTester {
             return this;
         }
 
+        /**
+         * Asserts that no more messages are reported within the given time after the build.
+         */
+        public ResultChecker assertNoMoreMessagesWithin(long millis) throws InterruptedException {
+            int before = buildContext.messageCounter.get();
+            Thread.sleep(millis);
+            assertEquals(before, buildContext.messageCounter.get(), "messages reported after build finished");
+            return this;
+        }
+
         public ResultChecker assertNoEvent(String name) {
             boolean found = buildContext.events.stream().anyMatch(
                 event -> event.name().equals(name));
@@ -249,6 +284,7 @@ public class DatovnTester {
         private final List<ProfileEvent> events = new ArrayList<>();
         private final AtomicInteger errorCounter = new AtomicInteger(0);
         private final AtomicInteger warningCounter = new AtomicInteger(0);
+        private final AtomicInteger messageCounter = new AtomicInteger(0);
         private final Map<MessageLevel, List<String>> messages = new ConcurrentHashMap<>();
         private final BuildProfiler profiler = new BuildProfiler(events::add);
 
@@ -283,6 +319,7 @@ public class DatovnTester {
             synchronized (levelMessages) {
                 levelMessages.add(message);
             }
+            messageCounter.incrementAndGet();
             
             if (level == FATAL || level == ERROR) {
                 errorCounter.incrementAndGet();
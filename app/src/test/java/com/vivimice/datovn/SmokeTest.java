@@ -110,6 +110,40 @@ public class SmokeTest {
             .assertHasMessage(INFO, "Hello, World! Again!");
     }
 
+    @Test
+    public void fifoActionsChannelTest() throws Exception {
+        var tester = new DatovnTester("fifo-actions-channel");
+        
+        tester.run()
+            .assertSuccess()
+            .assertHasEvent("loadSketches:end", data -> Objects.equals(data.get("upToDate"), false))
+            .assertHasMessage(INFO, "Hello, World!");
+
+        tester.run()
+            .assertSuccess()
+            .assertHasEvent("loadSketches:end", data -> Objects.equals(data.get("upToDate"), true))
+            .assertNoEvent("writeSketches:start");
+
+        tester
+            .adjustWorkspacePath("stage1/foo.txt")
+                .bySetContent("Hello, World! Again!")
+            .run()
+            .assertSuccess()
+            .assertHasEvent("loadSketches:end", data -> Objects.equals(data.get("upToDate"), false))
+            .assertHasMessage(INFO, "Hello, World! Again!");
+    }
+
+    @Test
+    public void unitTimeoutTest() throws Exception {
+        var tester = new DatovnTester("unit-timeout");
+        tester.run()
+            .assertFailure()
+            .assertHasMessage(FATAL, msg -> msg.contains("timed out after 1000ms"))
+            .assertHasMessage(INFO, "tick")
+            // the escaped descendant keeps reporting after the build, which should be dropped
+            .assertNoMoreMessagesWithin(3000);
+    }
+
     @Test
     public void paramAccessTest() throws Exception {
         var tester = new DatovnTester("param-access");
@@ -130,6 +164,35 @@ public class SmokeTest {
             .assertHasMessage(INFO, "Param #0: alice");
     }
 
+    @Test
+    public void javaUnitTest() throws Exception {
+        var tester = new DatovnTester("java-unit");
+
+        tester
+            .adjustWorkspacePath("stage1/plugin")
+                .byCompilingJavaSources("stage1/plugin-src")
+            .run()
+            .assertSuccess()
+            .assertHasEvent("loadSketches:end", data -> Objects.equals(data.get("upToDate"), false))
+            .assertHasMessage(INFO, "Hello, alice!");
+
+        tester.run()
+            .assertSuccess()
+            .assertNoEvent("writeSketches:start")
+            .assertHasMessage(INFO, "Hello, alice!");
+
+        // classes in a directory classpath entry are recorded as read
+        tester
+            .adjustWorkspacePath("stage1/plugin-src/hello/HelloUnit.java")
+                .byReplaceAll("Hello, ", "Bye, ")
+            .adjustWorkspacePath("stage1/plugin")
+                .byCompilingJavaSources("stage1/plugin-src")
+            .run()
+            .assertSuccess()
+            .assertHasEvent("writeSketches:start")
+            .assertHasMessage(INFO, "Bye, alice!");
+    }
+
     @Test
     public void offendingActionTest() throws Exception {
         var tester = new DatovnTester("offending-action");
@@ -141,5 +204,25 @@ public class SmokeTest {
             );
     }
 
+    @Test
+    public void offendingActionAfterSnapshotTest() throws Exception {
+        var tester = new DatovnTester("offending-action-snapshot");
+        tester.run()
+            .assertSuccess();
+
+        // all units are up-to-date, checking is skipped by the snapshot
+        tester.run()
+            .assertSuccess()
+            .assertNoEvent("writeSketches:start");
+
+        // offence between an executed unit and a unit replayed from the snapshot
+        tester
+            .adjustWorkspacePath("stage1/target.txt")
+                .bySetContent("foo.txt")
+            .run()
+            .assertFailure()
+            .assertHasMessage(FATAL, msg -> msg.contains("offends operation from"));
+    }
+
 
 }
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.action;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.vivimice.datovn.icue.IcueSpec;
+
+/**
+ * Unit tests for SketchBuffer class.
+ */
+public class SketchBufferTest {
+
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sketch-buffer-test-");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testSpillKeepsOrder() throws IOException {
+        List<String> messages = new ArrayList<>();
+        try (SketchBuffer buffer = new SketchBuffer(dir, "unit.", 3, -1)) {
+            for (int i = 0; i < 10; i++) {
+                buffer.add(message(MessageLevel.INFO, "line " + i));
+                messages.add("line " + i);
+            }
+            ExecAction.Sketch exec = new ExecAction.Sketch();
+            exec.setSpec(new IcueSpec("sub", null, "./sub.sh", List.of("-v"), List.of("p"), null, 5000L, null));
+            buffer.add(exec);
+
+            assertEquals(11, buffer.size());
+            assertEquals(1, countFiles());
+
+            List<String> read = new ArrayList<>();
+            CompAction.Sketch<?> last = null;
+            for (CompAction.Sketch<?> sketch : buffer) {
+                if (sketch instanceof MessageOutputAction.Sketch m) {
+                    read.add(m.getMessage());
+                }
+                last = sketch;
+            }
+            assertEquals(messages, read);
+
+            ExecAction.Sketch readExec = assertInstanceOf(ExecAction.Sketch.class, last);
+            IcueSpec spec = assertInstanceOf(IcueSpec.class, readExec.getSpec());
+            assertEquals(exec.getSpec().getOpaqueIdentifier(), spec.getOpaqueIdentifier());
+            assertEquals(5000L, (long) spec.getTimeoutMillis());
+        }
+        assertEquals(0, countFiles());
+    }
+
+    @Test
+    public void testCloseAfterPartialIteration() throws IOException {
+        SketchBuffer buffer = new SketchBuffer(dir, "unit.", 2, -1);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(message(MessageLevel.INFO, "line " + i));
+        }
+
+        Iterator<CompAction.Sketch<?>> iterator = buffer.iterator();
+        assertEquals("line 0", ((MessageOutputAction.Sketch) iterator.next()).getMessage());
+        buffer.close();
+        assertEquals(0, countFiles());
+    }
+
+    @Test
+    public void testPersistedMessageLimit() {
+        try (SketchBuffer buffer = new SketchBuffer(dir, "unit.", 100, 2)) {
+            buffer.add(message(MessageLevel.INFO, "a"));
+            buffer.add(message(MessageLevel.INFO, "b"));
+            buffer.add(message(MessageLevel.INFO, "c"));
+            buffer.add(message(MessageLevel.ERROR, "d"));
+            buffer.add(message(MessageLevel.INFO, "e"));
+
+            assertEquals(3, buffer.size());
+            assertEquals(2, buffer.getOmittedMessages());
+
+            List<String> read = new ArrayList<>();
+            buffer.forEach(sketch -> read.add(((MessageOutputAction.Sketch) sketch).getMessage()));
+            assertEquals(List.of("a", "b", "d"), read);
+        }
+    }
+
+    private long countFiles() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static MessageOutputAction.Sketch message(MessageLevel level, String message) {
+        MessageOutputAction.Sketch sketch = new MessageOutputAction.Sketch();
+        sketch.setLevel(level);
+        sketch.setMessage(message);
+        return sketch;
+    }
+
+}
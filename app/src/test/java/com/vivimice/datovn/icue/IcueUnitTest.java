@@ -0,0 +1,87 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class IcueUnitTest {
+
+    private static final List<String> COMMAND = List.of("./unit.sh");
+
+    @Test
+    public void testKeepsLargeParamsByDefault() {
+        List<String> params = List.of("a", "b".repeat(8 * 1024), "c".repeat(40 * 1024));
+        Map<String, String> environment = environmentOf(params);
+
+        assertEquals(List.of(), IcueUnit.removeParamEnvs(environment, COMMAND, params, false));
+        assertEquals(environmentOf(params), environment);
+    }
+
+    @Test
+    public void testRemovesLargeParamsIfOptedIn() {
+        List<String> params = List.of("a", "b".repeat(8 * 1024), "c".repeat(4 * 1024));
+        Map<String, String> environment = environmentOf(params);
+
+        assertEquals(List.of(1), IcueUnit.removeParamEnvs(environment, COMMAND, params, true));
+        assertEquals("a", environment.get("DATOVN_PARAM_VALUE_0"));
+        assertFalse(environment.containsKey("DATOVN_PARAM_VALUE_1"));
+        assertEquals(params.get(2), environment.get("DATOVN_PARAM_VALUE_2"));
+    }
+
+    @Test
+    public void testRemovesParamsExceedingStringLimit() {
+        List<String> params = List.of("a", "b".repeat(IcueUnit.EXEC_STRING_MAX_BYTES));
+        Map<String, String> environment = environmentOf(params);
+
+        assertEquals(List.of(1), IcueUnit.removeParamEnvs(environment, COMMAND, params, false));
+        assertTrue(environment.containsKey("DATOVN_PARAM_VALUE_0"));
+        assertFalse(environment.containsKey("DATOVN_PARAM_VALUE_1"));
+    }
+
+    @Test
+    public void testRemovesLargestParamsExceedingTotalLimit() {
+        int count = (int) (IcueUnit.EXEC_TOTAL_MAX_BYTES / (100 * 1024)) + 2;
+        List<String> params = new ArrayList<>();
+        params.add("a");
+        for (int i = 1; i < count; i++) {
+            params.add("b".repeat(100 * 1024 - i));
+        }
+        Map<String, String> environment = environmentOf(params);
+
+        // the total exceeds the limit by less than one param, so only the largest one is removed
+        assertEquals(List.of(1), IcueUnit.removeParamEnvs(environment, COMMAND, params, false));
+        assertEquals(count - 1, environment.size());
+        assertTrue(environment.containsKey("DATOVN_PARAM_VALUE_0"));
+    }
+
+    private static Map<String, String> environmentOf(List<String> params) {
+        Map<String, String> environment = new HashMap<>();
+        for (int i = 0; i < params.size(); i++) {
+            environment.put("DATOVN_PARAM_VALUE_" + i, params.get(i));
+        }
+        return environment;
+    }
+
+}
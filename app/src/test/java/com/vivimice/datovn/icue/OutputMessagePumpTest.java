@@ -0,0 +1,102 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.vivimice.datovn.action.CompAction;
+import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.action.MessageOutputAction;
+import com.vivimice.datovn.unit.CompActionRecorder;
+
+public class OutputMessagePumpTest {
+
+    private final BlockingQueue<List<String>> batches = new LinkedBlockingQueue<>();
+    private final List<MessageLevel> levels = new ArrayList<>();
+
+    private final CompActionRecorder recorder = new CompActionRecorder(
+        sketch -> batches.add(List.of(message(sketch))),
+        sketches -> batches.add(sketches.stream().map(this::message).toList())
+    );
+
+    private String message(CompAction.Sketch<?> sketch) {
+        MessageOutputAction.Sketch messageSketch = (MessageOutputAction.Sketch) sketch;
+        synchronized (levels) {
+            levels.add(messageSketch.getLevel());
+        }
+        return messageSketch.getMessage();
+    }
+
+    @Test
+    public void testBatchesAvailableLines() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            sb.append("line ").append(i).append('\n');
+            expected.add("line " + i);
+        }
+
+        // all lines are available at once, so they're handed over in full batches, and the rest 
+        // once nothing more is available
+        OutputMessagePump.start(MessageLevel.ERROR, new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)), recorder).get();
+        List<List<String>> received = new ArrayList<>(batches);
+        assertEquals(List.of(256, 256, 88), received.stream().map(List::size).toList());
+        assertEquals(expected, received.stream().flatMap(List::stream).toList());
+        assertEquals(List.of(MessageLevel.ERROR), levels.stream().distinct().toList());
+    }
+
+    @Test
+    public void testFlushesWhenIdle() throws Exception {
+        PipedOutputStream out = new PipedOutputStream();
+        Future<?> pump = OutputMessagePump.start(MessageLevel.INFO, new PipedInputStream(out), recorder);
+
+        // a line is handed over as soon as nothing more is available, without waiting for more
+        out.write("first\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        List<String> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch, "line is held back while the stream is idle");
+        assertEquals(List.of("first"), batch);
+
+        // trailing partial line is reported once the stream ends
+        out.write("second\npartial".getBytes(StandardCharsets.UTF_8));
+        out.close();
+        pump.get(5, TimeUnit.SECONDS);
+        List<String> rest = new ArrayList<>();
+        batches.forEach(rest::addAll);
+        assertEquals(List.of("second", "partial"), rest);
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        OutputMessagePump.start(MessageLevel.INFO, new ByteArrayInputStream(new byte[0]), recorder).get();
+        assertEquals(0, batches.size());
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class AimdLimiterTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void testInitialLimit() {
+        assertEquals(AimdLimiter.DEFAULT_INITIAL_LIMIT, new AimdLimiter().getLimit());
+        assertEquals(8, new AimdLimiter(8).getLimit());
+        assertEquals(1, new AimdLimiter(0).getLimit());
+        assertEquals(256, new AimdLimiter(1000).getLimit());
+    }
+
+    @Test
+    public void testGrowsOnlyWhenSaturated() {
+        AimdLimiter limiter = new AimdLimiter(2);
+        assertEquals(2, limiter.getLimit());
+
+        // window not fully used, no growth
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess("a", 10 * MS, 1);
+        }
+        assertEquals(2, limiter.getLimit());
+
+        // saturated, grows about one per window of successes
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess("a", 10 * MS, limiter.getLimit());
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testMixedLatencies() {
+        AimdLimiter limiter = new AimdLimiter(2);
+
+        // a slow unit alone is not a sign of queueing
+        limiter.onSuccess("fast", 1 * MS, 1);
+        limiter.onSuccess("slow", 50 * MS, 1);
+        limiter.onSuccess("slow", 200 * MS, 1);
+        assertEquals(2, limiter.getLimit());
+
+        // units of very different latencies in the saturated window, each within its own baseline
+        for (int i = 0; i < 20; i++) {
+            limiter.onSuccess("fast", 1 * MS, limiter.getLimit());
+            limiter.onSuccess("slow", 60 * MS, limiter.getLimit());
+        }
+        assertTrue(limiter.getLimit() > 2);
+
+        // inflation of a unit against its own baseline still shrinks the window
+        int limit = limiter.getLimit();
+        limiter.onSuccess("fast", 10 * MS, limit);
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test
+    public void testShrinksOnOverloadAndLatencyInflation() {
+        AimdLimiter limiter = new AimdLimiter(2);
+        for (int i = 0; i < 50; i++) {
+            limiter.onSuccess("a", 10 * MS, limiter.getLimit());
+        }
+        int limit = limiter.getLimit();
+
+        limiter.onOverload();
+        assertTrue(Math.abs(limit / 2 - limiter.getLimit()) <= 1);
+
+        limit = limiter.getLimit();
+        limiter.onSuccess("a", 100 * MS, limit);
+        assertTrue(limiter.getLimit() < limit);
+
+        // never below one
+        for (int i = 0; i < 20; i++) {
+            limiter.onOverload();
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+}
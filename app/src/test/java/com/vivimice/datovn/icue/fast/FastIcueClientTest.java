@@ -0,0 +1,81 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of a client talking to a daemon which never responds.
+ */
+public class FastIcueClientTest {
+
+    private Pipe requests;
+    private Pipe responses;
+    private FastIcueClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        requests = Pipe.open();
+        responses = Pipe.open();
+        client = new FastIcueClient(Channels.newInputStream(responses.source()), Channels.newOutputStream(requests.sink()));
+        Thread.ofPlatform().daemon().start(() -> {
+            try {
+                client.dispatchFrames();
+            } catch (IOException ex) {
+                // connection closed
+            }
+        });
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        client.disconnect();
+        requests.source().close();
+        responses.sink().close();
+    }
+
+    @Test
+    public void testFailedNegotiationClosesConnection() {
+        assertThrows(FastIcueInvocationException.class, () -> client.ping(100));
+
+        // it's unknown which framing the daemon is using, never fallback to the baseline one
+        assertTrue(client.isClosed());
+        assertNull(client.getProtocol());
+        assertThrows(FastIcueInvocationException.class, () -> client.ping(100));
+    }
+
+    @Test
+    public void testTermDeadline() throws InterruptedException {
+        Thread closing = Thread.ofPlatform().start(client::close);
+        closing.join(FastIcueClient.TERM_TIMEOUT_MILLIS + TimeUnit.SECONDS.toMillis(5));
+
+        assertFalse(closing.isAlive());
+        assertTrue(client.isClosed());
+    }
+
+}
@@ -15,14 +15,20 @@
  */
 package com.vivimice.datovn.icue.fast;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
 
 import org.junit.jupiter.api.Test;
 
@@ -132,4 +138,185 @@ public class FastIcueFrameTest {
         assertEquals("3 H | SafeData\r\n", result);
     }
 
+    @Test
+    public void testBase64FrameIsDecodedInV1() throws Exception {
+        byte[] binary = new byte[] {0x00, (byte) 0xff, 0x0d, 0x0a, 0x7c};
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FastIcueFrameOutputStream out = new FastIcueFrameOutputStream(baos);
+        out.writeFrame(new FastIcueFrame(5, 'B', binary));
+        assertEquals("5 B | AP8NCnw=\r\n", new String(baos.toByteArray(), StandardCharsets.UTF_8));
+
+        FastIcueFrameInputStream in = new FastIcueFrameInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        FastIcueFrame frame = in.readFrame();
+        assertEquals(5, frame.invocationId());
+        assertEquals('B', frame.type());
+        assertArrayEquals(binary, frame.payload());
+    }
+
+    @Test
+    public void testEndOfStreamAtFrameBoundary() throws Exception {
+        String input = "01 Z | \r\n";
+        FastIcueFrameInputStream in = new FastIcueFrameInputStream(
+            new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        in.readFrame();
+        assertThrows(EOFException.class, in::readFrame);
+
+        in = new FastIcueFrameInputStream(new ByteArrayInputStream(new byte[0]));
+        in.setProtocol(FastIcueConstants.PROTOCOL_V2);
+        assertThrows(EOFException.class, in::readFrame);
+    }
+
+    @Test
+    public void testWriteAndReadBinaryFrames() throws Exception {
+        byte[] binary = new byte[] {0x00, (byte) 0xff, 0x0d, 0x0a, 0x7c};
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FastIcueFrameOutputStream out = new FastIcueFrameOutputStream(baos);
+        out.setProtocol(FastIcueConstants.PROTOCOL_V2);
+        out.writeFrame(new FastIcueFrame(0x1f3, 'Q', "EXEC FastICUE/2.0"));
+        out.writeFrame(new FastIcueFrame(0x1f3, 'B', binary));
+        out.writeFrame(new FastIcueFrame(0x1f3, 'Z', ""));
+
+        byte[] bytes = baos.toByteArray();
+        assertEquals(3 * 9 + 17 + binary.length, bytes.length);
+        assertArrayEquals(new byte[] {0x00, 0x00, 0x01, (byte) 0xf3, 'Q', 0x00, 0x00, 0x00, 17}, 
+            Arrays.copyOf(bytes, 9));
+
+        FastIcueFrameInputStream in = new FastIcueFrameInputStream(new ByteArrayInputStream(bytes));
+        in.setProtocol(FastIcueConstants.PROTOCOL_V2);
+        FastIcueFrame frame = in.readFrame();
+        assertEquals(0x1f3, frame.invocationId());
+        assertEquals('Q', frame.type());
+        assertEquals("EXEC FastICUE/2.0", frame.data());
+        frame = in.readFrame();
+        assertEquals('B', frame.type());
+        assertArrayEquals(binary, frame.payload());
+        frame = in.readFrame();
+        assertEquals('Z', frame.type());
+        assertEquals(0, frame.payload().length);
+        assertThrows(EOFException.class, in::readFrame);
+    }
+
+    @Test
+    public void testMalformedBinaryFrames() throws Exception {
+        FastIcueFrameInputStream in;
+
+        // truncated header
+        in = new FastIcueFrameInputStream(new ByteArrayInputStream(new byte[] {0x00, 0x00, 0x00, 0x01, 'Z'}));
+        in.setProtocol(FastIcueConstants.PROTOCOL_V2);
+        MalformedFrameException ex = assertThrows(MalformedFrameException.class, in::readFrame);
+        assertTrue(ex.getMessage().contains("incomplete frame"));
+
+        // invalid invocation id
+        in = new FastIcueFrameInputStream(new ByteArrayInputStream(new byte[] {(byte) 0x80, 0x00, 0x00, 0x01, 'Z', 0x00, 0x00, 0x00, 0x00}));
+        in.setProtocol(FastIcueConstants.PROTOCOL_V2);
+        assertThrows(MalformedFrameException.class, in::readFrame);
+
+        // oversized payload
+        in = new FastIcueFrameInputStream(new ByteArrayInputStream(new byte[] {0x00, 0x00, 0x00, 0x01, 'L', 0x7f, 0x00, 0x00, 0x00}));
+        in.setProtocol(FastIcueConstants.PROTOCOL_V2);
+        ex = assertThrows(MalformedFrameException.class, in::readFrame);
+        assertTrue(ex.getMessage().contains("invalid payload length"));
+
+        // truncated payload
+        in = new FastIcueFrameInputStream(new ByteArrayInputStream(new byte[] {0x00, 0x00, 0x00, 0x01, 'L', 0x00, 0x00, 0x00, 0x04, 'a', 'b'}));
+        in.setProtocol(FastIcueConstants.PROTOCOL_V2);
+        ex = assertThrows(MalformedFrameException.class, in::readFrame);
+        assertTrue(ex.getMessage().contains("payload truncated"));
+    }
+
+    @Test
+    public void testOversizedTextFrames() throws Exception {
+        int maxPayloadLength = 4 * 1024 * 1024;
+        String large = "x".repeat(3 * 1024 * 1024);
+        String oversized = "y".repeat(maxPayloadLength + 1);
+        String input = "1 L | " + large + "\r\n"
+                + "2 L | " + oversized + "\r\n"
+                + "3 B | " + Base64.getEncoder().encodeToString(oversized.getBytes(StandardCharsets.UTF_8)) + "\r\n"
+                + "123456789 Q | data\r\n"
+                + "4 QQ | data\r\n"
+                + "5 Z | \r\n"
+                + "6 L | " + oversized + "y".repeat(1024);
+        // reads return pipe-sized chunks, so that little is buffered beyond the current frame
+        FastIcueFrameInputStream in = new FastIcueFrameInputStream(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 16 * 1024));
+            }
+        }, maxPayloadLength);
+
+        // a large frame within the limit is read, and the grown buffer is released afterwards
+        assertEquals(large, in.readFrame().data());
+        assertTrue(in.getBufferCapacity() <= 1024 * 1024);
+
+        // oversized frames are skipped, and following frames are still readable
+        MalformedFrameException ex = assertThrows(MalformedFrameException.class, in::readFrame);
+        assertTrue(ex.getMessage().contains("oversized frame data"), ex.getMessage());
+        assertEquals(Optional.of(2), ex.getInvocationId());
+        ex = assertThrows(MalformedFrameException.class, in::readFrame);
+        assertTrue(ex.getMessage().contains("oversized frame data"), ex.getMessage());
+        assertEquals(Optional.of(3), ex.getInvocationId());
+        ex = assertThrows(MalformedFrameException.class, in::readFrame);
+        assertTrue(ex.getMessage().contains("invalid invocation id"), ex.getMessage());
+        ex = assertThrows(MalformedFrameException.class, in::readFrame);
+        assertTrue(ex.getMessage().contains("oversized type"), ex.getMessage());
+        assertEquals('Z', in.readFrame().type());
+        assertTrue(in.getBufferCapacity() <= 1024 * 1024);
+
+        // a daemon never sending CR-LF can't grow the buffer beyond the limit
+        ex = assertThrows(MalformedFrameException.class, in::readFrame);
+        assertTrue(ex.getMessage().contains("oversized frame data"), ex.getMessage());
+        assertThrows(EOFException.class, in::readFrame);
+        assertTrue(in.getBufferCapacity() <= 1024 * 1024);
+    }
+
+    @Test
+    public void testFramesSpanningBufferBoundaries() throws Exception {
+        // a stream which only returns a few bytes on each read, with data lines larger than the buffer
+        String longLine = "x".repeat(200 * 1024);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= 3; i++) {
+            sb.append(Integer.toHexString(i)).append(" L | ").append(longLine).append(i).append("\r\n");
+            sb.append(Integer.toHexString(i)).append(" Z | \r\n");
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        FastIcueFrameInputStream in = new FastIcueFrameInputStream(new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        });
+
+        for (int i = 1; i <= 3; i++) {
+            FastIcueFrame frame = in.readFrame();
+            assertEquals(i, frame.invocationId());
+            assertEquals('L', frame.type());
+            assertEquals(longLine + i, frame.data());
+            frame = in.readFrame();
+            assertEquals(i, frame.invocationId());
+            assertEquals('Z', frame.type());
+        }
+        assertThrows(EOFException.class, in::readFrame);
+    }
+
+    @Test
+    public void testBufferedFramesAreWrittenAtFlush() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FastIcueFrameOutputStream out = new FastIcueFrameOutputStream(baos);
+
+        out.bufferFrames(List.of(
+            new FastIcueFrame(0x1f3, 'Q', "EXEC FastICUE/1.0"),
+            new FastIcueFrame(0x1f3, 'Z', "")
+        ));
+        assertEquals(0, baos.size());
+
+        // a request which can't be encoded is discarded as a whole
+        assertThrows(IOException.class, () -> out.bufferFrames(List.of(
+            new FastIcueFrame(0x1f4, 'Q', "EXEC FastICUE/1.0"),
+            new FastIcueFrame(0x1f4, 'L', "a\r\nb".getBytes(StandardCharsets.UTF_8))
+        )));
+
+        out.flush();
+        assertEquals("1f3 Q | EXEC FastICUE/1.0\r\n1f3 Z | \r\n", new String(baos.toByteArray(), StandardCharsets.UTF_8));
+    }
+
 }
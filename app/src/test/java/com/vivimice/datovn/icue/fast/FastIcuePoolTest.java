@@ -0,0 +1,337 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.icue.fast.daemon.FastIcueDaemon;
+
+/**
+ * Tests of a pool of connections to in-process daemons. Each unit executed by a daemon is reported 
+ * as "unit@number" where number is the creation order of the connection.
+ */
+public class FastIcuePoolTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<FakeConnection> connections = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<String> executed = new LinkedBlockingQueue<>();
+    private final Map<String, CountDownLatch> blocked = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> maxConcurrency = new ConcurrentHashMap<>();
+    private final Map<Integer, Boolean> failing = new ConcurrentHashMap<>();
+    private FastIcuePool pool;
+
+    @AfterEach
+    public void tearDown() {
+        blocked.values().forEach(CountDownLatch::countDown);
+        if (pool != null) {
+            pool.close();
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testGrowsLazilyAndRoutesToLeastOutstanding() throws Exception {
+        pool = newPool(2, TimeUnit.MINUTES.toNanos(1));
+        assertEquals(0, pool.size());
+
+        // sequential invocations never need another instance
+        assertEquals(202, invoke("x"));
+        assertEquals(202, invoke("y"));
+        assertEquals(List.of("x@1", "y@1"), List.of(nextExecuted(), nextExecuted()));
+        assertEquals(1, pool.size());
+
+        // grows when the instance is busy
+        block("a");
+        block("b");
+        CompletableFuture<Integer> a = invokeAsync("a");
+        assertEquals("a@1", nextExecuted());
+        CompletableFuture<Integer> b = invokeAsync("b");
+        assertEquals("b@2", nextExecuted());
+        assertEquals(2, pool.size());
+
+        // routed to the instance with less outstanding invocations
+        release("b");
+        assertEquals(202, await(b));
+        assertEquals(202, invoke("c"));
+        assertEquals("c@2", nextExecuted());
+
+        // never grows beyond the max size
+        block("d");
+        CompletableFuture<Integer> d = invokeAsync("d");
+        assertEquals("d@2", nextExecuted());
+        assertEquals(202, invoke("e"));
+        assertTrue(Set.of("e@1", "e@2").contains(nextExecuted()));
+        assertEquals(2, pool.size());
+        assertEquals(2, connections.size());
+
+        release("a");
+        release("d");
+        assertEquals(202, await(a));
+        assertEquals(202, await(d));
+    }
+
+    @Test
+    public void testDrainsIdleInstancesButKeepsLast() throws Exception {
+        pool = newPool(2, TimeUnit.MILLISECONDS.toNanos(50));
+        block("a");
+        block("b");
+        CompletableFuture<Integer> a = invokeAsync("a");
+        assertEquals("a@1", nextExecuted());
+        CompletableFuture<Integer> b = invokeAsync("b");
+        assertEquals("b@2", nextExecuted());
+        release("a");
+        release("b");
+        assertEquals(202, await(a));
+        assertEquals(202, await(b));
+        assertEquals(2, pool.size());
+
+        // both idle, the first one is drained and closed off the invoking thread
+        Thread.sleep(100);
+        assertEquals(202, invoke("c"));
+        assertEquals("c@2", nextExecuted());
+        assertEquals(1, pool.size());
+        assertTrue(connections.get(0).closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // the last one is kept however long it's idle
+        Thread.sleep(100);
+        assertEquals(202, invoke("d"));
+        assertEquals("d@2", nextExecuted());
+        assertEquals(1, pool.size());
+        assertEquals(1, connections.get(1).closed.getCount());
+    }
+
+    @Test
+    public void testDiscardsFailedConnection() throws Exception {
+        failing.put(1, true);
+        pool = newPool(1, TimeUnit.MINUTES.toNanos(1));
+
+        ExecutionException ex = assertThrows(ExecutionException.class, 
+                () -> invokeAsync("x").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertInstanceOf(FastIcueClientException.class, ex.getCause());
+        assertEquals(0, pool.size());
+        assertTrue(connections.get(0).closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // a new instance is started for the next invocation
+        assertEquals(202, invoke("y"));
+        assertEquals("y@2", nextExecuted());
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testReroutesOverloadedInvocation() throws Exception {
+        maxConcurrency.put(1, 1);
+        pool = newPool(2, TimeUnit.MINUTES.toNanos(1));
+        pool.ensureInitialConcurrency(2);
+
+        block("a");
+        block("b");
+        CompletableFuture<Integer> a = invokeAsync("a");
+        assertEquals("a@1", nextExecuted());
+        CompletableFuture<Integer> b = invokeAsync("b");
+        assertEquals("b@2", nextExecuted());
+
+        // tie goes to #1, which responds 503, so it's sent to #2 instead
+        assertEquals(202, invoke("c"));
+        assertEquals("c@2", nextExecuted());
+
+        release("a");
+        release("b");
+        assertEquals(202, await(a));
+        assertEquals(202, await(b));
+    }
+
+    @Test
+    public void testBacksOffOverloadedInstance() throws Exception {
+        maxConcurrency.put(1, 1);
+        pool = newPool(1, TimeUnit.MINUTES.toNanos(1));
+        pool.ensureInitialConcurrency(2);
+
+        block("a");
+        CompletableFuture<Integer> a = invokeAsync("a");
+        assertEquals("a@1", nextExecuted());
+
+        // responded 503 and the window shrinks to one, so it waits for the busy instance
+        CompletableFuture<Integer> c = invokeAsync("c");
+        assertThrows(TimeoutException.class, () -> c.get(500, TimeUnit.MILLISECONDS));
+        assertNull(executed.poll());
+
+        release("a");
+        assertEquals(202, await(a));
+        assertEquals(202, await(c));
+        assertEquals("c@1", nextExecuted());
+        assertEquals(1, pool.size());
+    }
+
+    private FastIcuePool newPool(int maxSize, long idleDrainNanos) {
+        // connections are numbered by creation, while the pool numbers instances by its size
+        return new FastIcuePool("test", maxSize, idleDrainNanos, instanceNumber -> {
+            FakeConnection connection = new FakeConnection(connections.size() + 1);
+            connections.add(connection);
+            return connection;
+        });
+    }
+
+    private void block(String unit) {
+        blocked.put(unit, new CountDownLatch(1));
+    }
+
+    private void release(String unit) {
+        blocked.get(unit).countDown();
+    }
+
+    private String nextExecuted() throws InterruptedException {
+        String unit = executed.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(unit, "no unit executed");
+        return unit;
+    }
+
+    private int invoke(String unit) throws Exception {
+        return await(invokeAsync(unit));
+    }
+
+    private static int await(CompletableFuture<Integer> invocation) throws Exception {
+        return invocation.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<Integer> invokeAsync(String unit) {
+        return CompletableFuture.supplyAsync(() -> {
+            FastIcueRequest request = new FastIcueRequest("EXEC");
+            request.setHeader("Unit", unit);
+            request.setHeader("Stage", "s1");
+            request.setHeader("Params-Count", "0");
+            try (FastIcueStreamingResponse response = pool.invokeStreaming(request)) {
+                response.body().transferTo(Writer.nullWriter());
+                return response.statusCode();
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Connection to an in-process daemon, which is served on the connection thread.
+     */
+    private class FakeConnection extends FastIcueConnection {
+
+        private final int number;
+        private final Pipe requests;
+        private final Pipe responses;
+        private final FastIcueClient client;
+        private final FastIcueDaemon daemon;
+        private final CountDownLatch connected = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        FakeConnection(int number) {
+            super("test", Path.of("."), List.of("fake"));
+            this.number = number;
+            try {
+                requests = Pipe.open();
+                responses = Pipe.open();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            client = new FastIcueClient(Channels.newInputStream(responses.source()), Channels.newOutputStream(requests.sink()));
+            daemon = new FastIcueDaemon((request, emitter) -> {
+                executed.add(request.unit() + "@" + number);
+                CountDownLatch latch = blocked.get(request.unit());
+                if (latch != null) {
+                    latch.await();
+                }
+                emitter.message(MessageLevel.INFO, "done");
+            });
+            daemon.setMaxConcurrency(maxConcurrency.getOrDefault(number, 0));
+        }
+
+        @Override
+        public void run() {
+            Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    client.dispatchFrames();
+                } catch (IOException ex) {
+                    // connection closed
+                }
+            });
+            Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    client.ping();
+                } catch (FastIcueInvocationException ex) {
+                    // reported by invocations
+                }
+                connected.countDown();
+            });
+            try {
+                daemon.serve(Channels.newInputStream(requests.source()), Channels.newOutputStream(responses.sink()));
+            } catch (IOException ex) {
+                // connection closed
+            }
+        }
+
+        @Override
+        public long getPid() {
+            return number;
+        }
+
+        @Override
+        public FastIcueClient getClient() throws FastIcueClientException, InterruptedException {
+            if (failing.getOrDefault(number, false)) {
+                throw new FastIcueClientException("connection failed");
+            }
+            connected.await();
+            return client;
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+            client.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class FastIcueRequestTest {
+
+    @Test
+    public void testSmallParamsStayInHeaders() {
+        FastIcueRequest request = new FastIcueRequest("EXEC");
+        request.setHeader("Params-Count", "1");
+        request.setHeader("Param-Value-0", "foo");
+        assertSame(request, request.withLargeParamsInBody(8));
+    }
+
+    @Test
+    public void testLargeParamsMovedToBody() {
+        String large = "x".repeat(9);
+        String multiline = "a\nb";
+        FastIcueRequest request = new FastIcueRequest("EXEC-BATCH");
+        request.setHeader("Units-Count", "2");
+        request.setHeader("Param-Value-0@0", large);
+        request.setHeader("Param-Value-1@0", "small");
+        request.setHeader("Param-Value-0@1", multiline);
+
+        FastIcueRequest moved = request.withLargeParamsInBody(8);
+        assertEquals(List.of("Units-Count", "Param-Length-0@0", "Param-Value-1@0", "Param-Length-0@1"), 
+                List.copyOf(moved.getHeaders().keySet()));
+        assertEquals("9", moved.getHeaders().get("Param-Length-0@0"));
+        assertEquals("small", moved.getHeaders().get("Param-Value-1@0"));
+        assertEquals("3", moved.getHeaders().get("Param-Length-0@1"));
+        assertArrayEquals((large + multiline).getBytes(StandardCharsets.UTF_8), moved.getBody());
+    }
+
+    @Test
+    public void testParamLengthInBytes() {
+        FastIcueRequest request = new FastIcueRequest("EXEC");
+        request.setHeader("Param-Value-0", "你好你");
+        FastIcueRequest moved = request.withLargeParamsInBody(8);
+        assertEquals("9", moved.getHeaders().get("Param-Length-0"));
+    }
+
+}
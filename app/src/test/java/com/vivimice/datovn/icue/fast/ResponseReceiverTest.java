@@ -0,0 +1,182 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class ResponseReceiverTest {
+
+    @Test
+    public void testStreamingResponseBeforeTermination() throws Exception {
+        AtomicInteger completions = new AtomicInteger();
+        ResponseReceiver receiver = new ResponseReceiver(true, completions::incrementAndGet);
+        receiver.addFrame(new FastIcueFrame(1, 'R', "FastICUE/1.0 202 Accepted"));
+        receiver.addFrame(new FastIcueFrame(1, 'L', "first"));
+
+        // response is available before termination, and data is readable as it arrives
+        FastIcueStreamingResponse response = receiver.getStreaming();
+        assertEquals(202, response.statusCode());
+        BufferedReader reader = new BufferedReader(response.body());
+        assertEquals("first", reader.readLine());
+        assertEquals(0, completions.get());
+
+        receiver.addFrame(new FastIcueFrame(1, 'L', "second"));
+        receiver.addFrame(new FastIcueFrame(1, 'Z', ""));
+        assertEquals("second", reader.readLine());
+        assertNull(reader.readLine());
+        assertEquals(1, completions.get());
+        response.close();
+    }
+
+    @Test
+    public void testStreamingResponseBrokenHalfway() throws Exception {
+        ResponseReceiver receiver = new ResponseReceiver(true, () -> {});
+        receiver.addFrame(new FastIcueFrame(1, 'R', "FastICUE/1.0 202 Accepted"));
+        receiver.addFrame(new FastIcueFrame(1, 'L', "first"));
+        receiver.setError("connection i/o error");
+
+        try (FastIcueStreamingResponse response = receiver.getStreaming()) {
+            BufferedReader reader = new BufferedReader(response.body());
+            IOException ex = assertThrows(IOException.class, () -> {
+                while (reader.readLine() != null) {
+                    // drain
+                }
+            });
+            assertTrue(ex.getMessage().contains("connection i/o error"));
+        }
+    }
+
+    @Test
+    public void testCancelledInvocationWaitsForDaemonToAbort() throws Exception {
+        AtomicInteger completions = new AtomicInteger();
+        AtomicInteger cancels = new AtomicInteger();
+        ResponseReceiver receiver = new ResponseReceiver(true, completions::incrementAndGet);
+        receiver.setCanceller(cancels::incrementAndGet);
+        receiver.addFrame(new FastIcueFrame(1, 'R', "FastICUE/1.0 202 Accepted"));
+
+        FastIcueStreamingResponse response = receiver.getStreaming();
+        assertTrue(receiver.cancel("deadline exceeded"));
+        assertFalse(receiver.cancel("deadline exceeded"));
+        assertEquals(1, cancels.get());
+
+        // readers fail right away
+        BufferedReader reader = new BufferedReader(response.body());
+        IOException ex = assertThrows(IOException.class, reader::readLine);
+        assertTrue(ex.getMessage().contains("deadline exceeded"));
+
+        // late frames are discarded, until the daemon terminates the response
+        receiver.addFrame(new FastIcueFrame(1, 'L', "late"));
+        assertEquals(0, completions.get());
+        receiver.addFrame(new FastIcueFrame(1, 'Z', ""));
+        assertEquals(1, completions.get());
+        response.close();
+    }
+
+    @Test
+    public void testEarlyCloseCancelsInvocation() throws Exception {
+        AtomicInteger cancels = new AtomicInteger();
+        ResponseReceiver receiver = new ResponseReceiver(true, () -> {});
+        receiver.addFrame(new FastIcueFrame(1, 'R', "FastICUE/1.0 202 Accepted"));
+        receiver.getStreaming().close();
+        assertTrue(receiver.isCancelled());
+
+        // the request is sent after cancellation, CANCEL follows right away
+        receiver.setCanceller(cancels::incrementAndGet);
+        assertEquals(1, cancels.get());
+    }
+
+    @Test
+    public void testFutureCompletesOnDispatch() throws Exception {
+        ResponseReceiver receiver = new ResponseReceiver(false, () -> {});
+        List<String> bodies = new ArrayList<>();
+        receiver.getFuture().thenAccept(response -> bodies.add(response.data()));
+
+        receiver.addFrame(new FastIcueFrame(1, 'R', "FastICUE/1.0 200 OK"));
+        receiver.addFrame(new FastIcueFrame(1, 'L', "pong"));
+        assertFalse(receiver.getFuture().isDone());
+        receiver.addFrame(new FastIcueFrame(1, 'Z', ""));
+
+        // dependent actions run on the dispatching thread, right after the termination frame
+        assertEquals(List.of("pong\n"), bodies);
+    }
+
+    @Test
+    public void testCancelledFutureCancelsInvocation() throws Exception {
+        AtomicInteger cancels = new AtomicInteger();
+        ResponseReceiver receiver = new ResponseReceiver(true, () -> {});
+        receiver.setCanceller(cancels::incrementAndGet);
+
+        assertTrue(receiver.getStreamingFuture().cancel(false));
+        assertTrue(receiver.isCancelled());
+        assertEquals(1, cancels.get());
+        assertThrows(FastIcueInvocationException.class, receiver::getStreaming);
+    }
+
+    @Test
+    public void testBatchResponseDemultiplexing() throws Exception {
+        ResponseReceiver unit0 = new ResponseReceiver(true, () -> {});
+        ResponseReceiver unit1 = new ResponseReceiver(true, () -> {});
+        AtomicInteger completions = new AtomicInteger();
+        BatchResponseReceiver batch = new BatchResponseReceiver(7, List.of(unit0, unit1), completions::incrementAndGet);
+
+        batch.addFrame(new FastIcueFrame(7, 'R', "FastICUE/1.0 200 OK"));
+        batch.addFrame(new FastIcueFrame(7, 'L', "1 R 500 Internal Error"));
+        batch.addFrame(new FastIcueFrame(7, 'L', "0 R 202 Accepted"));
+        batch.addFrame(new FastIcueFrame(7, 'L', "0 L type: exit"));
+        batch.addFrame(new FastIcueFrame(7, 'L', "1 Z"));
+        batch.addFrame(new FastIcueFrame(7, 'L', "0 L exitCode: 0"));
+        batch.addFrame(new FastIcueFrame(7, 'L', "0 Z"));
+        batch.addFrame(new FastIcueFrame(7, 'Z', ""));
+        assertEquals(1, completions.get());
+
+        try (FastIcueStreamingResponse response = unit0.getStreaming()) {
+            assertEquals(202, response.statusCode());
+            BufferedReader reader = new BufferedReader(response.body());
+            assertEquals("type: exit", reader.readLine());
+            assertEquals("exitCode: 0", reader.readLine());
+            assertNull(reader.readLine());
+        }
+        try (FastIcueStreamingResponse response = unit1.getStreaming()) {
+            assertEquals(500, response.statusCode());
+            assertNull(new BufferedReader(response.body()).readLine());
+        }
+    }
+
+    @Test
+    public void testBatchRejectedAsWhole() throws Exception {
+        ResponseReceiver unit0 = new ResponseReceiver(true, () -> {});
+        ResponseReceiver unit1 = new ResponseReceiver(true, () -> {});
+        BatchResponseReceiver batch = new BatchResponseReceiver(7, List.of(unit0, unit1), () -> {});
+
+        batch.addFrame(new FastIcueFrame(7, 'R', "FastICUE/1.0 503 Busy"));
+        batch.addFrame(new FastIcueFrame(7, 'Z', ""));
+        assertEquals(503, unit0.getStreaming().statusCode());
+        assertEquals(503, unit1.getStreaming().statusCode());
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class StderrTailTest {
+
+    @Test
+    public void testKeepsLastLines() {
+        StderrTail tail = new StderrTail();
+        StringBuilder stderr = new StringBuilder();
+        for (int i = 0; i < StderrTail.MAX_LINES + 10; i++) {
+            stderr.append("line ").append(i).append('\n');
+        }
+        tail.drain(new ByteArrayInputStream(stderr.toString().getBytes(StandardCharsets.UTF_8)));
+
+        List<String> lines = tail.lines();
+        assertEquals(StderrTail.MAX_LINES, lines.size());
+        assertTrue(lines.get(0).endsWith(" line 10"));
+        assertTrue(lines.get(lines.size() - 1).endsWith(" line " + (StderrTail.MAX_LINES + 9)));
+    }
+
+    @Test
+    public void testTruncatesLongLines() {
+        StderrTail tail = new StderrTail();
+        String stderr = "x".repeat(StderrTail.MAX_LINE_BYTES * 3) + "\r\nlast words";
+        tail.drain(new ByteArrayInputStream(stderr.getBytes(StandardCharsets.UTF_8)));
+
+        List<String> lines = tail.lines();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith(" " + "x".repeat(StderrTail.MAX_LINE_BYTES) + " ..."));
+        // the unterminated last line is kept once the stream ends
+        assertTrue(lines.get(1).endsWith(" last words"));
+    }
+
+    @Test
+    public void testDescribe() {
+        assertEquals("failed", StderrTail.describe("failed", List.of()));
+        assertEquals("failed\nLast stderr lines of FastICUE daemon:\n12:00:00.000 a\n12:00:00.001 b",
+                StderrTail.describe("failed", List.of("12:00:00.000 a", "12:00:00.001 b")));
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.icue.fast.daemon;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.vivimice.datovn.action.FileAccessMode;
+import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.icue.fast.FastIcueClient;
+import com.vivimice.datovn.icue.fast.FastIcueRequest;
+import com.vivimice.datovn.icue.fast.FastIcueResponse;
+
+public class FastIcueDaemonTest {
+
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+    private Thread daemonThread;
+    private FastIcueClient client;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        FastIcueDaemon daemon = new FastIcueDaemon((request, emitter) -> {
+            if (request.params().get(0).equals("block")) {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                }
+                return;
+            }
+            emitter.fileAccess(request.params().get(0), FileAccessMode.READ);
+            emitter.message(MessageLevel.INFO, request.unit() + " " + request.params().get(1).length());
+        });
+
+        Pipe requests = Pipe.open();
+        Pipe responses = Pipe.open();
+        daemonThread = Thread.ofPlatform().start(() -> {
+            try {
+                daemon.serve(Channels.newInputStream(requests.source()), Channels.newOutputStream(responses.sink()));
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        client = new FastIcueClient(Channels.newInputStream(responses.source()), Channels.newOutputStream(requests.sink()));
+        Thread.ofPlatform().daemon().start(() -> {
+            try {
+                client.dispatchFrames();
+            } catch (IOException ex) {
+                // connection closed
+            }
+        });
+        assertEquals(200, client.ping().statusCode());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // TERM is responded after ongoing invocations, and the daemon stops serving
+        client.close();
+        daemonThread.join(TimeUnit.SECONDS.toMillis(10));
+        assertTrue(!daemonThread.isAlive());
+    }
+
+    @Test
+    public void testExec() throws Exception {
+        FastIcueRequest request = execRequest("a.c", "x".repeat(100_000));
+        FastIcueResponse response = client.invoke(request);
+
+        assertEquals(202, response.statusCode());
+        String data = response.data();
+        assertTrue(data.contains("\"path\":\"a.c\""), data);
+        assertTrue(data.contains("\"message\":\"u1 100000\""), data);
+    }
+
+    @Test
+    public void testExecBatch() throws Exception {
+        FastIcueRequest request = new FastIcueRequest("EXEC-BATCH");
+        request.setHeader("Units-Count", "2");
+        for (int i = 0; i < 2; i++) {
+            String suffix = "@" + i;
+            execRequest("f" + i, "p".repeat(i)).getHeaders().forEach((name, value) -> request.setHeader(name + suffix, value));
+        }
+        FastIcueResponse response = client.invoke(request);
+
+        assertEquals(200, response.statusCode());
+        String data = response.data();
+        assertTrue(data.contains("0 R 202 Accepted"), data);
+        assertTrue(data.contains("\"message\":\"u1 1\""), data);
+        assertTrue(data.contains("1 Z"), data);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CompletableFuture<FastIcueResponse> future = client.invokeAsync(execRequest("block", ""), 0);
+        Thread.sleep(100);
+        future.cancel(true);
+
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    private static FastIcueRequest execRequest(String path, String param) {
+        FastIcueRequest request = new FastIcueRequest("EXEC");
+        request.setHeader("Unit", "u1");
+        request.setHeader("Stage", "s1");
+        request.setHeader("Params-Count", "2");
+        request.setHeader("Param-Value-0", path);
+        request.setHeader("Param-Value-1", param);
+        return request;
+    }
+
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.plugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.vivimice.datovn.DatovnRuntimeException;
+import com.vivimice.datovn.action.CompAction;
+import com.vivimice.datovn.action.DirectoryAccessAction;
+import com.vivimice.datovn.action.DirectoryAccessMode;
+import com.vivimice.datovn.action.FileAccessAction;
+import com.vivimice.datovn.action.FileAccessMode;
+import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.action.MessageOutputAction;
+import com.vivimice.datovn.build.BuildScopeService;
+import com.vivimice.datovn.profiler.UnitProfiler;
+import com.vivimice.datovn.stage.StageScopeService;
+import com.vivimice.datovn.unit.CompActionRecorder;
+import com.vivimice.datovn.unit.CompUnit;
+import com.vivimice.datovn.unit.UnitContext;
+
+public class JavaUnitTest {
+
+    private static final String SERVICES_FILE = "META-INF/services/" + CompUnit.class.getName();
+
+    private Path dir;
+    private TestUnitContext context;
+    private final List<CompAction.Sketch<?>> sketches = new ArrayList<>();
+    private final CompActionRecorder recorder = new CompActionRecorder(sketches::add);
+
+    /**
+     * An implementation visible from the parent classloader, which must never be picked.
+     */
+    public static class ParentUnit implements CompUnit {
+        @Override
+        public void execute(UnitContext ctx, CompActionRecorder recorder) {
+            recorder.recordInfo("parent");
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("java-unit-test-");
+        context = new TestUnitContext();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        context.services.values().forEach(StageScopeService::onDestroy);
+        try (var files = Files.walk(dir)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testSelectsProviderFromOwnLoader() throws IOException {
+        compileUnit("classes", "OwnUnit");
+        writeServices("classes", ParentUnit.class.getName(), "own.OwnUnit");
+
+        execute(null, "classes");
+
+        // the context classloader is the unit's own loader during execution
+        assertEquals(List.of("own.OwnUnit: alice, true, #1"), messages());
+    }
+
+    @Test
+    public void testNoProvider() throws IOException {
+        writeServices("classes", ParentUnit.class.getName());
+
+        DatovnRuntimeException ex = assertThrows(DatovnRuntimeException.class, () -> execute(null, "classes"));
+        assertEquals("No CompUnit implementation found in classpath.", ex.getMessage());
+    }
+
+    @Test
+    public void testSpecifiedProviderNotFound() throws IOException {
+        compileUnit("classes", "OwnUnit");
+        writeServices("classes", "own.OwnUnit");
+
+        DatovnRuntimeException ex = assertThrows(DatovnRuntimeException.class,
+                () -> execute(ParentUnit.class.getName(), "classes"));
+        assertEquals("CompUnit implementation '" + ParentUnit.class.getName() + "' not found in classpath.", ex.getMessage());
+    }
+
+    @Test
+    public void testMultipleProviders() throws IOException {
+        compileUnit("classes", "OwnUnit");
+        compileUnit("classes", "OtherUnit");
+        writeServices("classes", "own.OwnUnit", "own.OtherUnit");
+
+        DatovnRuntimeException ex = assertThrows(DatovnRuntimeException.class, () -> execute(null, "classes"));
+        assertTrue(ex.getMessage().contains("'provider' must be specified"));
+        assertTrue(ex.getMessage().contains("own.OwnUnit"));
+        assertTrue(ex.getMessage().contains("own.OtherUnit"));
+
+        sketches.clear();
+        execute("own.OtherUnit", "classes");
+        assertEquals(List.of("own.OtherUnit: alice, true, #1"), messages());
+    }
+
+    @Test
+    public void testClassLoaderReusedPerClasspath() throws IOException {
+        JavaPluginService service = new JavaPluginService();
+        List<Path> classpath = List.of(dir.resolve("a"), dir.resolve("b"));
+        ClassLoader loader = service.getClassLoader(classpath);
+        assertSame(loader, service.getClassLoader(List.of(dir.resolve("a"), dir.resolve("b"))));
+        assertNotSame(loader, service.getClassLoader(List.of(dir.resolve("a"))));
+        assertNotSame(loader, service.getClassLoader(List.of(dir.resolve("b"), dir.resolve("a"))));
+
+        service.onDestroy();
+        assertThrows(DatovnRuntimeException.class, () -> service.getClassLoader(classpath));
+    }
+
+    @Test
+    public void testUnitsShareClassLoaderWithinStage() throws IOException {
+        compileUnit("classes", "OwnUnit");
+        writeServices("classes", "own.OwnUnit");
+
+        execute(null, "classes");
+        execute(null, "classes");
+
+        // both are loaded by the same loader, so static state is shared
+        assertEquals(List.of("own.OwnUnit: alice, true, #1", "own.OwnUnit: alice, true, #2"), messages());
+
+        // a new stage gets a new loader
+        context.services.values().forEach(StageScopeService::onDestroy);
+        context.services.clear();
+        sketches.clear();
+        execute(null, "classes");
+        assertEquals(List.of("own.OwnUnit: alice, true, #1"), messages());
+    }
+
+    @Test
+    public void testRecordsClasspathAccesses() throws IOException {
+        compileUnit("classes", "OwnUnit");
+        writeServices("classes", "own.OwnUnit");
+        try (OutputStream out = Files.newOutputStream(dir.resolve("lib.jar"))) {
+            new JarOutputStream(out, new Manifest()).close();
+        }
+
+        execute(null, "lib.jar", "classes");
+
+        List<String> accesses = new ArrayList<>();
+        for (CompAction.Sketch<?> sketch : sketches) {
+            if (sketch instanceof FileAccessAction.Sketch file) {
+                assertEquals(FileAccessMode.READ, file.getMode());
+                accesses.add("read " + file.getPath());
+            } else if (sketch instanceof DirectoryAccessAction.Sketch directory) {
+                assertEquals(DirectoryAccessMode.LIST, directory.getMode());
+                accesses.add("list " + directory.getPath());
+            }
+        }
+        assertEquals(List.of(
+            "read lib.jar",
+            "list classes",
+            "list classes/META-INF",
+            "list classes/META-INF/services",
+            "read classes/" + SERVICES_FILE,
+            "list classes/own",
+            "read classes/own/OwnUnit.class"
+        ), accesses);
+    }
+
+    @Test
+    public void testMissingClasspathEntry() {
+        DatovnRuntimeException ex = assertThrows(DatovnRuntimeException.class, () -> execute(null, "missing.jar"));
+        assertEquals("Classpath entry not found: missing.jar", ex.getMessage());
+        assertTrue(sketches.isEmpty());
+    }
+
+    private void execute(String provider, String... classpath) {
+        JavaSpec spec = new JavaSpec("unit", null, List.of(classpath), provider, List.of("alice"));
+        new JavaUnit(spec).execute(context, recorder);
+    }
+
+    private List<String> messages() {
+        return sketches.stream()
+            .filter(MessageOutputAction.Sketch.class::isInstance)
+            .map(s -> ((MessageOutputAction.Sketch) s).getMessage())
+            .toList();
+    }
+
+    /**
+     * Compiles a CompUnit implementation named own.{className} into the classpath directory. The
+     * unit reports its name, params, whether its loader is the context classloader, and how many 
+     * times the class has been executed.
+     */
+    private void compileUnit(String classesDirectory, String className) throws IOException {
+        Path sourceFile = dir.resolve("src/own/" + className + ".java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.writeString(sourceFile, """
+            package own;
+
+            import com.vivimice.datovn.unit.CompActionRecorder;
+            import com.vivimice.datovn.unit.CompUnit;
+            import com.vivimice.datovn.unit.UnitContext;
+
+            public class %1$s implements CompUnit {
+                private static int executions = 0;
+
+                @Override
+                public void execute(UnitContext ctx, CompActionRecorder recorder) {
+                    boolean contextLoader = Thread.currentThread().getContextClassLoader() == getClass().getClassLoader();
+                    recorder.recordInfo("own.%1$s: " + String.join(", ", ctx.getParams()) + ", " + contextLoader + ", #" + (++executions));
+                }
+            }
+            """.formatted(className));
+
+        String classpath;
+        try {
+            classpath = Path.of(CompUnit.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException ex) {
+            throw new IllegalStateException(ex);
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull(compiler, "Java compiler not available");
+        assertEquals(0, compiler.run(null, null, null,
+                "-d", dir.resolve(classesDirectory).toString(), "-cp", classpath, sourceFile.toString()));
+    }
+
+    private void writeServices(String classesDirectory, String... providers) throws IOException {
+        Path servicesFile = dir.resolve(classesDirectory).resolve(SERVICES_FILE);
+        Files.createDirectories(servicesFile.getParent());
+        Files.writeString(servicesFile, String.join("\n", providers) + "\n", StandardCharsets.UTF_8);
+    }
+
+    private class TestUnitContext implements UnitContext {
+
+        private final Map<String, StageScopeService> services = new HashMap<>();
+
+        @Override
+        public String getStageName() {
+            return "stage";
+        }
+
+        @Override
+        public Path getWorkingDirectory() {
+            return dir;
+        }
+
+        @Override
+        public List<String> getParams() {
+            return List.of("alice");
+        }
+
+        @Override
+        public void logMessage(MessageLevel level, String message, String location) {
+        }
+
+        @Override
+        public UnitProfiler getProfiler() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends StageScopeService> T getStageService(String key, Supplier<T> factory) {
+            return (T) services.computeIfAbsent(key, k -> factory.get());
+        }
+
+        @Override
+        public <T extends BuildScopeService> T getBuildService(String key, Supplier<T> factory) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.stage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.vivimice.datovn.action.ActionsStore;
+import com.vivimice.datovn.action.CompAction;
+import com.vivimice.datovn.action.ExecAction;
+import com.vivimice.datovn.action.LoadedSketches;
+import com.vivimice.datovn.action.MessageLevel;
+import com.vivimice.datovn.action.MessageOutputAction;
+import com.vivimice.datovn.action.SketchBuffer;
+import com.vivimice.datovn.build.BuildContext;
+import com.vivimice.datovn.build.BuildScopeService;
+import com.vivimice.datovn.icue.IcueSpec;
+import com.vivimice.datovn.profiler.BuildProfiler;
+import com.vivimice.datovn.profiler.StageProfiler;
+
+public class CompActionProcessorTest {
+
+    private final BuildProfiler buildProfiler = new BuildProfiler(event -> {});
+    private final StageProfiler stageProfiler = buildProfiler.createStageProfiler();
+    private final List<String> messages = new ArrayList<>();
+
+    private Path dir;
+    private TestStageContext context;
+    private IcueSpec spec;
+    private UnitContextImpl unitContext;
+    private SketchBuffer recordedSketches;
+    private CompActionProcessor processor;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("comp-action-processor-test-");
+        context = new TestStageContext();
+        spec = new IcueSpec("unit", null, "./unit.sh", List.of(), List.of(), null, null, null);
+        recordedSketches = context.getActionsStore().createSketchBuffer(spec);
+        unitContext = new UnitContextImpl(context, stageProfiler.createUnitProfiler(), spec, new HashMap<>());
+        processor = new CompActionProcessor(context, unitContext, new StagePathAccessChecker(dir, null), spec, recordedSketches);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        recordedSketches.close();
+        try (var files = Files.walk(dir)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testAcceptAllKeepsOrder() {
+        IcueSpec sub = new IcueSpec("sub", null, "./sub.sh", List.of(), List.of(), null, null, null);
+        ExecAction.Sketch exec = new ExecAction.Sketch();
+        exec.setSpec(sub);
+
+        processor.accept(message("first"));
+        processor.acceptAll(List.of(message("second"), exec, message("third")));
+        processor.acceptAll(List.of());
+        processor.accept(message("fourth"));
+
+        assertEquals(List.of("first", "second", "third", "fourth"), messages);
+        assertEquals(List.of(sub), processor.getInvocations());
+
+        List<CompAction.Sketch<?>> recorded = new ArrayList<>();
+        recordedSketches.forEach(recorded::add);
+        assertEquals(5, recorded.size());
+        assertEquals("sub", ((ExecAction.Sketch) recorded.get(2)).getSpec().getName());
+    }
+
+    @Test
+    public void testSealDropsLateSketches() {
+        processor.accept(message("first"));
+        processor.seal();
+        processor.accept(message("second"));
+        processor.acceptAll(List.of(message("third")));
+
+        assertEquals(List.of("first"), messages);
+        assertEquals(1, recordedSketches.size());
+    }
+
+    @Test
+    public void testReplayWithoutBuffer() {
+        IcueSpec sub = new IcueSpec("sub", null, "./sub.sh", List.of(), List.of(), null, null, null);
+        ExecAction.Sketch exec = new ExecAction.Sketch();
+        exec.setSpec(sub);
+
+        CompActionProcessor replaying = new CompActionProcessor(context, unitContext, new StagePathAccessChecker(dir, null), spec, null);
+        replaying.replay(new LoadedSketches(List.of(message("first"), exec, message("second")), "2025-01-01T00:00:00Z"));
+
+        assertEquals(List.of("first", "second"), messages);
+        assertEquals(List.of(sub), replaying.getInvocations());
+        assertEquals(0, recordedSketches.size());
+    }
+
+    private static MessageOutputAction.Sketch message(String message) {
+        MessageOutputAction.Sketch sketch = new MessageOutputAction.Sketch();
+        sketch.setLevel(MessageLevel.INFO);
+        sketch.setMessage(message);
+        return sketch;
+    }
+
+    private class TestStageContext implements StageContext {
+
+        private final ActionsStore actionsStore = new ActionsStore(new TestBuildContext(), this);
+
+        @Override
+        public String getStageName() {
+            return "stage";
+        }
+
+        @Override
+        public Path getStageWorkingDir() {
+            return dir;
+        }
+
+        @Override
+        public ActionsStore getActionsStore() {
+            return actionsStore;
+        }
+
+        @Override
+        public Executor getCompUnitThreadPool() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StageProfiler getProfiler() {
+            return stageProfiler;
+        }
+
+        @Override
+        public void logMessage(MessageLevel level, String message, String location) {
+            messages.add(message);
+        }
+
+        @Override
+        public void logProgress(double progress, String message) {
+        }
+
+        @Override
+        public <T extends BuildScopeService> T getBuildService(String key, Supplier<T> factory) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private class TestBuildContext implements BuildContext {
+
+        @Override
+        public Path getBuildDirectory() {
+            return dir;
+        }
+
+        @Override
+        public Path getActionStoreDirectory() {
+            return dir.resolve(".datovn/actions");
+        }
+
+        @Override
+        public ExecutorService getCompUnitThreadPool() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BuildProfiler getProfiler() {
+            return buildProfiler;
+        }
+
+        @Override
+        public void logMessage(MessageLevel level, String message, String location) {
+            messages.add(message);
+        }
+
+        @Override
+        public void logProgress(double progress, String message) {
+        }
+
+    }
+
+}
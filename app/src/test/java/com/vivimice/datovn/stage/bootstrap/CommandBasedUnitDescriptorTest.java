@@ -0,0 +1,62 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.stage.bootstrap;
+
+import static com.vivimice.datovn.stage.bootstrap.CommandBasedUnitDescriptor.parseTimeoutMillis;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class CommandBasedUnitDescriptorTest {
+
+    @Test
+    public void testParseTimeout() {
+        assertEquals(1500, parseTimeoutMillis(1.5));
+        assertEquals(30_000, parseTimeoutMillis(30));
+        assertEquals(500, parseTimeoutMillis("500ms"));
+        assertEquals(90_000, parseTimeoutMillis("PT1M30S"));
+        assertEquals(1, parseTimeoutMillis("PT0.001S"));
+    }
+
+    @Test
+    public void testRejectsNonPositiveTimeout() {
+        assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis(0));
+        assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis(-1));
+        assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis("0s"));
+        assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis("PT-1S"));
+    }
+
+    @Test
+    public void testRejectsSubMillisecondTimeout() {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis("PT0.0001S"));
+        assertTrue(ex.getMessage().contains("PT0.0001S"));
+        assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis(0.0001));
+    }
+
+    @Test
+    public void testRejectsOutOfRangeTimeout() {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, 
+                () -> parseTimeoutMillis("9999999999999999h"));
+        assertTrue(ex.getMessage().contains("9999999999999999h"));
+        ex = assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis("P99999999999999D"));
+        assertTrue(ex.getMessage().contains("P99999999999999D"));
+        assertThrows(IllegalArgumentException.class, () -> parseTimeoutMillis(1e300));
+    }
+
+}
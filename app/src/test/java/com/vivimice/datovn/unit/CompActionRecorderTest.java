@@ -0,0 +1,61 @@
+/**
+ * Copyright 2025 vivimice@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vivimice.datovn.unit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.vivimice.datovn.action.CompAction;
+import com.vivimice.datovn.action.ExitAction;
+
+public class CompActionRecorderTest {
+
+    @Test
+    public void testRecordAllFallsBackToSingleConsumer() {
+        List<CompAction.Sketch<?>> recorded = new ArrayList<>();
+        CompActionRecorder recorder = new CompActionRecorder(recorded::add);
+
+        List<CompAction.Sketch<?>> sketches = List.of(exit(1), exit(2), exit(3));
+        recorder.recordAll(sketches);
+        assertEquals(sketches, recorded);
+    }
+
+    @Test
+    public void testRecordAllHandsOverBatch() {
+        List<CompAction.Sketch<?>> singles = new ArrayList<>();
+        List<List<? extends CompAction.Sketch<?>>> batches = new ArrayList<>();
+        CompActionRecorder recorder = new CompActionRecorder(singles::add, batches::add);
+
+        List<CompAction.Sketch<?>> sketches = List.of(exit(1), exit(2));
+        recorder.recordAll(sketches);
+        recorder.recordAll(List.of()); // empty batches are not handed over
+        recorder.recordExit(3);
+
+        assertEquals(List.of(sketches), batches);
+        assertEquals(1, singles.size());
+    }
+
+    private static ExitAction.Sketch exit(int exitCode) {
+        ExitAction.Sketch sketch = new ExitAction.Sketch();
+        sketch.setExitCode(exitCode);
+        return sketch;
+    }
+
+}
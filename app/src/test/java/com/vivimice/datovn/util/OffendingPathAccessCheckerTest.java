@@ -19,8 +19,13 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.junit.jupiter.api.Test;
@@ -90,6 +95,116 @@ public class OffendingPathAccessCheckerTest {
         ));
     }
 
+    @Test
+    void testConcurrentCollisions() throws InterruptedException {
+        OffendingPathAccessChecker<String> checker = new OffendingPathAccessChecker<>();
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger offended = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String owner = "unit" + i;
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    throw new AssertionError(ex);
+                }
+                List<PathAccess> reads = new ArrayList<>();
+                for (int j = 0; j < 1000; j++) {
+                    reads.add(new PathAccess(OperationType.CONTENT_READ, Path.of("/src/" + owner + "/" + j)));
+                }
+                if (checker.onPathAccesses(reads, owner) != null) {
+                    offended.incrementAndGet();
+                }
+                // only one of the colliding operations can succeed
+                if (checker.onFileCreation(Path.of("/out/all"), owner) == null) {
+                    created.incrementAndGet();
+                }
+                if (checker.onPathRemoval(Path.of("/src/" + owner), owner) != null) {
+                    offended.incrementAndGet();
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, created.get());
+        assertEquals(0, offended.get());
+        assertNotNull(checker.onDirectoryListing(Path.of("/src"), "other"));
+    }
+
+    @Test
+    void testCopy() {
+        OffendingPathAccessChecker<String> checker = new OffendingPathAccessChecker<>();
+        assertNull(checker.onFileWrite(Path.of("/foo/bar/baz"), "alice"));
+
+        OffendingPathAccessChecker<String> copy = new OffendingPathAccessChecker<>(checker);
+        assertNull(checker.onFileRead(Path.of("/foo/qux"), "bob"));
+        assertNotNull(copy.onFileRead(Path.of("/foo/bar/baz"), "bob"));
+        assertNull(copy.onPathRemoval(Path.of("/foo/qux"), "carol"));
+        assertNotNull(checker.onPathRemoval(Path.of("/foo/qux"), "carol"));
+    }
+
+    @Test
+    void testOffendingOperation() {
+        OffendingPathAccessChecker<String> checker = new OffendingPathAccessChecker<>();
+        assertNull(checker.onFileRead(Path.of("/foo/bar/baz"), "alice"));
+        assertNull(checker.onFileRead(Path.of("/foo/bar/baz"), "alice"));
+
+        PathAccessOperation<String> offending = checker.onPathRemoval(Path.of("/foo"), "bob");
+        assertEquals(new PathAccessOperation<>(OperationType.CONTENT_READ, Path.of("/foo/bar/baz"), "alice", "file read at /foo/bar/baz"), offending);
+    }
+
+    @Test
+    void testSubtreeSummary() {
+        OffendingPathAccessChecker<String> checker = new OffendingPathAccessChecker<>();
+        for (int i = 0; i < 100; i++) {
+            assertNull(checker.onFileRead(Path.of("/foo/a/" + i), "alice"));
+        }
+        assertNull(checker.onFileRead(Path.of("/foo/b/0"), "bob"));
+
+        // subtrees without offending types, or with operations of the same owner only
+        assertNull(checker.onDirectoryListing(Path.of("/foo/b"), "carol"));
+        assertNull(checker.onPathRemoval(Path.of("/foo/a"), "alice"));
+        assertNull(checker.onFileCreation(Path.of("/foo/a/new"), "alice"));
+
+        PathAccessOperation<String> offending = checker.onPathRemoval(Path.of("/foo/b"), "carol");
+        assertNotNull(offending);
+        assertEquals("bob", offending.owner());
+        assertEquals(Path.of("/foo/b/0"), offending.path());
+    }
+
+    @Test
+    void testBatch() {
+        OffendingPathAccessChecker<String> checker = new OffendingPathAccessChecker<>();
+        assertNull(checker.onFileWrite(Path.of("/out/b.o"), "bob"));
+
+        List<PathAccess> accesses = List.of(
+            new PathAccess(OperationType.CONTENT_READ, Path.of("/src/b.c")),
+            new PathAccess(OperationType.DIR_LIST, Path.of("/src")),
+            new PathAccess(OperationType.CONTENT_READ, Path.of("/src/a/a.c")),
+            new PathAccess(OperationType.DIR_CREATE, Path.of("/out")),
+            new PathAccess(OperationType.CONTENT_READ, Path.of("/src/b.c")),
+            new PathAccess(OperationType.PATH_CHECK, Path.of("/src/b.c")),
+            new PathAccess(OperationType.CONTENT_WRITE, Path.of("/out/a.o"))
+        );
+        assertNull(checker.onPathAccesses(accesses, "alice"));
+        assertNotNull(checker.onFileWrite(Path.of("/src/a/a.c"), "carol"));
+        assertNotNull(checker.onDirectoryCreation(Path.of("/out"), "carol"));
+        assertNull(checker.onFileRead(Path.of("/src/b.c"), "carol"));
+
+        OffendingPathAccessChecker.BatchOffence<String> offence = checker.onPathAccesses(List.of(
+            new PathAccess(OperationType.CONTENT_READ, Path.of("/lib/x.h")),
+            new PathAccess(OperationType.CONTENT_READ, Path.of("/out/b.o"))
+        ), "dave");
+        assertNotNull(offence);
+        assertEquals(1, offence.index());
+        assertEquals(new PathAccessOperation<>(OperationType.CONTENT_WRITE, Path.of("/out/b.o"), "bob", "file write at /out/b.o"), offence.operation());
+    }
+
     private void testWithMatrixMap(String opPath, String existingPath, boolean offendingExpected, Map<String, String> matrix) {
         matrix.forEach((newOp, existingOps) -> {
             for (String existingOp : existingOps.split("\\s+")) {
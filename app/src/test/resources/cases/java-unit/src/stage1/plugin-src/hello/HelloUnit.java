@@ -0,0 +1,14 @@
+package hello;
+
+import com.vivimice.datovn.unit.CompActionRecorder;
+import com.vivimice.datovn.unit.CompUnit;
+import com.vivimice.datovn.unit.UnitContext;
+
+public class HelloUnit implements CompUnit {
+
+    @Override
+    public void execute(UnitContext ctx, CompActionRecorder recorder) {
+        recorder.recordInfo("Hello, " + String.join(", ", ctx.getParams()) + "!");
+    }
+
+}
@@ -0,0 +1,13 @@
+#!/bin/sh
+# Leaves a descendant which escapes the kill after timeout, and keeps reporting messages through
+# the actions channel for a while.
+(setsid sh -c '
+    exec >>"$DATOVN_ACTIONS_OUTPUT_FILE"
+    i=0
+    while [ $i -lt 500 ]; do
+        printf -- "---\ntype: messageOutput\nlevel: INFO\nmessage: tick\n"
+        i=$((i+1))
+        sleep 0.01
+    done
+' &)
+sleep 60